@@ -1,12 +1,13 @@
 package isacmms.reactiveapp.authapp.api;
 
+import static isacmms.reactiveapp.todoapp.util.MediaTypes.payloadType;
+
 import java.net.URI;
 import java.util.Optional;
 
 import org.reactivestreams.Publisher;
 import org.springframework.data.util.StreamUtils;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Component;
 import org.springframework.util.MultiValueMap;
@@ -53,60 +54,61 @@ public class UserHandler {
 		Optional<String> username = req.queryParam("username");
 		Optional<String> email = req.queryParam("email");
 		if (username.isPresent())
-			return defaultOkOneResponse(this.service.findByUsername(username.get()));
+			return defaultOkOneResponse(req, this.service.findByUsername(username.get()));
 		if (email.isPresent())
-			return defaultOkOneResponse(this.service.findByEmail(email.get()));
-		return defaultOkManyResponse(this.service.all());
+			return defaultOkOneResponse(req, this.service.findByEmail(email.get()));
+		return defaultOkManyResponse(req, this.service.all());
 	}
 	
 	public Mono<ServerResponse> getByEmail(ServerRequest req) {
-		return defaultOkOneResponse(this.service.findByEmail(pathEmail(req)));
+		return defaultOkOneResponse(req, this.service.findByEmail(pathEmail(req)));
 	}
 	
 	@Deprecated
 	public Mono<ServerResponse> getByUsername(ServerRequest req) {
-		return defaultOkOneResponse(this.service.findByUsername(pathUsername(req)));
+		return defaultOkOneResponse(req, this.service.findByUsername(pathUsername(req)));
 	}
 	
 	public Mono<ServerResponse> create(ServerRequest req) {
 		log.debug("> UserHandler.create()");
-		return defaultCreatedResponse(
+		return defaultCreatedResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validate)
 					.flatMap(this.service::create));
 	}
 	
 	public Mono<ServerResponse> update(ServerRequest req) {
-		return defaultOkOneResponse(
+		return defaultOkOneResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validate)
 					.flatMap(usuario -> this.service.update(pathUsername(req), usuario)));
 	}
 	
 	public Mono<ServerResponse> patch(ServerRequest req) {
-		return defaultOkOneResponse(
+		return defaultOkOneResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validateIgnoreNull)
 					.flatMap(user -> this.service.patch(pathUsername(req), user)));
 	}
 	
 	public Mono<ServerResponse> delete(ServerRequest req) {
-		return defaultAcceptedResponse(this.service.delete(pathUsername(req)));
+		return defaultAcceptedResponse(req, this.service.delete(pathUsername(req)));
 	}
 	
 	/**
 	 * Default Http DELETE response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	private static Mono<ServerResponse> defaultAcceptedResponse(Publisher<Usuario> publisher) {
+	private static Mono<ServerResponse> defaultAcceptedResponse(ServerRequest req, Publisher<Usuario> publisher) {
 		log.debug("> UserHandler.defaultAcceptedResponse()");
 		return Mono.from(publisher)
 				.flatMap(user -> 
 					ServerResponse
 						.accepted()
-						.contentType(MediaType.APPLICATION_JSON)
+						.contentType(payloadType(req))
 						.body(Mono.just(user), Usuario.class))
 				.switchIfEmpty(notFoundResponse());
 	}
@@ -114,16 +116,17 @@ public class UserHandler {
 	/**
 	 * Http GET one, PUT and PATCH response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	private static Mono<ServerResponse> defaultOkOneResponse(Publisher<Usuario> publisher) {
+	private static Mono<ServerResponse> defaultOkOneResponse(ServerRequest req, Publisher<Usuario> publisher) {
 		log.debug("> UserHandler.defaultOkOneResponse()");
 		return Mono.from(publisher)
 			.flatMap(user -> 
 					ServerResponse
 						.ok()
-						.contentType(MediaType.APPLICATION_JSON)
+						.contentType(payloadType(req))
 						.body(Mono.just(user), Usuario.class))
 			.switchIfEmpty(notFoundResponse());
 	}
@@ -131,30 +134,32 @@ public class UserHandler {
 	/**
 	 * Default Http GET many response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	private static Mono<ServerResponse> defaultOkManyResponse(Publisher<Usuario> publisher) {
+	private static Mono<ServerResponse> defaultOkManyResponse(ServerRequest req, Publisher<Usuario> publisher) {
 		log.debug("> UserHandler.defaultOkManyResponse()");
 		return ServerResponse
 			.ok()
-			.contentType(MediaType.APPLICATION_JSON)
+			.contentType(payloadType(req))
 			.body(publisher, Usuario.class);
 	}
 	
 	/**
 	 * Default Http POST response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	private static Mono<ServerResponse> defaultCreatedResponse(Publisher<Usuario> publisher) {
+	private static Mono<ServerResponse> defaultCreatedResponse(ServerRequest req, Publisher<Usuario> publisher) {
 		log.debug("> UserHandler.defaultCreatedResponse()");
 		return Mono.from(publisher)
 			.flatMap(user -> 
 					ServerResponse
 						.created(URI.create("/api/usuarios/" + user.getEmail()))
-						.contentType(MediaType.APPLICATION_JSON)
+						.contentType(payloadType(req))
 						.body(Mono.just(user), Usuario.class));
 	}
 	
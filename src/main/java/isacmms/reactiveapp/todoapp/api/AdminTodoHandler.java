@@ -1,7 +1,12 @@
 package isacmms.reactiveapp.todoapp.api;
 
+import static isacmms.reactiveapp.todoapp.util.MediaTypes.payloadType;
+
+import java.net.URI;
 import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -14,6 +19,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import isacmms.reactiveapp.todoapp.model.Todo;
 import isacmms.reactiveapp.todoapp.service.AdminTodoService;
+import isacmms.reactiveapp.todoapp.service.CursorRequest;
+import isacmms.reactiveapp.todoapp.service.TodoPurgeJob;
 import isacmms.reactiveapp.todoapp.service.TodoService;
 import lombok.extern.log4j.Log4j2;
 import reactor.core.publisher.Flux;
@@ -24,6 +31,8 @@ import reactor.core.publisher.Mono;
 @PreAuthorize("hasRole('ROLE_ADMIN')")
 public class AdminTodoHandler extends TodoHandler {
 	
+	private static final String PURGE_NOT_FOUND = "Purge job not found.";
+	
 	private final AdminTodoService service;
 	
 	public AdminTodoHandler(TodoService service, Validator validator, ObjectMapper mapper) {
@@ -58,13 +67,32 @@ public class AdminTodoHandler extends TodoHandler {
 	
 	public Mono<ServerResponse> all(ServerRequest req) {
 		log.debug("> UserTodoHandler.all()");
-		return defaultOkManyResponse(
-				this.service.findAllIgnoreOwnership(regexParams(req), sortParams(req)));
+		final Optional<CursorRequest> page = pageParams(req);
+		final Set<String> fields = fieldsParam(req);
+		if (includeArchived(req))
+			return page.isPresent() ?
+					okPageResponse(req,
+						this.service.findPageWithArchiveIgnoreOwnership(regexParams(req), filterParams(req), fields, page.get(), sortParams(req)),
+						fields, null) :
+					okManyResponse(req,
+						this.service.findAllWithArchiveIgnoreOwnership(regexParams(req), filterParams(req), fields, sortParams(req)),
+						fields, null);
+		if (page.isPresent())
+			return okPageResponse(req,
+					this.service.findPageIgnoreOwnership(regexParams(req), filterParams(req), fields, page.get(), sortParams(req)),
+					fields, null);
+		if (rawListing(req))
+			return okRawManyResponse(req,
+					this.service.findAllRawIgnoreOwnership(regexParams(req), filterParams(req), fields, sortParams(req)),
+					fields, null);
+		return okManyResponse(req,
+				this.service.findAllIgnoreOwnership(regexParams(req), filterParams(req), fields, sortParams(req)),
+				fields, null);
 	}
 	
 	public Mono<ServerResponse> getById(ServerRequest req) {
 		log.debug("> UserTodoHandler.getById()");
-		return defaultOkOneResponse(this.service.findByIdIgnoreOwnership(id(req)));
+		return conditionalOkOneResponse(req, this.service.findByIdIgnoreOwnership(id(req)));
 	}
 	
 	public Mono<ServerResponse> create(ServerRequest req) {
@@ -72,7 +100,7 @@ public class AdminTodoHandler extends TodoHandler {
 			final Optional<String> forceOwner = forceOwner(req);
 			final String owner = forceOwner.isPresent() ? forceOwner.get() : principal.getName();
 			
-			return defaultCreatedResponse(
+			return defaultCreatedResponse(req,
 					extractBodyRequired(req)
 						.doOnNext(this::validate)
 						.flatMap(todo -> this.service.create(todo, owner)));
@@ -80,25 +108,72 @@ public class AdminTodoHandler extends TodoHandler {
 	}
 	
 	public Mono<ServerResponse> updateById(ServerRequest req) {
-		return defaultOkOneResponse(
+		return defaultOkOneResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validate)
-					.flatMap(todo -> this.service.updateIgnoreOwnership(id(req), todo)));
+					.flatMap(todo -> this.service.updateIgnoreOwnership(id(req), todo, ifMatchVersion(req))));
 	}
 	
 	public Mono<ServerResponse> patchById(ServerRequest req) {
-		return defaultOkOneResponse(
+		return defaultOkOneResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validateIgnoreNull)
-					.flatMap(todo -> this.service.patchIgnoreOwnership(id(req), todo)));
+					.flatMap(todo -> this.service.patchIgnoreOwnership(id(req), todo, ifMatchVersion(req))));
 	}
 	
 	public Mono<ServerResponse> deleteById(ServerRequest req) {
-		return defaultAcceptedResponse(this.service.deleteIgnoreOwnership(id(req)));
+		return defaultAcceptedResponse(req, this.service.deleteIgnoreOwnership(id(req)));
 	}
 	
+	/**
+	 * Starts a chunked purge of every todo, or of the <i>owner</i> parameter's todos.
+	 * Answers at once with the job, whose progress is found at its location.
+	 */
 	public Mono<ServerResponse> clear(ServerRequest req) {
-		return defaultAcceptedResponse(this.service.deleteAll());
+		log.debug("> AdminTodoHandler.clear()");
+		return this.service.purge(req.queryParam("owner").orElse(null))
+				.flatMap(job -> 
+						ServerResponse
+							.accepted()
+							.location(URI.create("/api/admin/todos/purges/" + job.getId()))
+							.contentType(payloadType(req))
+							.bodyValue(job));
+	}
+	
+	public Mono<ServerResponse> purgeById(ServerRequest req) {
+		log.debug("> AdminTodoHandler.purgeById()");
+		return okPurgeResponse(req, this.service.findPurge(id(req)));
+	}
+	
+	public Mono<ServerResponse> cancelPurgeById(ServerRequest req) {
+		log.debug("> AdminTodoHandler.cancelPurgeById()");
+		return okPurgeResponse(req, this.service.cancelPurge(id(req)));
+	}
+	
+	private static Mono<ServerResponse> okPurgeResponse(ServerRequest req, Mono<TodoPurgeJob> job) {
+		return job
+				.flatMap(j -> 
+						ServerResponse
+							.ok()
+							.contentType(payloadType(req))
+							.bodyValue(j))
+				.switchIfEmpty(Mono.defer(() -> Mono.error(new NotFoundException(PURGE_NOT_FOUND))));
+	}
+	
+	/**
+	 * Recomputes every owner's summary counters from the todos collection.
+	 * 
+	 * @param req
+	 * @return number of owners summarized.
+	 */
+	public Mono<ServerResponse> rebuildSummaries(ServerRequest req) {
+		log.debug("> AdminTodoHandler.rebuildSummaries()");
+		return this.service.rebuildSummaries()
+				.flatMap(owners -> 
+						ServerResponse
+							.ok()
+							.contentType(payloadType(req))
+							.bodyValue(Map.of("owners", owners)));
 	}
 	
 	/**
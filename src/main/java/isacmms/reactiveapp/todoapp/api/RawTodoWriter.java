@@ -0,0 +1,213 @@
+package isacmms.reactiveapp.todoapp.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Writes raw todo documents straight into JSON buffers, without building Todo instances.
+ * <p>Only Todo's serialized properties are written, in the order and with the null handling
+ * the ObjectMapper uses for Todo, so <i>@JsonIgnore</i> fields (owner, audit fields, __v)
+ * never reach the output and the bytes match the mapped listing.
+ * Serialized names are expected to be the stored field names, as they are in Todo.</p>
+ *
+ * @author isacm
+ *
+ */
+final class RawTodoWriter {
+
+	private static final byte[] ARRAY_START = "[".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ARRAY_END = "]".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+	private final ObjectMapper mapper;
+
+	/**
+	 * Serialized property names in serialization order.
+	 */
+	private final List<String> properties;
+
+	private final boolean writeNulls;
+
+	RawTodoWriter(ObjectMapper mapper) {
+		this.mapper = mapper;
+		this.properties = mapper.getSerializationConfig()
+				.introspect(mapper.constructType(Todo.class))
+				.findProperties().stream()
+				.filter(BeanPropertyDefinition::couldSerialize)
+				.map(BeanPropertyDefinition::getName)
+				.collect(Collectors.toUnmodifiableList());
+		final JsonInclude.Include inclusion = mapper.getSerializationConfig()
+				.getDefaultPropertyInclusion(Todo.class).getValueInclusion();
+		this.writeNulls = inclusion == JsonInclude.Include.ALWAYS || inclusion == JsonInclude.Include.USE_DEFAULTS;
+	}
+
+	/**
+	 * Todo's serialized property names.
+	 */
+	List<String> properties() {
+		return this.properties;
+	}
+
+	/**
+	 * Documents as a single JSON array, as written for non streaming types.
+	 *
+	 * @param documents
+	 * @param fields properties to write. Empty writes all of them.
+	 * @param bufferFactory
+	 * @return array buffers, one per document plus the brackets.
+	 */
+	Flux<DataBuffer> array(Flux<RawBsonDocument> documents, Set<String> fields, DataBufferFactory bufferFactory) {
+		return Flux.concat(
+				Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_START)),
+				documents.index().map(indexed ->
+					write(indexed.getT2(), fields, bufferFactory, indexed.getT1() == 0 ? null : SEPARATOR, null)),
+				Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_END)));
+	}
+
+	/**
+	 * Documents as newline delimited JSON, one buffer per document.
+	 *
+	 * @param documents
+	 * @param fields properties to write. Empty writes all of them.
+	 * @param bufferFactory
+	 * @return document buffers.
+	 */
+	Flux<DataBuffer> lines(Flux<RawBsonDocument> documents, Set<String> fields, DataBufferFactory bufferFactory) {
+		return documents.map(document -> write(document, fields, bufferFactory, null, NEW_LINE));
+	}
+
+	/**
+	 * Any other value as one more line of a newline delimited stream, such as an error element.
+	 *
+	 * @param value written through the mapper.
+	 * @param bufferFactory
+	 * @return line buffer.
+	 */
+	DataBuffer line(Object value, DataBufferFactory bufferFactory) {
+		try {
+			final byte[] json = this.mapper.writeValueAsBytes(value);
+			return bufferFactory.allocateBuffer(json.length + NEW_LINE.length).write(json).write(NEW_LINE);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private DataBuffer write(RawBsonDocument document, Set<String> fields, DataBufferFactory bufferFactory, byte[] prefix, byte[] suffix) {
+		final DataBuffer buffer = bufferFactory.allocateBuffer(document.getByteBuffer().remaining());
+		boolean release = true;
+		try {
+			if (prefix != null)
+				buffer.write(prefix);
+			try (JsonGenerator generator = this.mapper.getFactory().createGenerator(buffer.asOutputStream())) {
+				writeObject(document, fields, generator);
+			}
+			if (suffix != null)
+				buffer.write(suffix);
+			release = false;
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (release)
+				DataBufferUtils.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads the document once, keeping the wanted top level values, then writes them in property order.
+	 */
+	private void writeObject(RawBsonDocument document, Set<String> fields, JsonGenerator generator) throws IOException {
+		final Object[] values = new Object[this.properties.size()];
+		try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				final int index = this.properties.indexOf(reader.readName());
+				if (index < 0)
+					reader.skipValue();
+				else
+					values[index] = readValue(reader);
+			}
+		}
+
+		generator.writeStartObject();
+		for (int i = 0; i < values.length; i++) {
+			final String property = this.properties.get(i);
+			if (!fields.isEmpty() && !fields.contains(property))
+				continue;
+			if (values[i] == null && !this.writeNulls)
+				continue;
+			generator.writeFieldName(property);
+			writeValue(values[i], generator);
+		}
+		generator.writeEndObject();
+	}
+
+	private static Object readValue(BsonBinaryReader reader) {
+		switch (reader.getCurrentBsonType()) {
+		case OBJECT_ID:
+			return reader.readObjectId().toHexString();
+		case STRING:
+			return reader.readString();
+		case BOOLEAN:
+			return reader.readBoolean();
+		case INT32:
+			return reader.readInt32();
+		case INT64:
+			return reader.readInt64();
+		case DOUBLE:
+			return reader.readDouble();
+		case DATE_TIME:
+			return Instant.ofEpochMilli(reader.readDateTime());
+		case NULL:
+			reader.readNull();
+			return null;
+		default:
+			throw new IllegalStateException("Unsupported raw todo value: " + reader.getCurrentBsonType());
+		}
+	}
+
+	/**
+	 * Scalars are written directly. Dates go through the mapper so its date settings apply.
+	 * Object ids were read as hex strings, as written by Todo's ToStringSerializer.
+	 */
+	private static void writeValue(Object value, JsonGenerator generator) throws IOException {
+		if (value == null)
+			generator.writeNull();
+		else if (value instanceof String)
+			generator.writeString((String) value);
+		else if (value instanceof Boolean)
+			generator.writeBoolean((Boolean) value);
+		else if (value instanceof Integer)
+			generator.writeNumber((Integer) value);
+		else if (value instanceof Long)
+			generator.writeNumber((Long) value);
+		else if (value instanceof Double)
+			generator.writeNumber((Double) value);
+		else
+			generator.writeObject(value);
+	}
+
+}
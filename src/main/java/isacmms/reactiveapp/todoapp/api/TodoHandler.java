@@ -1,55 +1,113 @@
 package isacmms.reactiveapp.todoapp.api;
 
+import static isacmms.reactiveapp.todoapp.util.MediaTypes.payloadType;
+
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.bson.RawBsonDocument;
 import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.lang.Nullable;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import isacmms.reactiveapp.todoapp.model.Todo;
-import isacmms.reactiveapp.todoapp.util.ObjectFields;
+import isacmms.reactiveapp.todoapp.service.CursorPage;
+import isacmms.reactiveapp.todoapp.service.CursorRequest;
+import isacmms.reactiveapp.todoapp.service.FilterOperator;
+import isacmms.reactiveapp.todoapp.service.TodoBatchItem;
+import isacmms.reactiveapp.todoapp.service.TodoBulkResult;
+import isacmms.reactiveapp.todoapp.service.TodoFieldTypes;
+import isacmms.reactiveapp.todoapp.util.MediaTypes;
 import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Log4j2
 abstract class TodoHandler {
 	
+	/**
+	 * Response header carrying the cursor of the next page.
+	 */
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	
+	/**
+	 * Request header making a create safe to retry.
+	 */
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	
+	/**
+	 * Media types listings can be streamed as.
+	 */
+	protected static final List<MediaType> STREAMING_TYPES = List.of(
+			MediaTypes.APPLICATION_NDJSON, MediaType.APPLICATION_STREAM_JSON, MediaType.TEXT_EVENT_STREAM);
+	
 	private static final String TODO_NOT_FOUND = "Todo not found.";
+	private static final String INVALID_LIMIT = "limit must be a positive integer.";
+	private static final String INVALID_FIELDS = "Unknown fields: ";
+	private static final String REGEX_ON_NON_TEXT = "Regex filters only apply to text fields: ";
+	private static final String FILTER_REQUIRED = "Bulk writes require at least one filter.";
+	private static final String INVALID_IDEMPOTENCY_KEY = "Idempotency-Key must have 1 to 255 visible ASCII characters.";
+	private static final String VERSION_MISMATCH = "If-Match does not match the todo's current version.";
 	
 	private final Validator validator;
 	private final ObjectMapper mapper;
+	private final RawTodoWriter raw;
+	
+	/**
+	 * Todo's serialized property names, the only ones allowed in <i>fields</i>.
+	 */
+	private final Set<String> properties;
 	
 	protected TodoHandler(Validator validator, ObjectMapper mapper) {
 		this.validator = validator;
 		this.mapper = mapper;
+		this.raw = new RawTodoWriter(mapper);
+		this.properties = Set.copyOf(this.raw.properties());
 	}
 
 	/**
 	 * Método auxiliar para resposta padrão a métodos HTTP DELETE.
 	 * 
+	 * @param req
 	 * @param publisher Mono ou Flux obtido pelo retorno do service.
 	 * @return Retorna o Mono de um ServerResponse configurado.
 	 */
-	protected static Mono<ServerResponse> defaultAcceptedResponse(Publisher<Todo> publisher) {
+	protected static Mono<ServerResponse> defaultAcceptedResponse(ServerRequest req, Publisher<Todo> publisher) {
 		return Mono.from(publisher)
 			.flatMap(todo -> 
 					ServerResponse
 						.accepted()
-						.contentType(MediaType.APPLICATION_JSON)
+						.contentType(payloadType(req))
 						.body(Mono.just(todo), Todo.class))
 			.switchIfEmpty(notFoundResponse());
 	}
@@ -57,49 +115,329 @@ abstract class TodoHandler {
 	/**
 	 * Http GET one, PUT and PATCH response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	protected static Mono<ServerResponse> defaultOkOneResponse(Publisher<Todo> publisher) {
+	protected static Mono<ServerResponse> defaultOkOneResponse(ServerRequest req, Publisher<Todo> publisher) {
 		return Mono.from(publisher)
 			.flatMap(todo -> 
 					ServerResponse
 						.ok()
-						.contentType(MediaType.APPLICATION_JSON)
+						.contentType(payloadType(req))
+						.eTag(etag(todo))
 						.body(Mono.just(todo), Todo.class))
 				.switchIfEmpty(notFoundResponse());
 	}
 	
+	/**
+	 * Http GET one response answering 304 when the todo matches <i>If-None-Match</i>.
+	 * 
+	 * @param req
+	 * @param publisher
+	 * @return
+	 */
+	protected static Mono<ServerResponse> conditionalOkOneResponse(ServerRequest req, Publisher<Todo> publisher) {
+		return Mono.from(publisher)
+			.flatMap(todo -> {
+				final String etag = etag(todo);
+				if (notModified(req, etag))
+					return notModifiedResponse(etag);
+				return ServerResponse
+						.ok()
+						.contentType(payloadType(req))
+						.eTag(etag)
+						.body(Mono.just(todo), Todo.class);
+			})
+			.switchIfEmpty(notFoundResponse());
+	}
+	
 	/**
 	 * Default Http GET many response.
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	protected static Mono<ServerResponse> defaultOkManyResponse(Publisher<Todo> publisher) {
+	protected static Mono<ServerResponse> defaultOkManyResponse(ServerRequest req, Publisher<Todo> publisher) {
 		return ServerResponse
 				.ok()
-				.contentType(MediaType.APPLICATION_JSON)
+				.contentType(payloadType(req))
 				.body(publisher, Todo.class);
 	}
 	
+	/**
+	 * Http GET many response writing only the requested fields.
+	 * When the client accepts a streaming type each todo is written and flushed
+	 * as soon as it is read instead of being collected into a JSON array, and a
+	 * listing failing halfway ends with an error element, an <i>error</i> event for
+	 * server sent events.
+	 * 
+	 * @param req
+	 * @param publisher
+	 * @param fields requested fields. Empty writes whole todos.
+	 * @param etag collection validator or <i>null</i>.
+	 * @return
+	 */
+	protected Mono<ServerResponse> okManyResponse(ServerRequest req, Publisher<Todo> publisher, Set<String> fields, @Nullable String etag) {
+		final Optional<MediaType> streaming = streamingType(req);
+		final ServerResponse.BodyBuilder builder = ServerResponse
+				.ok()
+				.contentType(streaming.orElseGet(() -> payloadType(req)));
+		if (etag != null)
+			builder.eTag(etag);
+		if (streaming.isEmpty())
+			return fields.isEmpty() ?
+					builder.body(publisher, Todo.class) :
+					builder.body(Flux.from(publisher).map(todo -> sparse(todo, fields)), ObjectNode.class);
+		
+		final Flux<Object> elements = Flux.from(publisher).map(todo -> fields.isEmpty() ? todo : sparse(todo, fields));
+		if (streaming.get().equals(MediaType.TEXT_EVENT_STREAM))
+			return builder.body(BodyInserters.fromServerSentEvents(endWithError(
+					elements.map(element -> ServerSentEvent.builder(element).build()),
+					e -> ServerSentEvent.<Object>builder(errorElement(e)).event("error").build())));
+		return builder.body(endWithError(elements, TodoHandler::errorElement), Object.class);
+	}
+	
+	/**
+	 * Ends a streamed listing failing after its first element with an error element,
+	 * its status having been sent already. Failures before the first element still
+	 * answer with their own status.
+	 * 
+	 * @param elements
+	 * @param error maps the failure to the stream's last element.
+	 * @return
+	 */
+	private static <T> Flux<T> endWithError(Flux<T> elements, Function<ResponseStatusException, T> error) {
+		return elements.switchOnFirst((first, all) -> first.hasValue() ?
+				all.onErrorResume(ResponseStatusException.class, e -> Mono.just(error.apply(e))) :
+				all);
+	}
+	
+	/**
+	 * Error element of a streamed listing, with the fields of an error response.
+	 */
+	private static Map<String, Object> errorElement(ResponseStatusException e) {
+		final Map<String, Object> error = new LinkedHashMap<>();
+		error.put("status", e.getStatus().value());
+		error.put("error", e.getStatus().getReasonPhrase());
+		error.put("message", e.getReason());
+		return error;
+	}
+	
+	/**
+	 * Http GET many response writing raw documents straight to JSON buffers.
+	 * Only for {@link #rawListing(ServerRequest) raw listings}. JSON arrays are
+	 * buffered before being written, as mapped listings are, so errors still
+	 * answer with a proper status; newline delimited types are flushed per document
+	 * and end with an error element when they fail halfway.
+	 * 
+	 * @param req
+	 * @param documents
+	 * @param fields requested fields. Empty writes whole todos.
+	 * @param etag collection validator or <i>null</i>.
+	 * @return
+	 */
+	protected Mono<ServerResponse> okRawManyResponse(ServerRequest req, Flux<RawBsonDocument> documents, Set<String> fields, @Nullable String etag) {
+		final MediaType type = listingType(req);
+		final DataBufferFactory bufferFactory = req.exchange().getResponse().bufferFactory();
+		final ServerResponse.BodyBuilder builder = ServerResponse
+				.ok()
+				.contentType(type);
+		if (etag != null)
+			builder.eTag(etag);
+		if (type.equals(MediaType.APPLICATION_JSON))
+			return DataBufferUtils.join(this.raw.array(documents, fields, bufferFactory))
+					.flatMap(buffer -> builder.body(BodyInserters.fromDataBuffers(Mono.just(buffer))));
+		return builder.body(BodyInserters.fromDataBuffers(endWithError(this.raw.lines(documents, fields, bufferFactory),
+				e -> this.raw.line(errorElement(e), bufferFactory))));
+	}
+	
+	/**
+	 * Tells if the listing can skip mapping to Todo, which is the case for JSON and
+	 * newline delimited JSON. Other types are written through their codecs.
+	 * 
+	 * @param req
+	 * @return
+	 */
+	protected static boolean rawListing(ServerRequest req) {
+		final MediaType type = listingType(req);
+		return type.equals(MediaType.APPLICATION_JSON)
+				|| type.equals(MediaTypes.APPLICATION_NDJSON)
+				|| type.equals(MediaType.APPLICATION_STREAM_JSON);
+	}
+	
+	/**
+	 * Keyset paginated Http GET many response writing only the requested fields.
+	 * 
+	 * @param req
+	 * @param page
+	 * @param fields requested fields. Empty writes whole todos.
+	 * @param etag collection validator or <i>null</i>.
+	 * @return
+	 */
+	protected Mono<ServerResponse> okPageResponse(ServerRequest req, Mono<CursorPage<Todo>> page, Set<String> fields, @Nullable String etag) {
+		if (fields.isEmpty())
+			return defaultOkPageResponse(req, page, etag);
+		return defaultOkPageResponse(req, page.map(p -> new CursorPage<>(
+				p.getContent().stream()
+					.map(todo -> sparse(todo, fields))
+					.collect(Collectors.toList()),
+				p.getNext())), etag);
+	}
+	
+	/**
+	 * Keyset paginated Http GET many response.
+	 * The next page cursor, if any, is sent in the {@value #NEXT_CURSOR_HEADER} header.
+	 * 
+	 * @param req
+	 * @param page
+	 * @return
+	 */
+	protected static <T> Mono<ServerResponse> defaultOkPageResponse(ServerRequest req, Mono<CursorPage<T>> page) {
+		return defaultOkPageResponse(req, page, null);
+	}
+	
+	private static <T> Mono<ServerResponse> defaultOkPageResponse(ServerRequest req, Mono<CursorPage<T>> page, @Nullable String etag) {
+		return page.flatMap(p -> {
+			final ServerResponse.BodyBuilder builder = ServerResponse.ok();
+			if (p.getNext() != null)
+				builder.header(NEXT_CURSOR_HEADER, p.getNext());
+			if (etag != null)
+				builder.eTag(etag);
+			return builder
+					.contentType(payloadType(req))
+					.bodyValue(p.getContent());
+		});
+	}
+	
 	/**
 	 * Método auxiliar para resposta padrão a métodos HTTP POST
 	 * 
+	 * @param req
 	 * @param publisher
 	 * @return
 	 */
-	protected static Mono<ServerResponse> defaultCreatedResponse(Publisher<Todo> publisher) {
+	protected static Mono<ServerResponse> defaultCreatedResponse(ServerRequest req, Publisher<Todo> publisher) {
 		log.debug("> UserTodoHandler.defaultCreatedResponse()");
 		return Mono.from(publisher)
 				.flatMap(todo -> 
 						ServerResponse
 							.created(URI.create("/api/todos/" + todo.getId()))
-							.contentType(MediaType.APPLICATION_JSON)
+							.contentType(payloadType(req))
 							.body(Mono.just(todo), Todo.class));
 				//.switchIfEmpty(notFoundResponse());
 	}
 	
+	/**
+	 * Bulk creation response, one result per todo in request order.
+	 * Streaming types are flushed as each batch is inserted; other types are
+	 * written once every batch has been inserted.
+	 * 
+	 * @param req
+	 * @param items
+	 * @return
+	 */
+	protected static Mono<ServerResponse> okBatchResponse(ServerRequest req, Flux<TodoBatchItem> items) {
+		return ServerResponse
+				.ok()
+				.contentType(listingType(req))
+				.body(items, TodoBatchItem.class);
+	}
+	
+	/**
+	 * Bulk update or delete response with the matched and modified counts.
+	 * 
+	 * @param req
+	 * @param result
+	 * @return
+	 */
+	protected static Mono<ServerResponse> okBulkResponse(ServerRequest req, Mono<TodoBulkResult> result) {
+		return ServerResponse
+				.ok()
+				.contentType(payloadType(req))
+				.body(result, TodoBulkResult.class);
+	}
+	
+	/**
+	 * Http NOT MODIFIED response.
+	 * 
+	 * @param etag current validator.
+	 * @return
+	 */
+	protected static Mono<ServerResponse> notModifiedResponse(String etag) {
+		return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+	}
+	
+	/**
+	 * Strong validator of a single todo, changed by every save through its version.
+	 * 
+	 * @param todo
+	 * @return quoted ETag.
+	 */
+	protected static String etag(Todo todo) {
+		return "\"" + todo.getId() + "-" + (todo.get__v() == null ? 0L : todo.get__v()) + "\"";
+	}
+	
+	/**
+	 * Strong validator of an owner's listing: the owner's change counter plus a digest
+	 * of everything else the body depends on (owner, query parameters and media type).
+	 * 
+	 * @param req
+	 * @param owner
+	 * @param changes owner's change counter.
+	 * @return quoted ETag.
+	 */
+	protected static String collectionETag(ServerRequest req, String owner, long changes) {
+		final String variant = owner + '\n' 
+				+ new TreeMap<>(req.queryParams()) + '\n' 
+				+ listingType(req);
+		return "\"" + changes + "-" 
+				+ DigestUtils.md5DigestAsHex(variant.getBytes(StandardCharsets.UTF_8)).substring(0, 16) + "\"";
+	}
+	
+	/**
+	 * Tells if any <i>If-None-Match</i> validator matches the current one.
+	 * Weak comparison is used, as required for If-None-Match.
+	 * 
+	 * @param req
+	 * @param etag current quoted ETag.
+	 * @return true when the client copy is current.
+	 */
+	protected static boolean notModified(ServerRequest req, String etag) {
+		return req.headers().header(HttpHeaders.IF_NONE_MATCH).stream()
+				.flatMap(value -> Arrays.stream(value.split(",")))
+				.map(String::trim)
+				.map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+				.anyMatch(tag -> tag.equals("*") || tag.equals(etag));
+	}
+	
+	/**
+	 * Version the client expects to overwrite, from an <i>If-Match</i> validator of the todo
+	 * in the path. Strong comparison is used, as required for If-Match.
+	 * 
+	 * @param req
+	 * @return expected version, or <i>null</i> without If-Match or with <i>*</i>.
+	 * @throws ResponseStatusException 412 when no validator belongs to the todo.
+	 */
+	@Nullable
+	protected static Long ifMatchVersion(ServerRequest req) {
+		final List<String> tags = req.headers().header(HttpHeaders.IF_MATCH).stream()
+				.flatMap(value -> Arrays.stream(value.split(",")))
+				.map(String::trim)
+				.collect(Collectors.toList());
+		if (tags.isEmpty() || tags.contains("*"))
+			return null;
+		final String prefix = "\"" + id(req) + "-";
+		return tags.stream()
+				.filter(tag -> tag.startsWith(prefix) && tag.endsWith("\"") && tag.length() > prefix.length() + 1)
+				.map(tag -> tag.substring(prefix.length(), tag.length() - 1))
+				.filter(version -> version.chars().allMatch(Character::isDigit))
+				.map(Long::valueOf)
+				.findFirst()
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, VERSION_MISMATCH));
+	}
+	
 	/**
 	 * Default Http NOT FOUND error.
 	 * 
@@ -130,6 +468,26 @@ abstract class TodoHandler {
 		return req.bodyToMono(Todo.class).single();
 	}
 	
+	/**
+	 * Extracts a stream of todos from a JSON array or newline delimited JSON body,
+	 * validated one by one. Invalid todos become failed items instead of failing
+	 * the whole request.
+	 * 
+	 * @param req the requests to extract to body from.
+	 * @return items in body order, pending or failed.
+	 */
+	protected Flux<TodoBatchItem> extractBatchItems(ServerRequest req) {
+		return req.bodyToFlux(Todo.class)
+				.index()
+				.map(indexed -> {
+					try {
+						return TodoBatchItem.pending(indexed.getT1(), validate(indexed.getT2()));
+					} catch (ResponseStatusException e) {
+						return TodoBatchItem.failed(indexed.getT1(), e.getStatus().value(), e.getReason());
+					}
+				});
+	}
+	
 	/**
 	 * Extracts id from request path variables.
 	 * 
@@ -153,6 +511,120 @@ abstract class TodoHandler {
 		return sort.isPresent() ? sort.get().split(",") : new String[0];
 	}
 	
+	/**
+	 * Streaming media type preferred by the client's Accept header, if any.
+	 * A payload type (or any wildcard) accepted with higher precedence wins.
+	 * 
+	 * @param req
+	 * @return one of {@link #STREAMING_TYPES} or empty.
+	 */
+	protected static Optional<MediaType> streamingType(ServerRequest req) {
+		final List<MediaType> accept = new ArrayList<>(req.headers().accept());
+		MediaType.sortBySpecificityAndQuality(accept);
+		for (MediaType type : accept) {
+			final Optional<MediaType> streaming = STREAMING_TYPES.stream()
+					.filter(type::equalsTypeAndSubtype)
+					.findFirst();
+			if (streaming.isPresent())
+				return streaming;
+			if (MediaTypes.PAYLOAD_TYPES.stream().anyMatch(type::isCompatibleWith))
+				return Optional.empty();
+		}
+		return Optional.empty();
+	}
+	
+	/**
+	 * Media type of a listing: a streaming type when preferred, otherwise the negotiated payload type.
+	 * 
+	 * @param req
+	 * @return
+	 */
+	protected static MediaType listingType(ServerRequest req) {
+		return streamingType(req).orElseGet(() -> payloadType(req));
+	}
+	
+	/**
+	 * Tells if the listing also reads the archived todos, through <i>includeArchived=true</i>.
+	 * Such listings are always mapped to Todo to be merged in sort order.
+	 * 
+	 * @param req
+	 * @return
+	 */
+	protected static boolean includeArchived(ServerRequest req) {
+		return req.queryParam("includeArchived").map(Boolean::parseBoolean).orElse(false);
+	}
+	
+	/**
+	 * Extracts keyset pagination parameters <i>limit</i> and <i>after</i>.
+	 * 
+	 * @param req
+	 * @return page request or empty when neither parameter was sent.
+	 */
+	protected static Optional<CursorRequest> pageParams(ServerRequest req) {
+		final Optional<String> limit = req.queryParam("limit");
+		final Optional<String> after = req.queryParam("after");
+		if (limit.isEmpty() && after.isEmpty())
+			return Optional.empty();
+		
+		Integer size = null;
+		if (limit.isPresent()) {
+			try {
+				size = Integer.valueOf(limit.get());
+			} catch (NumberFormatException e) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_LIMIT, e);
+			}
+			if (size < 1)
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_LIMIT);
+		}
+		return Optional.of(new CursorRequest(size, after.orElse(null)));
+	}
+	
+	/**
+	 * Extracts the {@value #IDEMPOTENCY_KEY_HEADER} header.
+	 * 
+	 * @param req
+	 * @return client key or empty when the header was not sent.
+	 * @throws ResponseStatusException 400 when the key is empty, too long or not visible ASCII.
+	 */
+	protected static Optional<String> idempotencyKey(ServerRequest req) {
+		final Optional<String> key = req.headers().header(IDEMPOTENCY_KEY_HEADER).stream().findFirst();
+		if (key.isPresent() && (key.get().isEmpty() || key.get().length() > 255
+				|| !key.get().chars().allMatch(c -> c > ' ' && c < 0x7f)))
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_IDEMPOTENCY_KEY);
+		return key;
+	}
+	
+	/**
+	 * Extracts sparse fieldset parameter <i>fields</i>, a comma separated list of
+	 * Todo's serialized property names.
+	 * 
+	 * @param req
+	 * @return requested fields or empty when the parameter was not sent.
+	 */
+	protected Set<String> fieldsParam(ServerRequest req) {
+		final Optional<String> param = req.queryParam("fields");
+		if (param.isEmpty())
+			return Set.of();
+		
+		final Set<String> fields = Arrays.stream(param.get().split(","))
+				.map(String::trim)
+				.filter(StringUtils::hasText)
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+		final Set<String> unknown = fields.stream()
+				.filter(field -> !this.properties.contains(field))
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+		if (fields.isEmpty() || !unknown.isEmpty())
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_FIELDS + unknown);
+		return fields;
+	}
+	
+	/**
+	 * Serialized todo retaining only the given fields.
+	 */
+	private ObjectNode sparse(Todo todo, Set<String> fields) {
+		return this.mapper.<ObjectNode>valueToTree(todo).retain(fields);
+	}
+	
 	/**
 	 * O mesmo que regexParams, mas retorna um Example<Todo> ao invés de um mapa.
 	 * 
@@ -192,21 +664,58 @@ abstract class TodoHandler {
 	 * @param req recebida com os parâmetros.
 	 * @return Mapa final com nome dos campos como chave e suas respectivas
 	 *         expressões como valor.
+	 * @throws ResponseStatusException 400 em campos do modelo que não são texto.
 	 */
 	protected static Map<String, String> regexParams(ServerRequest req) {
 		log.debug("> UserTodoHandler.regex()");
-		final List<String> todoFields = ObjectFields.getNames(Todo.class);
-		
-		final Map<String, String> rxs = req.queryParams().keySet().stream()
+		final List<String> keys = req.queryParams().keySet().stream()
 				.filter(key -> 
 					key.endsWith("__regex") && 
-					todoFields.contains(key.substring(0, key.indexOf("__regex"))))
+					TodoFieldTypes.names().contains(key.substring(0, key.indexOf("__regex"))))
+				.collect(Collectors.toList());
+		final Optional<String> nonText = keys.stream()
+				.map(key -> key.substring(0, key.indexOf("__regex")))
+				.filter(field -> !TodoFieldTypes.is(field, String.class))
+				.findFirst();
+		if (nonText.isPresent())
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, REGEX_ON_NON_TEXT + nonText.get());
+		final Map<String, String> rxs = keys.stream()
 				.collect(Collectors.toMap(
 						key -> key.split("__regex")[0], 
 						key -> req.queryParam(key).get()));
 		return rxs;
 	}
 	
+	/**
+	 * Extracts typed filter parameters <i>field__operator=value</i>,
+	 * e.g. <i>done__eq=true</i>, <i>createdDate__gte=2020-06-01</i> or <i>_id__in=a,b</i>.
+	 * Fields and values are validated when the filters are compiled.
+	 * 
+	 * @param req
+	 * @return map of parameter key to raw value.
+	 */
+	protected static Map<String, String> filterParams(ServerRequest req) {
+		return req.queryParams().keySet().stream()
+				.filter(key -> FilterOperator.of(key).isPresent())
+				.collect(Collectors.toMap(
+						key -> key, 
+						key -> req.queryParam(key).get()));
+	}
+	
+	/**
+	 * Same as filterParams, for bulk writes: at least one typed or regex filter
+	 * must be sent, so a request missing its query string cannot touch every todo.
+	 * 
+	 * @param req
+	 * @return map of parameter key to raw value.
+	 */
+	protected static Map<String, String> requiredFilterParams(ServerRequest req) {
+		final Map<String, String> filters = filterParams(req);
+		if (filters.isEmpty() && regexParams(req).isEmpty())
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, FILTER_REQUIRED);
+		return filters;
+	}
+	
 	/**
 	 * Realiza validação dos campos do modelo usando BeanPropertyBindingResult e
 	 * mapeia os erros específicos de cada campo.
@@ -19,10 +19,15 @@ public class TodoRouter {
 	@Bean
     RouterFunction<ServerResponse> todoRoutes(UserTodoHandler handler) {
         return route(i(GET("/api/todos")), handler::all)
+        		.andRoute(i(GET("/api/todos/search")), handler::search)
+        		.andRoute(i(GET("/api/todos/summary")), handler::summary)
         		.andRoute(i(GET("/api/todos/{id}")), handler::getById)
+        		.andRoute(i(POST("/api/todos/batch")), handler::createBatch)
         		.andRoute(i(POST("/api/todos")), handler::create)
         		.andRoute(i(PUT("/api/todos/{id}")), handler::updateById)
+        		.andRoute(i(PATCH("/api/todos")), handler::patchMatching)
         		.andRoute(i(PATCH("/api/todos/{id}")), handler::patchById)
+        		.andRoute(i(DELETE("/api/todos")), handler::deleteMatching)
         		.andRoute(i(DELETE("/api/todos/{id}")), handler::deleteById);
     }
 	
@@ -32,6 +37,9 @@ public class TodoRouter {
         		//.andRoute(i(GET("/greet")), handler::greet)
         		//.andRoute(i(GET("/api/todos/example")), handler::example)
         		//.andRoute(i(GET("/api/todos/events")), handler::events)
+        		.andRoute(i(POST("/api/admin/todos/summaries/rebuild")), handler::rebuildSummaries)
+        		.andRoute(i(GET("/api/admin/todos/purges/{id}")), handler::purgeById)
+        		.andRoute(i(DELETE("/api/admin/todos/purges/{id}")), handler::cancelPurgeById)
         		.andRoute(i(GET("/api/admin/todos/{id}")), handler::getById)
         		.andRoute(i(POST("/api/admin/todos")), handler::create)
         		.andRoute(i(PUT("/api/admin/todos/{id}")), handler::updateById)
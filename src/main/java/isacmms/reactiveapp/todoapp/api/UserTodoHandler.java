@@ -1,13 +1,24 @@
 package isacmms.reactiveapp.todoapp.api;
 
+import static isacmms.reactiveapp.todoapp.util.MediaTypes.payloadType;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.Validator;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
+import isacmms.reactiveapp.todoapp.service.CursorRequest;
 import isacmms.reactiveapp.todoapp.service.TodoService;
 import isacmms.reactiveapp.todoapp.service.UserTodoService;
 import lombok.extern.log4j.Log4j2;
@@ -30,45 +41,132 @@ public class UserTodoHandler extends TodoHandler {
 		this.service = service;
 	}
 	
+	/**
+	 * Owner's listing. The collection ETag is checked against <i>If-None-Match</i>
+	 * before the listing query runs, so a matching request costs one summary read.
+	 */
 	public Mono<ServerResponse> all(ServerRequest req) {
 		log.debug("> UserTodoHandler.all()");
+		return req.principal().flatMap(principal -> {
+			final String owner = principal.getName();
+			final Optional<CursorRequest> page = pageParams(req);
+			final Set<String> fields = fieldsParam(req);
+			return this.service.summary(owner).flatMap(summary -> {
+				final String etag = collectionETag(req, owner, summary.getChanges());
+				if (notModified(req, etag))
+					return notModifiedResponse(etag);
+				if (includeArchived(req))
+					return page.isPresent() ?
+							okPageResponse(req,
+								this.service.findPageWithArchive(owner, regexParams(req), filterParams(req), fields, page.get(), sortParams(req)),
+								fields, etag) :
+							okManyResponse(req,
+								this.service.findAllWithArchive(owner, regexParams(req), filterParams(req), fields, sortParams(req)),
+								fields, etag);
+				if (page.isPresent())
+					return okPageResponse(req,
+							this.service.findPage(owner, regexParams(req), filterParams(req), fields, page.get(), sortParams(req)),
+							fields, etag);
+				if (rawListing(req))
+					return okRawManyResponse(req,
+							this.service.findAllRaw(owner, regexParams(req), filterParams(req), fields, sortParams(req)),
+							fields, etag);
+				return okManyResponse(req,
+						this.service.findAll(owner, regexParams(req), filterParams(req), fields, sortParams(req)),
+						fields, etag);
+			});
+		});
+	}
+	
+	public Mono<ServerResponse> search(ServerRequest req) {
+		log.debug("> UserTodoHandler.search()");
+		return req.principal().flatMap(principal -> {
+			final String text = req.queryParam("q")
+					.filter(StringUtils::hasText)
+					.orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "q must not be blank."));
+			return defaultOkPageResponse(req,
+					this.service.search(principal.getName(), text, pageParams(req).orElse(new CursorRequest(null, null))));
+		});
+	}
+	
+	public Mono<ServerResponse> summary(ServerRequest req) {
+		log.debug("> UserTodoHandler.summary()");
 		return req.principal().flatMap(principal -> 
-				defaultOkManyResponse(
-						this.service.findAll(principal.getName(), regexParams(req), sortParams(req))));
+			ServerResponse
+				.ok()
+				.contentType(payloadType(req))
+				.body(this.service.summary(principal.getName()), TodoSummary.class));
 	}
 	
 	public Mono<ServerResponse> getById(ServerRequest req) {
 		log.debug("> UserTodoHandler.getById()");
 		return req.principal().flatMap(principal -> 
-			defaultOkOneResponse(this.service.findById(id(req), principal.getName())));
+			conditionalOkOneResponse(req, this.service.findById(id(req), principal.getName())));
 	}
 	
 	public Mono<ServerResponse> create(ServerRequest req) {
 		return req.principal().flatMap(principal -> 
-			defaultCreatedResponse(
+			defaultCreatedResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validate)
-					.flatMap(todo -> this.service.create(todo, principal.getName()))));
+					.flatMap(todo -> idempotencyKey(req)
+							.map(key -> this.service.create(todo, principal.getName(), key))
+							.orElseGet(() -> this.service.create(todo, principal.getName())))));
+	}
+	
+	/**
+	 * Bulk creation from a JSON array or newline delimited JSON body.
+	 * The body is read as a stream and inserted in batches as it arrives.
+	 */
+	public Mono<ServerResponse> createBatch(ServerRequest req) {
+		log.debug("> UserTodoHandler.createBatch()");
+		return req.principal().flatMap(principal -> 
+			okBatchResponse(req, this.service.createAll(extractBatchItems(req), principal.getName())));
 	}
 	
 	public Mono<ServerResponse> updateById(ServerRequest req) {
 		return req.principal().flatMap(principal -> 
-			defaultOkOneResponse(
+			defaultOkOneResponse(req,
 				extractBodyRequired(req)
 					.doOnNext(this::validate)
-					.flatMap(todo -> this.service.update(id(req), todo, principal.getName()))));
+					.flatMap(todo -> this.service.update(id(req), todo, principal.getName(), ifMatchVersion(req)))));
 	}
 	
 	public Mono<ServerResponse> patchById(ServerRequest req) {
 		return req.principal().flatMap(principal -> 
-			defaultOkOneResponse(
+			defaultOkOneResponse(req,
 				extractBodyRequired(req)
-					.flatMap(todo -> this.service.patch(id(req), todo, principal.getName()))));
+					.flatMap(todo -> this.service.patch(id(req), todo, principal.getName(), ifMatchVersion(req)))));
+	}
+	
+	/**
+	 * Patch of every owned todo matching the filter parameters, in one write.
+	 */
+	public Mono<ServerResponse> patchMatching(ServerRequest req) {
+		log.debug("> UserTodoHandler.patchMatching()");
+		return req.principal().flatMap(principal -> {
+			final Map<String, String> filters = requiredFilterParams(req);
+			return okBulkResponse(req,
+				extractBodyRequired(req)
+					.doOnNext(this::validateIgnoreNull)
+					.flatMap(todo -> this.service.patchMatching(principal.getName(), regexParams(req), filters, todo)));
+		});
+	}
+	
+	/**
+	 * Deletion of every owned todo matching the filter parameters, in one write.
+	 */
+	public Mono<ServerResponse> deleteMatching(ServerRequest req) {
+		log.debug("> UserTodoHandler.deleteMatching()");
+		return req.principal().flatMap(principal -> {
+			final Map<String, String> filters = requiredFilterParams(req);
+			return okBulkResponse(req, this.service.deleteMatching(principal.getName(), regexParams(req), filters));
+		});
 	}
 	
 	public Mono<ServerResponse> deleteById(ServerRequest req) {
 		return req.principal().flatMap(principal -> 
-			defaultAcceptedResponse(this.service.delete(id(req), principal.getName())));
+			defaultAcceptedResponse(req, this.service.delete(id(req), principal.getName())));
 	}
 	
 }
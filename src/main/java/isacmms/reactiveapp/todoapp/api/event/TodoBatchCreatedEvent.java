@@ -0,0 +1,28 @@
+package isacmms.reactiveapp.todoapp.api.event;
+
+import java.util.List;
+
+import org.springframework.context.ApplicationEvent;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+
+/**
+ * Todos created together by one bulk insert. Published once per batch
+ * instead of one {@link TodoCreatedEvent} per todo.
+ */
+public class TodoBatchCreatedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Todo> todos;
+
+	public TodoBatchCreatedEvent(List<Todo> source) {
+		super(source);
+		this.todos = List.copyOf(source);
+	}
+
+	public List<Todo> getTodos() {
+		return this.todos;
+	}
+
+}
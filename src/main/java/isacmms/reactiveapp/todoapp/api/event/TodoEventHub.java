@@ -0,0 +1,103 @@
+package isacmms.reactiveapp.todoapp.api.event;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Multicasts created todos and bulk changes to the subscribers of their owner.
+ * <p>Each owner with at least one subscriber has a topic holding its subscribers' sinks,
+ * so an event only reaches the subscribers of its owner and publishing costs one map
+ * lookup plus one emission per interested subscriber. Emissions never block: each
+ * subscriber has its own bounded buffer and a subscriber falling behind loses its
+ * oldest events instead of holding back the publisher or the other subscribers.</p>
+ * <p>Topics are removed with their last subscriber.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoEventHub {
+
+	private final Map<String, Set<FluxSink<ApplicationEvent>>> topics = new ConcurrentHashMap<>();
+	private final int bufferSize;
+
+	/**
+	 *
+	 * @param bufferSize events kept for a subscriber not keeping up.
+	 */
+	public TodoEventHub(@Value("${todo.events.subscriber-buffer:256}") int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Events of one owner, from the subscription on.
+	 *
+	 * @param owner
+	 * @return endless stream of the owner's {@link TodoCreatedEvent}s and {@link TodosChangedEvent}s.
+	 */
+	public Flux<ApplicationEvent> subscribe(String owner) {
+		return Flux.<ApplicationEvent>create(sink -> {
+					this.topics.compute(owner, (key, sinks) -> {
+						final Set<FluxSink<ApplicationEvent>> topic = sinks == null ? ConcurrentHashMap.newKeySet() : sinks;
+						topic.add(sink);
+						return topic;
+					});
+					sink.onDispose(() -> this.topics.computeIfPresent(owner, (key, sinks) -> {
+						sinks.remove(sink);
+						return sinks.isEmpty() ? null : sinks;
+					}));
+				})
+				.onBackpressureBuffer(this.bufferSize,
+						dropped -> log.debug("Subscriber of {} behind, event dropped", owner),
+						BufferOverflowStrategy.DROP_OLDEST);
+	}
+
+	@EventListener
+	public void onCreated(TodoCreatedEvent event) {
+		publish(((Todo) event.getSource()).getOwner(), event);
+	}
+
+	/**
+	 * Batches are dispatched as a single application event and only
+	 * split into per todo events here, so subscribers see no difference.
+	 */
+	@EventListener
+	public void onBatchCreated(TodoBatchCreatedEvent event) {
+		event.getTodos().forEach(todo -> publish(todo.getOwner(), new TodoCreatedEvent(todo)));
+	}
+
+	@EventListener
+	public void onChanged(TodosChangedEvent event) {
+		publish(event.getOwner(), event);
+	}
+
+	/**
+	 * Subscribers currently listening to the owner.
+	 */
+	int subscribers(String owner) {
+		final Set<FluxSink<ApplicationEvent>> sinks = this.topics.get(owner);
+		return sinks == null ? 0 : sinks.size();
+	}
+
+	private void publish(String owner, ApplicationEvent event) {
+		if (owner == null)
+			return;
+		final Set<FluxSink<ApplicationEvent>> sinks = this.topics.get(owner);
+		if (sinks != null)
+			sinks.forEach(sink -> sink.next(event));
+	}
+
+}
@@ -0,0 +1,38 @@
+package isacmms.reactiveapp.todoapp.api.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Todos of one owner changed by a single bulk write. Its source is the owner.
+ */
+public class TodosChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type { UPDATED, DELETED }
+
+	private final Type type;
+	private final long count;
+
+	public TodosChangedEvent(String owner, Type type, long count) {
+		super(owner);
+		this.type = type;
+		this.count = count;
+	}
+
+	public String getOwner() {
+		return (String) getSource();
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * Todos modified or deleted.
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+}
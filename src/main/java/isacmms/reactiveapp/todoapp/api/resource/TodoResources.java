@@ -49,7 +49,7 @@ public class TodoResources {
 	
 	@RequestMapping(value = "/todos/{id}", method = RequestMethod.PUT)
 	public Mono<Todo> update(@PathVariable String id, @RequestBody Todo todo) {
-		return this.service.updateIgnoreOwnership(id, todo);
+		return this.service.updateIgnoreOwnership(id, todo, null);
 	}
 	
 	@RequestMapping(value = "/todos/{id}", method = RequestMethod.DELETE)
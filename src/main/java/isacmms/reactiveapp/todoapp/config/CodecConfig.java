@@ -0,0 +1,153 @@
+package isacmms.reactiveapp.todoapp.config;
+
+import java.util.List;
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import isacmms.reactiveapp.todoapp.util.MediaTypes;
+import reactor.core.publisher.Flux;
+
+/**
+ * Registers newline delimited JSON as a Jackson streaming media type.
+ * Streaming types are written and flushed element by element instead of
+ * being collected into a single array.
+ * <p>CBOR and Smile are registered alongside JSON for service to service
+ * consumers, who pick them through the <i>Accept</i> header, see {@link MediaTypes}.</p>
+ *
+ * @author isacm
+ *
+ */
+@Configuration
+public class CodecConfig {
+
+	/**
+	 * Runs after Boot's own Jackson customizer so these codecs replace it.
+	 * The decoder reads newline delimited JSON bodies as a stream of values.
+	 */
+	@Bean
+	@Order(1)
+	CodecCustomizer ndjsonCodecCustomizer(ObjectMapper mapper) {
+		return configurer -> {
+			final Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(mapper,
+					MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), MediaTypes.APPLICATION_NDJSON);
+			encoder.setStreamingMediaTypes(List.of(MediaType.APPLICATION_STREAM_JSON, MediaTypes.APPLICATION_NDJSON));
+			configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+			configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(mapper,
+					MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), MediaTypes.APPLICATION_NDJSON));
+		};
+	}
+
+	/**
+	 * Binary codecs. Their mappers come from the same builder as the application's
+	 * ObjectMapper, so modules and features match the JSON ones and only the format differs.
+	 */
+	@Bean
+	CodecCustomizer binaryCodecCustomizer(Jackson2ObjectMapperBuilder builder) {
+		final ObjectMapper cbor = builder.factory(new CBORFactory()).build();
+		final ObjectMapper smile = builder.factory(new SmileFactory()).build();
+		return configurer -> {
+			configurer.customCodecs().registerWithDefaultConfig(new CollectingCborEncoder(cbor));
+			configurer.customCodecs().registerWithDefaultConfig(new ExplicitCborDecoder(cbor));
+			configurer.customCodecs().registerWithDefaultConfig(new ExplicitSmileEncoder(smile));
+			configurer.customCodecs().registerWithDefaultConfig(new ExplicitSmileDecoder(smile));
+		};
+	}
+
+	/**
+	 * Custom codecs are consulted before the default JSON ones, so the binary
+	 * codecs only take part when the media type was asked for explicitly.
+	 * Otherwise a response or request without content type would be binary.
+	 */
+	private static boolean explicit(@Nullable MimeType mimeType) {
+		return mimeType != null && !mimeType.isWildcardType() && !mimeType.isWildcardSubtype();
+	}
+
+	/**
+	 * CBOR encoder of multiple values. Spring's encoder only writes single values,
+	 * so a stream is collected and written as one array, as JSON does for non streaming types.
+	 */
+	static class CollectingCborEncoder extends Jackson2CborEncoder {
+
+		CollectingCborEncoder(ObjectMapper mapper) {
+			super(mapper, MediaType.APPLICATION_CBOR);
+		}
+
+		@Override
+		public boolean canEncode(ResolvableType elementType, @Nullable MimeType mimeType) {
+			return explicit(mimeType) && super.canEncode(elementType, mimeType);
+		}
+
+		@Override
+		public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+				ResolvableType elementType, @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+			final ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+			return Flux.from(inputStream)
+					.collectList()
+					.map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+					.flux();
+		}
+
+	}
+
+	static class ExplicitCborDecoder extends Jackson2CborDecoder {
+
+		ExplicitCborDecoder(ObjectMapper mapper) {
+			super(mapper, MediaType.APPLICATION_CBOR);
+		}
+
+		@Override
+		public boolean canDecode(ResolvableType elementType, @Nullable MimeType mimeType) {
+			return explicit(mimeType) && super.canDecode(elementType, mimeType);
+		}
+
+	}
+
+	static class ExplicitSmileEncoder extends Jackson2SmileEncoder {
+
+		ExplicitSmileEncoder(ObjectMapper mapper) {
+			super(mapper, MediaTypes.APPLICATION_SMILE);
+		}
+
+		@Override
+		public boolean canEncode(ResolvableType elementType, @Nullable MimeType mimeType) {
+			return explicit(mimeType) && super.canEncode(elementType, mimeType);
+		}
+
+	}
+
+	static class ExplicitSmileDecoder extends Jackson2SmileDecoder {
+
+		ExplicitSmileDecoder(ObjectMapper mapper) {
+			super(mapper, MediaTypes.APPLICATION_SMILE);
+		}
+
+		@Override
+		public boolean canDecode(ResolvableType elementType, @Nullable MimeType mimeType) {
+			return explicit(mimeType) && super.canDecode(elementType, mimeType);
+		}
+
+	}
+
+}
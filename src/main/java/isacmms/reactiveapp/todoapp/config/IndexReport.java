@@ -0,0 +1,33 @@
+package isacmms.reactiveapp.todoapp.config;
+
+import java.util.Map;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Difference between declared and existing indexes, by collection name.
+ *
+ * @author isacm
+ *
+ */
+@Data
+@AllArgsConstructor
+public class IndexReport {
+
+	/**
+	 * Declared indexes not found in the database.
+	 */
+	private final Map<String, Set<String>> missing;
+
+	/**
+	 * Existing indexes not declared by any entity, <i>_id_</i> excluded.
+	 */
+	private final Map<String, Set<String>> extra;
+
+	public boolean isComplete() {
+		return this.missing.isEmpty();
+	}
+
+}
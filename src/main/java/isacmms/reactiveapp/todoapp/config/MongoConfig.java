@@ -1,47 +1,122 @@
 package isacmms.reactiveapp.todoapp.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.EventListener;
-import org.springframework.data.mapping.context.MappingContext;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
-import org.springframework.data.mongodb.core.index.IndexResolver;
-import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
-import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
-import org.springframework.data.mongodb.core.mapping.Document;
-import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
 import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Mono;
 
 @Log4j2
 @Configuration
 public class MongoConfig {
 	
-	private ReactiveMongoTemplate mongoTemplate;
+	private static final int BACKFILL_BATCH_SIZE = 500;
+	
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final MongoIndexManager indexManager;
+	private final boolean createIndexes;
+	private final boolean strictIndexes;
 	
-	public MongoConfig(ReactiveMongoTemplate mongoTemplate) {
+	/**
+	 * 
+	 * @param mongoTemplate
+	 * @param indexManager
+	 * @param createIndexes builds declared indexes at startup. Disable when they are managed elsewhere.
+	 * @param strictIndexes refuses to start while a declared index is missing.
+	 */
+	public MongoConfig(ReactiveMongoTemplate mongoTemplate, MongoIndexManager indexManager,
+			@Value("${todo.indexes.create:true}") boolean createIndexes,
+			@Value("${todo.indexes.strict:false}") boolean strictIndexes) {
 		this.mongoTemplate = mongoTemplate;
+		this.indexManager = indexManager;
+		this.createIndexes = createIndexes;
+		this.strictIndexes = strictIndexes;
 	}
 
 	/**
-	 * Mongo manual initializations as now required per 3.x versions
+	 * Mongo manual initializations as now required per 3.x versions.
+	 * Builds the declared indexes and reports the missing and the undeclared ones.
 	 */
 	@EventListener(ApplicationReadyEvent.class)
 	public void initIndicesAfterStartup() {
 		log.info("Mongo InitIndicesAfterStartup init");
 		Long init = System.currentTimeMillis();
 		
-		var mongoMappingContext = this.mongoTemplate.getConverter().getMappingContext();
-		if (mongoMappingContext instanceof MappingContext) {
-			for (MongoPersistentEntity<?> entity : mongoMappingContext.getPersistentEntities()) {
-				var clazz = entity.getClass();
-				if (clazz.isAnnotationPresent(Document.class)) {
-					ReactiveIndexOperations indexOps = mongoTemplate.indexOps(clazz);
-					IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
-					resolver.resolveIndexFor(clazz).forEach(indexOps::ensureIndex);
-				}
-			}
-		}
+		final IndexReport report = (this.createIndexes ? this.indexManager.ensureIndexes() : Mono.<Void>empty())
+				.then(this.indexManager.verify())
+				.block();
+		
+		report.getExtra().forEach((collection, names) -> 
+				log.warn("Undeclared indexes on {}: {}", collection, names));
+		report.getMissing().forEach((collection, names) -> 
+				log.error("Missing indexes on {}: {}", collection, names));
+		if (this.strictIndexes && !report.isComplete())
+			throw new IllegalStateException("Required indexes are missing: " + report.getMissing());
+		
 		log.info("Initialized in: {} milis", (System.currentTimeMillis() - init));
 	}
+	
+	/**
+	 * Backfills the case folded shadow fields and the soft delete flag of documents written before they existed.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void backfillAfterStartup() {
+		log.info("Mongo BackfillAfterStartup init");
+		Long init = System.currentTimeMillis();
+		
+		final Long backfilled = backfillFoldedDescriptions()
+				.zipWith(backfillDeletedFlags(), Long::sum)
+				.block();
+		
+		log.info("Backfilled {} todos. Initialized in: {} milis", backfilled, (System.currentTimeMillis() - init));
+	}
+	
+	/**
+	 * Sets descriptionFolded on todos missing it.
+	 * 
+	 * @return number of updated todos.
+	 */
+	public Mono<Long> backfillFoldedDescriptions() {
+		final Query missing = Query.query(
+				Criteria.where("descriptionFolded").exists(false).and("description").exists(true));
+		missing.fields().include("description");
+		final String collectionName = this.mongoTemplate.getCollectionName(Todo.class);
+		
+		return this.mongoTemplate.getCollection(collectionName)
+				.flatMap(collection -> 
+					this.mongoTemplate.find(missing, org.bson.Document.class, collectionName)
+						.map(document -> new UpdateOneModel<org.bson.Document>(
+								Filters.eq("_id", document.get("_id")), 
+								Updates.set("descriptionFolded", Todo.fold(document.getString("description")))))
+						.buffer(BACKFILL_BATCH_SIZE)
+						.concatMap(updates -> Mono.from(collection.bulkWrite(updates)))
+						.map(result -> (long) result.getModifiedCount())
+						.reduce(0L, Long::sum));
+	}
+	
+	/**
+	 * Sets deleted to false on todos missing it, so they match the partial live indexes.
+	 * 
+	 * @return number of updated todos.
+	 */
+	public Mono<Long> backfillDeletedFlags() {
+		return this.mongoTemplate.updateMulti(
+					Query.query(Criteria.where("deleted").exists(false)), 
+					Update.update("deleted", false), 
+					Todo.class)
+				.map(UpdateResult::getModifiedCount);
+	}
+	
 }
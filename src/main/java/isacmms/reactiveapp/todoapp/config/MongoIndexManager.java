@@ -0,0 +1,132 @@
+package isacmms.reactiveapp.todoapp.config;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import isacmms.reactiveapp.todoapp.model.PartialIndex;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Provisions and verifies the indexes declared on {@link Document} entities
+ * through {@link org.springframework.data.mongodb.core.index.CompoundIndex} and friends.
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class MongoIndexManager {
+
+	private static final String ID_INDEX = "_id_";
+
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final IndexResolver resolver;
+
+	public MongoIndexManager(ReactiveMongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+		this.resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+	}
+
+	/**
+	 * Creates every declared index missing in the database.
+	 * A failed build is logged and left for {@link #verify()} to report.
+	 *
+	 * @return completion.
+	 */
+	public Mono<Void> ensureIndexes() {
+		return documents()
+				.concatMap(entity -> Flux.fromIterable(this.resolver.resolveIndexFor(entity.getType()))
+						.map(definition -> partial(entity, definition))
+						.concatMap(definition -> this.mongoTemplate.indexOps(entity.getType())
+								.ensureIndex(definition)
+								.doOnNext(name -> log.debug("Index {} ensured on {}", name, entity.getCollection()))
+								.onErrorResume(e -> {
+									log.error("Index {} could not be built on {}", name(definition), entity.getCollection(), e);
+									return Mono.empty();
+								})))
+				.then();
+	}
+
+	/**
+	 * Compares declared and existing indexes of every document collection.
+	 *
+	 * @return missing and extra index names by collection.
+	 */
+	public Mono<IndexReport> verify() {
+		final Map<String, Set<String>> missing = new TreeMap<>();
+		final Map<String, Set<String>> extra = new TreeMap<>();
+
+		return documents()
+				.concatMap(entity -> {
+					final Set<String> declared = StreamSupport
+							.stream(this.resolver.resolveIndexFor(entity.getType()).spliterator(), false)
+							.map(MongoIndexManager::name)
+							.collect(Collectors.toCollection(TreeSet::new));
+					return this.mongoTemplate.indexOps(entity.getType()).getIndexInfo()
+							.map(IndexInfo::getName)
+							.collect(Collectors.toCollection(TreeSet::new))
+							.doOnNext(existing -> {
+								final Set<String> absent = new TreeSet<>(declared);
+								absent.removeAll(existing);
+								final Set<String> undeclared = new TreeSet<>(existing);
+								undeclared.removeAll(declared);
+								undeclared.remove(ID_INDEX);
+								if (!absent.isEmpty())
+									missing.put(entity.getCollection(), absent);
+								if (!undeclared.isEmpty())
+									extra.put(entity.getCollection(), undeclared);
+							});
+				})
+				.then(Mono.fromSupplier(() -> new IndexReport(missing, extra)));
+	}
+
+	private Flux<MongoPersistentEntity<?>> documents() {
+		return Flux.fromIterable(this.mongoTemplate.getConverter().getMappingContext().getPersistentEntities())
+				.filter(entity -> entity.isAnnotationPresent(Document.class))
+				.map(entity -> (MongoPersistentEntity<?>) entity);
+	}
+
+	/**
+	 * Adds the entity's {@link PartialIndex} filter to the definition when it names it.
+	 */
+	private static IndexDefinition partial(MongoPersistentEntity<?> entity, IndexDefinition definition) {
+		final PartialIndex partial = entity.findAnnotation(PartialIndex.class);
+		if (partial == null || !Arrays.asList(partial.indexes()).contains(name(definition)))
+			return definition;
+		final org.bson.Document options = new org.bson.Document(definition.getIndexOptions())
+				.append("partialFilterExpression", org.bson.Document.parse(partial.filter()));
+		return new IndexDefinition() {
+			
+			@Override
+			public org.bson.Document getIndexKeys() {
+				return definition.getIndexKeys();
+			}
+			
+			@Override
+			public org.bson.Document getIndexOptions() {
+				return options;
+			}
+			
+		};
+	}
+	
+	private static String name(IndexDefinition definition) {
+		return String.valueOf(definition.getIndexOptions().get("name"));
+	}
+
+}
@@ -64,6 +64,7 @@ public class SecurityConfig {
 					.pathMatchers("/api/admin/**").hasRole("ADMIN")// .hasAuthority("ROLE_ADMIN")
 					.pathMatchers("/api/**").hasAnyRole("ADMIN", "USER")
 					.pathMatchers("/jwt/**").hasRole("ADMIN")
+					.pathMatchers("/actuator/**").hasRole("ADMIN")
 					.pathMatchers(HttpMethod.POST, AUTH_WHITELIST).permitAll()
 					.pathMatchers("/**").authenticated()
 					//.pathMatchers("/**").permitAll()
@@ -180,7 +181,8 @@ public class SecurityConfig {
 		CorsConfiguration corsConfig = new CorsConfiguration();
 		corsConfig.setAllowedOrigins(Arrays.asList("http://localhost:8080"));
 		corsConfig.setAllowedMethods(Arrays.asList("GET", "POST", "PATCH", "PUT", "DELETE"));
-		corsConfig.setAllowedHeaders(Arrays.asList("Origin", "X-Requested-With", "Content-Type", "Accept", "Authorization"));
+		corsConfig.setAllowedHeaders(Arrays.asList("Origin", "X-Requested-With", "Content-Type", "Accept", "Authorization", "If-Match", "If-None-Match", "Idempotency-Key"));
+		corsConfig.setExposedHeaders(Arrays.asList("X-Next-Cursor", "ETag"));
 		corsConfig.setMaxAge(Duration.ofMinutes(10L));
 
 		UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
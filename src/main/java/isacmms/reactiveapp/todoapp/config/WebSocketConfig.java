@@ -3,11 +3,9 @@ package isacmms.reactiveapp.todoapp.config;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
-import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.HandlerMapping;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.reactive.socket.WebSocketHandler;
@@ -17,25 +15,21 @@ import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAd
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import isacmms.reactiveapp.todoapp.api.event.TodoCreatedEvent;
-import isacmms.reactiveapp.todoapp.api.event.TodoCreatedEventPublisher;
+import isacmms.reactiveapp.todoapp.api.event.TodoEventHub;
+import isacmms.reactiveapp.todoapp.api.event.TodosChangedEvent;
 import isacmms.reactiveapp.todoapp.model.Todo;
 import lombok.extern.log4j.Log4j2;
 import reactor.core.publisher.Flux;
 
+/**
+ * <i>/ws/todos</i> pushes the id of every todo created by the authenticated user,
+ * and the type and count of every bulk update or delete of the user's todos.
+ * Each session subscribes to its principal's topic on the {@link TodoEventHub}.
+ */
 @Log4j2
-@Configurable
+@Configuration
 public class WebSocketConfig {
 
-	/**
-	 * Criar bean executor ???
-	 * @return
-	 */
-	@Bean
-    Executor executor() {
-        return Executors.newSingleThreadExecutor();
-    }
-	
 	/**
 	 * Cria endpoint websocket ???
 	 * @param webSocketHandler
@@ -52,61 +46,45 @@ public class WebSocketConfig {
 	}
 	
 	/**
-	 * WebSocketHandlerAdapter ???
-	   @Bean
-       WebSocketHandlerAdapter webSocketHandlerAdapter() {
-		   return new WebSocketHandlerAdapter();
-	   }
+	 * WebFlux 5.2 does not declare the adapter running WebSocketHandlers.
 	 */
-	
-	
-	/**
-	 * Versão ????
-	 * @param objectMapper Não está sendo usado
-	 * @param eventPublisher
-	 * @return
-	 */
-	/*
 	@Bean
-	public WebSocketHandler webSocketHandler(ObjectMapper objectMapper, TodoCreatedEventPublisher eventPublisher) {
-		Flux<TodoCreatedEvent> publish = Flux.create(eventPublisher).share();
-		return session ->
-			session.send(publish
-						.map( evt -> 
-								evt.getSource().toString()) // == Todo.toString()
-						.map(msg -> 
-								session.textMessage(msg)));
+	WebSocketHandlerAdapter webSocketHandlerAdapter() {
+		return new WebSocketHandlerAdapter();
 	}
-	*/
 	
 	/**
-	 * Publica TodoCreatedEvent ???
+	 * Publica TodoCreatedEvent e TodosChangedEvent do usuário da sessão.
+	 * Sessões sem usuário autenticado são encerradas.
 	 * @param objectMapper
-	 * @param eventPublisher
+	 * @param hub
 	 * @return
 	 */
 	@Bean
-    WebSocketHandler webSocketHandler(ObjectMapper objectMapper, TodoCreatedEventPublisher eventPublisher) {
-        Flux<TodoCreatedEvent> publish = Flux.create(eventPublisher).share(); // <7>
-
-        return session -> {
-            Flux<WebSocketMessage> messageFlux = publish
-            		.map(evt -> {
-	            		try {
-	            			Todo todo = (Todo) evt.getSource(); // <1>
-	            			Map<String, String> data = new HashMap<>(); // <2>
-	            			data.put("id", todo.getId());
-	            			return objectMapper.writeValueAsString(data); // <3>
-	            		} catch (JsonProcessingException e) {
-	            			throw new RuntimeException(e);
-	            		}
-	            	})
-	            	.map(str -> {
-	            		log.info("sending " + str);
-	            		return session.textMessage(str);
-		           });
-
-            return session.send(messageFlux);
-        };
-    }
+	WebSocketHandler webSocketHandler(ObjectMapper objectMapper, TodoEventHub hub) {
+		return session -> session.getHandshakeInfo().getPrincipal()
+				.flatMap(principal -> {
+					final Flux<WebSocketMessage> messageFlux = hub.subscribe(principal.getName())
+							.map(evt -> {
+								try {
+									Map<String, Object> data = new HashMap<>();
+									if (evt instanceof TodosChangedEvent) {
+										TodosChangedEvent changed = (TodosChangedEvent) evt;
+										data.put("type", changed.getType());
+										data.put("count", changed.getCount());
+									} else {
+										data.put("id", ((Todo) evt.getSource()).getId());
+									}
+									return objectMapper.writeValueAsString(data);
+								} catch (JsonProcessingException e) {
+									throw new RuntimeException(e);
+								}
+							})
+							.map(str -> {
+								log.debug("sending {} to {}", str, session.getId());
+								return session.textMessage(str);
+							});
+					return session.send(messageFlux);
+				});
+	}
 }
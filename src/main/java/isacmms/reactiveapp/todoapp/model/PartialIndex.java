@@ -0,0 +1,32 @@
+package isacmms.reactiveapp.todoapp.model;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes indexes declared on a document partial, holding only the documents matching the filter.
+ * Index annotations have no partial filter, it is added when the indexes are built.
+ * Queries use such an index only when their own filter includes this one.
+ *
+ * @author isacm
+ *
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PartialIndex {
+
+	/**
+	 * Names of the partial indexes.
+	 */
+	String[] indexes();
+
+	/**
+	 * Partial filter expression, as JSON.
+	 */
+	String filter();
+
+}
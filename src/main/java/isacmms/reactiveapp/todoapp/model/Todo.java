@@ -1,22 +1,49 @@
 package isacmms.reactiveapp.todoapp.model;
 
 import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.validation.constraints.NotBlank;
 
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
+/**
+ * Indexes are owner prefixed: owner narrows every user query before anything else is evaluated.
+ * <ul>
+ * <li><i>owner_id_live</i>: by id lookups and default keyset pagination.</li>
+ * <li><i>owner_done_createdDate_live</i>: open/done listings in creation order.</li>
+ * <li><i>owner_descriptionFolded_live</i>: anchored regex filters rewritten to equality and range scans.</li>
+ * <li><i>owner_description_text</i>: full text search of one owner.</li>
+ * <li><i>deletedAt_tombstones</i>: expired tombstones, for the purge.</li>
+ * </ul>
+ * <p><i>_live</i> indexes are partial and hold no tombstones (deleted todos).
+ * Every query excludes tombstones with <i>deleted: false</i> so it can use them.
+ * A collection has a single text index, which is kept as it is.</p>
+ */
 @Document(collection = "todos")
+@CompoundIndexes({
+	@CompoundIndex(name = "owner_id_live", def = "{ 'owner': 1, '_id': 1 }", background = true),
+	@CompoundIndex(name = "owner_done_createdDate_live", def = "{ 'owner': 1, 'done': 1, 'createdDate': 1 }", background = true),
+	@CompoundIndex(name = "owner_descriptionFolded_live", def = "{ 'owner': 1, 'descriptionFolded': 1 }", background = true),
+	@CompoundIndex(name = "owner_description_text", def = "{ 'owner': 1, 'description': 'text' }", background = true)
+})
+@PartialIndex(
+	indexes = { "owner_id_live", "owner_done_createdDate_live", "owner_descriptionFolded_live" }, 
+	filter = "{ 'deleted': false }")
 @Data
 @EqualsAndHashCode(callSuper = true)
-@AllArgsConstructor
 @NoArgsConstructor
 public class Todo extends BaseEntity {
 	
@@ -28,23 +55,75 @@ public class Todo extends BaseEntity {
 	@JsonIgnore
 	private String owner;
 	
+	/**
+	 * Case folded shadow of description, kept in sync by {@link #setDescription(String)}.
+	 * Indexed so anchored case insensitive filters can be answered by equality and range scans.
+	 */
+	@JsonIgnore
+	@Setter(AccessLevel.NONE)
+	private String descriptionFolded;
+	
+	/**
+	 * Version each editable field was last written at, so a patch based on an older
+	 * version can still be applied when none of its fields changed since.
+	 * Fields written without a known version hold {@link Long#MAX_VALUE}.
+	 * <i>null</i> on todos stored before field versions existed.
+	 */
+	@JsonIgnore
+	private Map<String, Long> fieldVersions;
+	
+	/**
+	 * Tombstone flag. Deleted todos are kept until purged and excluded from every query.
+	 */
+	@JsonIgnore
+	private boolean deleted;
+	
+	/**
+	 * When the todo was deleted. Only tombstones have it.
+	 */
+	@JsonIgnore
+	@Indexed(name = "deletedAt_tombstones", sparse = true)
+	private Instant deletedAt;
+	
 	public Todo(Boolean done, String description) {
 		this.done = done;
-		this.description = description;
+		this.setDescription(description);
+	}
+	
+	public Todo(Boolean done, String description, String owner) {
+		this(done, description);
+		this.owner = owner;
 	}
 	
 	public Todo(String id, Long version, Boolean done, String description, String owner) {
 		super(id, version);
 		this.done = done;
-		this.description = description;
+		this.setDescription(description);
 		this.owner = owner;
 	}
 	
 	public Todo(String id, Long version, Boolean done, String description, String owner, Instant createdAt, Instant lastModifiedAt, String createdBy, String lastModifiedBy) {
 		super(id, version, createdAt, lastModifiedAt, createdBy, lastModifiedBy);
 		this.done = done;
-		this.description = description;
+		this.setDescription(description);
 		this.owner = owner;
 	}
 	
+	public void setDescription(String description) {
+		this.description = description;
+		this.descriptionFolded = fold(description);
+	}
+	
+	/**
+	 * Case folding used by shadow fields.
+	 * 
+	 * @param value
+	 * @return folded value or <i>null</i>.
+	 */
+	public static String fold(String value) {
+		if (value == null)
+			return null;
+		return value.toLowerCase(Locale.ROOT);
+	}
+	
 }
@@ -0,0 +1,45 @@
+package isacmms.reactiveapp.todoapp.model;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Create request already seen under an <i>Idempotency-Key</i>, with the todo it created.
+ * Documents are removed by a TTL index once <i>expiresAt</i> has passed.
+ *
+ * @author isacm
+ *
+ */
+@Document(collection = "todo_idempotency_keys")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TodoIdempotencyKey {
+
+	/**
+	 * Owner and client key.
+	 */
+	@Id
+	private String id;
+
+	/**
+	 * Digest of the request body, a key reused for another body is rejected.
+	 */
+	private String fingerprint;
+
+	/**
+	 * Created todo as answered. <i>null</i> while the create is in progress.
+	 */
+	private Todo todo;
+
+	@Indexed(name = "expiresAt_ttl", expireAfterSeconds = 0)
+	private Date expiresAt;
+
+}
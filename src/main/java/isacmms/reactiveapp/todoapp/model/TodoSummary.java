@@ -0,0 +1,49 @@
+package isacmms.reactiveapp.todoapp.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Per owner counters, kept current by atomic increments on every write
+ * so the totals can be read without scanning the owner's todos.
+ *
+ * @author isacm
+ *
+ */
+@Document(collection = "todo_summaries")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TodoSummary {
+
+	@Id
+	@JsonIgnore
+	private String owner;
+
+	private long total;
+
+	private long open;
+
+	private long done;
+
+	/**
+	 * Bumped by every write of the owner, used as the collection validator (ETag).
+	 */
+	@JsonIgnore
+	private long changes;
+
+	public TodoSummary(String owner, long total, long open, long done) {
+		this(owner, total, open, done, 0L);
+	}
+
+	public static TodoSummary empty(String owner) {
+		return new TodoSummary(owner, 0L, 0L, 0L);
+	}
+
+}
@@ -1,6 +1,10 @@
 package isacmms.reactiveapp.todoapp.service;
 
 import java.util.Map;
+import java.util.Set;
+
+import org.bson.RawBsonDocument;
+import org.springframework.lang.Nullable;
 
 import isacmms.reactiveapp.todoapp.model.Todo;
 import reactor.core.publisher.Flux;
@@ -9,12 +13,19 @@ import reactor.core.publisher.Mono;
 public interface AdminTodoService {
 
 	Flux<Todo> findAllIgnoreOwnership(String... sortProperties);
-	Flux<Todo> findAllIgnoreOwnership(Map<String, String> rxs, String... sortProperties);
+	Flux<Todo> findAllIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Flux<RawBsonDocument> findAllRawIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Mono<CursorPage<Todo>> findPageIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties);
+	Flux<Todo> findAllWithArchiveIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Mono<CursorPage<Todo>> findPageWithArchiveIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties);
 	Mono<Todo> findByIdIgnoreOwnership(String id);
 	Mono<Todo> create(Todo todo, String owner);
-	Mono<Todo> updateIgnoreOwnership(String id, Todo dto);
-	Mono<Todo> patchIgnoreOwnership(String id, Todo dto);
+	Mono<Todo> updateIgnoreOwnership(String id, Todo dto, @Nullable Long version);
+	Mono<Todo> patchIgnoreOwnership(String id, Todo dto, @Nullable Long version);
 	Mono<Todo> deleteIgnoreOwnership(String id);
-	Flux<Todo> deleteAll();
+	Mono<TodoPurgeJob> purge(@Nullable String owner);
+	Mono<TodoPurgeJob> findPurge(String id);
+	Mono<TodoPurgeJob> cancelPurge(String id);
+	Mono<Long> rebuildSummaries();
 	
 }
@@ -0,0 +1,76 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.lang.Nullable;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Walks a collection in chunks, for the background jobs removing or moving todos
+ * in bulk: a chunk is read, handled, typically with one deleteMany, and the next
+ * one is read after a pause, following the last item of the previous chunk.
+ * The walk ends with the first chunk shorter than the chunk size, or before
+ * the next chunk once stopped.
+ *
+ * @author isacm
+ *
+ */
+final class ChunkedRunner {
+
+	private final int chunkSize;
+	private final Duration chunkDelay;
+
+	/**
+	 *
+	 * @param chunkSize most items read by each chunk.
+	 * @param chunkDelay pause between chunks.
+	 */
+	ChunkedRunner(int chunkSize, Duration chunkDelay) {
+		this.chunkSize = chunkSize;
+		this.chunkDelay = chunkDelay;
+	}
+
+	/**
+	 * Same as run, never stopped.
+	 */
+	<T> Mono<Void> run(BiFunction<T, Integer, Flux<T>> read, BiFunction<T, List<T>, Mono<?>> handle) {
+		return run(read, handle, () -> false);
+	}
+
+	/**
+	 *
+	 * @param read reads at most the given number of items following the given one,
+	 * the last of the previous chunk or <i>null</i> for the first chunk.
+	 * @param handle handles a chunk not empty, given the item it follows as read does.
+	 * @param stopped checked before each chunk.
+	 * @return completion once every chunk was handled.
+	 */
+	<T> Mono<Void> run(BiFunction<T, Integer, Flux<T>> read, BiFunction<T, List<T>, Mono<?>> handle, BooleanSupplier stopped) {
+		return chunk(null, read, handle, stopped)
+				.expand(items -> items.size() < this.chunkSize ?
+						Mono.empty() :
+						chunk(items.get(items.size() - 1), read, handle, stopped).delaySubscription(this.chunkDelay))
+				.then();
+	}
+
+	/**
+	 * Reads and handles the chunk following <i>after</i>.
+	 *
+	 * @return items of the chunk or empty when there were none left or the walk was stopped.
+	 */
+	private <T> Mono<List<T>> chunk(@Nullable T after, BiFunction<T, Integer, Flux<T>> read, BiFunction<T, List<T>, Mono<?>> handle,
+			BooleanSupplier stopped) {
+		return Mono.defer(() -> stopped.getAsBoolean() ?
+				Mono.empty() :
+				read.apply(after, this.chunkSize)
+						.collectList()
+						.filter(items -> !items.isEmpty())
+						.flatMap(items -> handle.apply(after, items).then(Mono.just(items))));
+	}
+
+}
@@ -0,0 +1,26 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A single page of a keyset paginated query.
+ * 
+ * @author isacm
+ *
+ * @param <T> content type.
+ */
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+
+	private final List<T> content;
+	
+	/**
+	 * Cursor for the next page. <i>null</i> when this is the last page.
+	 */
+	private final String next;
+	
+}
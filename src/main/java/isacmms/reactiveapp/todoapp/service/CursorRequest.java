@@ -0,0 +1,26 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Keyset pagination request.
+ * 
+ * @author isacm
+ *
+ */
+@Data
+@AllArgsConstructor
+public class CursorRequest {
+
+	/**
+	 * Page size. <i>null</i> uses the configured default.
+	 */
+	private final Integer limit;
+	
+	/**
+	 * Opaque cursor returned by a previous page. <i>null</i> starts from the first page.
+	 */
+	private final String after;
+	
+}
@@ -1,14 +1,65 @@
 package isacmms.reactiveapp.todoapp.service;
 
-import java.util.Map;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
 
-import org.springframework.data.domain.Sort;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 
 import isacmms.reactiveapp.todoapp.model.Todo;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 interface CustomReactiveMongoRepository {
 	
-	Flux<Todo> findByRegex(Map<String, String> regexs, Sort sort);
+	Flux<Todo> findByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields);
+	
+	Flux<Todo> findWithArchiveByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields);
+	
+	Flux<RawBsonDocument> findRawByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields);
+	
+	Mono<CursorPage<Todo>> findPageByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields, @Nullable String after, int limit);
+	
+	Mono<CursorPage<Todo>> findPageWithArchiveByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields, @Nullable String after, int limit);
+	
+	Mono<CursorPage<Todo>> searchPage(String owner, String text, @Nullable String after, int limit);
+	
+	Mono<Todo> findAndModify(String id, @Nullable String owner, @Nullable Long version, Update update);
+	
+	Mono<Todo> findAndTombstone(String id, @Nullable String owner, Instant deletedAt);
+	
+	Mono<Todo> findArchivedById(String id, @Nullable String owner);
+	
+	Mono<Todo> restoreArchived(String id, @Nullable String owner);
+	
+	Mono<Todo> findAndTombstoneArchived(String id, @Nullable String owner, Instant deletedAt);
+	
+	Mono<UpdateResult> updateByPlan(QueryPlan plan, String owner, Update update);
+	
+	Mono<UpdateResult> tombstoneByPlan(QueryPlan plan, String owner, Instant deletedAt);
+	
+	Flux<Todo> findIdRange(String collectionName, @Nullable String owner, @Nullable ObjectId after, int limit);
+	
+	Mono<DeleteResult> deleteIdRange(String collectionName, @Nullable String owner, @Nullable ObjectId after, ObjectId last);
+	
+	Flux<Todo> findExpiredTombstones(String collectionName, Instant before, int limit);
+	
+	Mono<DeleteResult> deleteTombstones(String collectionName, List<ObjectId> ids);
+	
+	Flux<Document> findArchivable(Instant before, @Nullable ObjectId after, int limit);
+	
+	Mono<BulkWriteResult> copyToArchive(List<Document> documents);
+	
+	Mono<DeleteResult> deleteArchived(List<ObjectId> ids, Instant before);
+	
+	Mono<DeleteResult> deleteStaleArchived(List<ObjectId> ids);
 	
 }
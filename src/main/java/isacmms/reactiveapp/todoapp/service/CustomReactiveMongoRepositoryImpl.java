@@ -1,22 +1,51 @@
 package isacmms.reactiveapp.todoapp.service;
 
-import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
 
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
 import isacmms.reactiveapp.todoapp.model.Todo;
 import lombok.extern.log4j.Log4j2;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 /**
- * Custom repository implementaiton for MongoTemplate using regex and sort criteria.
+ * Custom repository implementaiton for MongoTemplate running compiled query plans.
  * 
  * @author isacm
  *
@@ -25,48 +54,543 @@ import reactor.core.publisher.Mono;
 @Repository
 class CustomReactiveMongoRepositoryImpl implements CustomReactiveMongoRepository {
 	
+	private static final String SCORE = "score";
+	private static final String VERSION = "__v";
+	private static final String DELETED_AT = "deletedAt";
+	private static final String DONE = "done";
+	private static final String LAST_MODIFIED_DATE = "lastModifiedDate";
+	private static final Sort SEARCH_SORT = Sort.by(Direction.DESC, SCORE).and(Sort.by(Direction.ASC, KeysetCursor.ID));
+	
 	private final ReactiveMongoTemplate mongoTemplate;
+	private final QueryMapper queryMapper;
+	private final UpdateMapper updateMapper;
+	private final QueryGuard guard;
+	private final int batchSize;
 	
-	public CustomReactiveMongoRepositoryImpl(ReactiveMongoTemplate mongoTemplate) {
+	/**
+	 * 
+	 * @param mongoTemplate
+	 * @param guard time and result limits of every query.
+	 * @param batchSize documents per cursor batch on unpaged listings.
+	 * Subscriber demand is requested in chunks of the same size.
+	 */
+	public CustomReactiveMongoRepositoryImpl(ReactiveMongoTemplate mongoTemplate, QueryGuard guard,
+			@Value("${todo.query.cursor-batch-size:100}") int batchSize) {
 		this.mongoTemplate = mongoTemplate;
+		this.queryMapper = new QueryMapper(mongoTemplate.getConverter());
+		this.updateMapper = new UpdateMapper(mongoTemplate.getConverter());
+		this.guard = guard;
+		this.batchSize = batchSize;
 	}
 
-	public Flux<Todo> findByRegex(Map<String, String> regexs, Sort sort) {
-		log.debug("> CustomReactiveMongoRepositoryImpl.findByRegex()");
-		return Flux.fromIterable(regexs.keySet())
-			.handle((key, sink) -> {
-				Pattern p;
-				try {
-					p = Pattern.compile(regexs.get(key), Pattern.CASE_INSENSITIVE);
-				} catch (PatternSyntaxException e) {
-					log.debug("Regex compilation found invalid operators. All special characters will be removed.");
-					log.debug(e);
-					p = Pattern.compile(regexs.get(key).replaceAll("[^a-zA-Z0-9\\s]", ""), Pattern.CASE_INSENSITIVE);
-				}
-				sink.next(new Criteria().and(key.split("__regex")[0]).regex(p));
+	/**
+	 * Runs a compiled plan.
+	 * 
+	 * @param plan compiled filter and sort.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @return todos found.
+	 */
+	public Flux<Todo> findByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findByPlan()");
+		return guard.capped(find(plan, owner, fields, mongoTemplate.getCollectionName(Todo.class)))
+				.onErrorMap(guard::translate);
+	}
+	
+	/**
+	 * Same as findByPlan, over the todos collection and the archive.
+	 * Both are read in the plan's order and merged as they arrive.
+	 * 
+	 * @param plan compiled filter and sort.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @return live and archived todos found.
+	 */
+	public Flux<Todo> findWithArchiveByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findWithArchiveByPlan()");
+		final Comparator<Document> order = KeysetCursor.comparator(plan.getSort());
+		return guard.capped(
+					Flux.mergeOrdered(
+							(left, right) -> order.compare(left.getT1(), right.getT1()),
+							sortKeyed(find(plan, owner, fields, mongoTemplate.getCollectionName(Todo.class))),
+							sortKeyed(find(plan, owner, fields, TodoArchiver.COLLECTION)))
+						.map(Tuple2::getT2))
+				.onErrorMap(guard::translate);
+	}
+	
+	private Flux<Todo> find(QueryPlan plan, @Nullable String owner, Set<String> fields, String collectionName) {
+		return mongoTemplate.find(guard.cap(plan.query(owner, fields)).cursorBatchSize(batchSize), Todo.class, collectionName)
+				.limitRate(batchSize);
+	}
+	
+	private Flux<Tuple2<Document, Todo>> sortKeyed(Flux<Todo> todos) {
+		return todos.map(todo -> {
+			final Document document = new Document();
+			mongoTemplate.getConverter().write(todo, document);
+			return Tuples.of(document, todo);
+		});
+	}
+	
+	/**
+	 * Same as findByPlan, but documents are returned as read from the wire,
+	 * skipping the mapping into Todo. The query is mapped as the template would map it.
+	 * 
+	 * @param plan compiled filter and sort.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @return raw todo documents found.
+	 */
+	public Flux<RawBsonDocument> findRawByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findRawByPlan()");
+		final MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+				.getRequiredPersistentEntity(Todo.class);
+		return guard.capped(
+					Mono.fromCallable(() -> guard.cap(plan.query(owner, fields)))
+						.zipWith(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Todo.class)))
+						.flatMapMany(tuple -> {
+							final Query query = tuple.getT1();
+							return tuple.getT2().withDocumentClass(RawBsonDocument.class)
+									.find(queryMapper.getMappedObject(query.getQueryObject(), entity))
+									.projection(queryMapper.getMappedFields(query.getFieldsObject(), entity))
+									.sort(queryMapper.getMappedSort(query.getSortObject(), entity))
+									.limit(query.getLimit())
+									.maxTime(query.getMeta().getMaxTimeMsec(), TimeUnit.MILLISECONDS)
+									.batchSize(batchSize);
+						})
+						.limitRate(batchSize))
+				.onErrorMap(guard::translate);
+	}
+	
+	/**
+	 * Keyset paginated version of findByPlan.
+	 * One extra document is fetched to find out if there is a next page.
+	 * 
+	 * @param plan compiled filter and sort.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @param after cursor returned by the previous page or <i>null</i>.
+	 * @param limit page size.
+	 * @return page with its next cursor.
+	 */
+	public Mono<CursorPage<Todo>> findPageByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields, @Nullable String after, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findPageByPlan()");
+		return findPage(plan, owner, fields, after, limit, mongoTemplate.getCollectionName(Todo.class))
+				.collectList()
+				.map(todos -> page(todos, limit, plan.getSort()));
+	}
+	
+	/**
+	 * Same as findPageByPlan, over the todos collection and the archive.
+	 * The same cursor applies to both; each one is read up to a page and the
+	 * merge of both is cut at the page size.
+	 * 
+	 * @param plan compiled filter and sort.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @param after cursor returned by the previous page or <i>null</i>.
+	 * @param limit page size.
+	 * @return page of live and archived todos with its next cursor.
+	 */
+	public Mono<CursorPage<Todo>> findPageWithArchiveByPlan(QueryPlan plan, @Nullable String owner, Set<String> fields, @Nullable String after, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findPageWithArchiveByPlan()");
+		final Comparator<Document> order = KeysetCursor.comparator(plan.getSort());
+		return Flux.mergeOrdered(
+					(left, right) -> order.compare(left.getT1(), right.getT1()),
+					sortKeyed(findPage(plan, owner, fields, after, limit, mongoTemplate.getCollectionName(Todo.class))),
+					sortKeyed(findPage(plan, owner, fields, after, limit, TodoArchiver.COLLECTION)))
+				.take(limit + 1L)
+				.map(Tuple2::getT2)
+				.collectList()
+				.map(todos -> page(todos, limit, plan.getSort()));
+	}
+	
+	/**
+	 * Reads one page and one extra document to find out if there is a next page.
+	 */
+	private Flux<Todo> findPage(QueryPlan plan, @Nullable String owner, Set<String> fields, @Nullable String after, int limit, String collectionName) {
+		final Sort keyset = plan.getSort();
+		return Mono.fromCallable(() -> {
+				final Query query = plan.query(owner, fields);
+				if (after != null)
+					query.addCriteria(KeysetCursor.criteria(keyset, KeysetCursor.decode(after, keyset)));
+				return guard.bound(query).limit(limit + 1);
 			})
-			/*
-			.flatMap(key -> {
-				Pattern p;
-				try {
-					p = Pattern.compile(regexs.get(key), Pattern.CASE_INSENSITIVE);
-				} catch (PatternSyntaxException e) {
-					e.printStackTrace();
-					p = Pattern.compile(regexs.get(key).replaceAll("[^a-zA-Z0-9]", ""), Pattern.CASE_INSENSITIVE);
-				}
-				return Flux.just(new Criteria().and(key.split("__regex")[0]).regex(p));
+			.flatMapMany(query -> mongoTemplate.find(query, Todo.class, collectionName))
+			.onErrorMap(guard::translate);
+	}
+	
+	private CursorPage<Todo> page(List<Todo> todos, int limit, Sort keyset) {
+		if (todos.size() <= limit)
+			return new CursorPage<>(todos, null);
+		final List<Todo> content = todos.subList(0, limit);
+		return new CursorPage<>(content, cursor(content.get(limit - 1), keyset));
+	}
+	
+	/**
+	 * Owner scoped full text search over description ordered by relevance.
+	 * Pages are keyset paginated on <i>(score desc, _id asc)</i>.
+	 * 
+	 * @param owner bound as equality predicate, required by the owner prefixed text index.
+	 * @param text search terms.
+	 * @param after cursor returned by the previous page or <i>null</i>.
+	 * @param limit page size.
+	 * @return page with its next cursor.
+	 */
+	public Mono<CursorPage<Todo>> searchPage(String owner, String text, @Nullable String after, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.searchPage()");
+		return Mono.fromCallable(() -> {
+				final List<AggregationOperation> stages = new ArrayList<>();
+				stages.add(stage("$match", new Document(QueryPlan.OWNER, owner)
+						.append(QueryPlan.DELETED, false)
+						.append("$text", new Document("$search", text))));
+				stages.add(stage("$addFields", new Document(SCORE, new Document("$meta", "textScore"))));
+				if (after != null)
+					stages.add(stage("$match", KeysetCursor
+							.criteria(SEARCH_SORT, KeysetCursor.decode(after, SEARCH_SORT))
+							.getCriteriaObject()));
+				stages.add(Aggregation.sort(SEARCH_SORT));
+				stages.add(Aggregation.limit(limit + 1L));
+				return Aggregation.newAggregation(stages)
+						.withOptions(guard.bound(AggregationOptions.builder()));
 			})
-			*/
-			.collectList() // To Mono
-			.flatMap(criterias ->
-				Mono.just(
-					new Query()
-						.with(sort)
-						.addCriteria(
-								new Criteria().andOperator(criterias.toArray(new Criteria[criterias.size()]))))
-			)
-			.switchIfEmpty(Mono.just(new Query().with(sort)))
-			.flatMapMany(query -> mongoTemplate.find(query, Todo.class)); // Back to Flux
+			.flatMapMany(aggregation -> 
+					mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(Todo.class), Document.class))
+			.onErrorMap(guard::translate)
+			.collectList()
+			.map(documents -> {
+				final List<Document> content = documents.size() <= limit ? documents : documents.subList(0, limit);
+				final String next = documents.size() <= limit ? 
+						null : KeysetCursor.encode(content.get(limit - 1), SEARCH_SORT);
+				return new CursorPage<>(
+						content.stream()
+							.map(document -> mongoTemplate.getConverter().read(Todo.class, document))
+							.collect(Collectors.toList()), 
+						next);
+			});
+	}
+	
+	/**
+	 * Applies the update in a single findAndModify on <i>_id</i>, owner and version.
+	 * The template adds the version increment.
+	 * 
+	 * @param id
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param version expected version. <i>null</i> ignores the version.
+	 * Version 0 also matches todos stored without one.
+	 * @param update
+	 * @return todo as it was <b>before</b> the update, or empty when not found.
+	 */
+	public Mono<Todo> findAndModify(String id, @Nullable String owner, @Nullable Long version, Update update) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findAndModify()");
+		final Query query = byId(id, owner);
+		if (version != null)
+			query.addCriteria(version == 0L ? 
+					Criteria.where(VERSION).in(0L, null) : Criteria.where(VERSION).is(version));
+		return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(false), Todo.class);
+	}
+	
+	/**
+	 * Turns a todo into a tombstone in a single findAndModify on <i>_id</i> and owner.
+	 * The template adds the version increment.
+	 * 
+	 * @param id
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param deletedAt
+	 * @return todo as it was before the delete, or empty when not found.
+	 */
+	public Mono<Todo> findAndTombstone(String id, @Nullable String owner, Instant deletedAt) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findAndTombstone()");
+		return mongoTemplate.findAndModify(byId(id, owner), tombstone(deletedAt), 
+				FindAndModifyOptions.options().returnNew(false), Todo.class);
+	}
+	
+	/**
+	 * Archived todo by <i>_id</i>.
+	 * 
+	 * @param id
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @return archived todo, or empty when not archived.
+	 */
+	public Mono<Todo> findArchivedById(String id, @Nullable String owner) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findArchivedById()");
+		return mongoTemplate.findOne(byId(id, owner), Todo.class, TodoArchiver.COLLECTION);
+	}
+	
+	/**
+	 * Moves an archived todo back into the todos collection, so it can be written as any other.
+	 * The document is copied as stored and then removed from the archive; both steps can be repeated.
+	 * 
+	 * @param id
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @return restored todo, or empty when not archived.
+	 */
+	public Mono<Todo> restoreArchived(String id, @Nullable String owner) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.restoreArchived()");
+		return mongoTemplate.findOne(byId(id, owner), Document.class, TodoArchiver.COLLECTION)
+				.flatMap(document -> mongoTemplate.save(document, mongoTemplate.getCollectionName(Todo.class))
+						.then(mongoTemplate.remove(Query.query(Criteria.where(KeysetCursor.ID).is(document.get(KeysetCursor.ID))), 
+								TodoArchiver.COLLECTION))
+						.thenReturn(mongoTemplate.getConverter().read(Todo.class, document)));
+	}
+	
+	/**
+	 * Same as findAndTombstone, over the archive. Archived tombstones are removed
+	 * by the tombstone purge as the live ones are.
+	 * 
+	 * @param id
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param deletedAt
+	 * @return archived todo as it was before the delete, or empty when not archived.
+	 */
+	public Mono<Todo> findAndTombstoneArchived(String id, @Nullable String owner, Instant deletedAt) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findAndTombstoneArchived()");
+		return mongoTemplate.findAndModify(byId(id, owner), tombstone(deletedAt).inc(VERSION, 1), 
+				FindAndModifyOptions.options().returnNew(false), Todo.class, TodoArchiver.COLLECTION);
+	}
+	
+	/**
+	 * Applies the update to every todo of the owner matching the plan in a single updateMany.
+	 * The plan's sort is irrelevant to the write and ignored.
+	 * 
+	 * @param plan compiled filter.
+	 * @param owner bound as equality predicate.
+	 * @param update
+	 * @return matched and modified counts.
+	 */
+	public Mono<UpdateResult> updateByPlan(QueryPlan plan, String owner, Update update) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.updateByPlan()");
+		return updateMulti(plan.query(owner), update, mongoTemplate.getCollectionName(Todo.class))
+				.onErrorMap(guard::translate);
+	}
+	
+	/**
+	 * Turns every todo of the owner matching the plan into a tombstone, with one updateMany
+	 * over the todos collection and one over the archive.
+	 * 
+	 * @param plan compiled filter.
+	 * @param owner bound as equality predicate.
+	 * @param deletedAt
+	 * @return matched and deleted counts of both collections.
+	 */
+	public Mono<UpdateResult> tombstoneByPlan(QueryPlan plan, String owner, Instant deletedAt) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.tombstoneByPlan()");
+		final Update tombstone = tombstone(deletedAt).inc(VERSION, 1);
+		return updateMulti(plan.query(owner), tombstone, mongoTemplate.getCollectionName(Todo.class))
+				.zipWith(updateMulti(plan.query(owner), tombstone, TodoArchiver.COLLECTION),
+						(live, archived) -> UpdateResult.acknowledged(
+								live.getMatchedCount() + archived.getMatchedCount(),
+								live.getModifiedCount() + archived.getModifiedCount(),
+								null))
+				.onErrorMap(guard::translate);
+	}
+	
+	/**
+	 * updateMany bounded by the guard's maxTimeMS. The driver's update options carry no
+	 * time limit, so the update command is run directly, with the query and update
+	 * mapped as the template would map them.
+	 * 
+	 * @throws MongoException first write or write concern error reported by the command.
+	 */
+	private Mono<UpdateResult> updateMulti(Query query, Update update, String collectionName) {
+		final MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+				.getRequiredPersistentEntity(Todo.class);
+		return Mono.fromCallable(() -> {
+				final Query bounded = guard.bound(query);
+				return new Document("update", collectionName)
+						.append("updates", List.of(new Document("q", queryMapper.getMappedObject(bounded.getQueryObject(), entity))
+								.append("u", updateMapper.getMappedObject(update.getUpdateObject(), entity))
+								.append("multi", true)))
+						.append("maxTimeMS", bounded.getMeta().getMaxTimeMsec());
+			})
+			.flatMap(mongoTemplate::executeCommand)
+			.map(CustomReactiveMongoRepositoryImpl::updateResult);
+	}
+	
+	private static UpdateResult updateResult(Document reply) {
+		final List<Document> writeErrors = reply.getList("writeErrors", Document.class, List.of());
+		final Document error = writeErrors.isEmpty() ? reply.get("writeConcernError", Document.class) : writeErrors.get(0);
+		if (error != null)
+			throw new MongoException(error.getInteger("code"), error.getString("errmsg"));
+		return UpdateResult.acknowledged(((Number) reply.get("n")).longValue(), 
+				((Number) reply.get("nModified")).longValue(), null);
+	}
+	
+	/**
+	 * Ids and owners of the todos following <i>after</i> in <i>_id</i> order.
+	 * 
+	 * @param collectionName todos collection or archive.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param after exclusive lower bound. <i>null</i> starts from the first todo.
+	 * @param limit
+	 * @return todos holding only <i>_id</i> and owner.
+	 */
+	public Flux<Todo> findIdRange(String collectionName, @Nullable String owner, @Nullable ObjectId after, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findIdRange()");
+		final Query query = idRange(owner, after, null)
+				.with(Sort.by(Direction.ASC, KeysetCursor.ID))
+				.limit(limit);
+		query.fields().include(KeysetCursor.ID).include(QueryPlan.OWNER);
+		return mongoTemplate.find(query, Todo.class, collectionName);
+	}
+	
+	/**
+	 * Removes the todos in <i>(after, last]</i> in a single deleteMany.
+	 * 
+	 * @param collectionName todos collection or archive.
+	 * @param owner bound as equality predicate. <i>null</i> ignores ownership.
+	 * @param after exclusive lower bound. <i>null</i> has no lower bound.
+	 * @param last inclusive upper bound.
+	 * @return deleted count.
+	 */
+	public Mono<DeleteResult> deleteIdRange(String collectionName, @Nullable String owner, @Nullable ObjectId after, ObjectId last) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.deleteIdRange()");
+		return mongoTemplate.remove(idRange(owner, after, last), Todo.class, collectionName);
+	}
+	
+	/**
+	 * Ids of the tombstones deleted before the given instant, oldest first.
+	 * Restored todos keep their <i>deletedAt</i> and are left out by <i>deleted</i>,
+	 * as deleteTombstones would never remove them.
+	 * 
+	 * @param collectionName todos collection or archive.
+	 * @param before
+	 * @param limit
+	 * @return todos holding only <i>_id</i>.
+	 */
+	public Flux<Todo> findExpiredTombstones(String collectionName, Instant before, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findExpiredTombstones()");
+		final Query query = Query.query(Criteria.where(DELETED_AT).lt(before).and(QueryPlan.DELETED).is(true))
+				.with(Sort.by(Direction.ASC, DELETED_AT))
+				.limit(limit);
+		query.fields().include(KeysetCursor.ID);
+		return mongoTemplate.find(query, Todo.class, collectionName);
+	}
+	
+	/**
+	 * Removes the given tombstones in a single deleteMany. Only todos still marked deleted are removed.
+	 * 
+	 * @param collectionName todos collection or archive.
+	 * @param ids
+	 * @return deleted count.
+	 */
+	public Mono<DeleteResult> deleteTombstones(String collectionName, List<ObjectId> ids) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.deleteTombstones()");
+		return mongoTemplate.remove(Query.query(Criteria.where(KeysetCursor.ID).in(ids).and(QueryPlan.DELETED).is(true)), 
+				Todo.class, collectionName);
+	}
+	
+	/**
+	 * Completed todos last modified before the given instant, in <i>_id</i> order,
+	 * as stored documents.
+	 * 
+	 * @param before
+	 * @param after last id of the previous chunk or <i>null</i>.
+	 * @param limit
+	 * @return documents to be archived.
+	 */
+	public Flux<Document> findArchivable(Instant before, @Nullable ObjectId after, int limit) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.findArchivable()");
+		final Query query = Query.query(archivable(before))
+				.with(Sort.by(Direction.ASC, KeysetCursor.ID))
+				.limit(limit);
+		if (after != null)
+			query.addCriteria(Criteria.where(KeysetCursor.ID).gt(after));
+		return mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Todo.class));
+	}
+	
+	/**
+	 * Writes the documents into the archive in one unordered bulk write.
+	 * Documents already archived are replaced, so a chunk can be copied again.
+	 * 
+	 * @param documents
+	 * @return bulk write result.
+	 */
+	public Mono<BulkWriteResult> copyToArchive(List<Document> documents) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.copyToArchive()");
+		final List<ReplaceOneModel<Document>> models = documents.stream()
+				.map(document -> new ReplaceOneModel<>(Filters.eq(KeysetCursor.ID, document.get(KeysetCursor.ID)), document, 
+						new ReplaceOptions().upsert(true)))
+				.collect(Collectors.toList());
+		return mongoTemplate.getCollection(TodoArchiver.COLLECTION)
+				.flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false))));
+	}
+	
+	/**
+	 * Removes the archived todos from the todos collection in a single deleteMany.
+	 * Todos modified since they were read no longer match and are kept.
+	 * 
+	 * @param ids
+	 * @param before same instant the todos were read with.
+	 * @return deleted count.
+	 */
+	public Mono<DeleteResult> deleteArchived(List<ObjectId> ids, Instant before) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.deleteArchived()");
+		return mongoTemplate.remove(Query.query(archivable(before).and(KeysetCursor.ID).in(ids)), Todo.class);
+	}
+	
+	/**
+	 * Removes archive copies of todos which are still in the todos collection.
+	 * 
+	 * @param ids
+	 * @return deleted count.
+	 */
+	public Mono<DeleteResult> deleteStaleArchived(List<ObjectId> ids) {
+		log.debug("> CustomReactiveMongoRepositoryImpl.deleteStaleArchived()");
+		final Query live = Query.query(Criteria.where(KeysetCursor.ID).in(ids));
+		live.fields().include(KeysetCursor.ID);
+		return mongoTemplate.find(live, Todo.class)
+				.map(Todo::get_id)
+				.collectList()
+				.flatMap(stale -> mongoTemplate.remove(
+						Query.query(Criteria.where(KeysetCursor.ID).in(stale)), TodoArchiver.COLLECTION));
+	}
+	
+	private static Criteria archivable(Instant before) {
+		return Criteria.where(DONE).is(true)
+				.and(QueryPlan.DELETED).is(false)
+				.and(LAST_MODIFIED_DATE).lt(before);
+	}
+	
+	private static Update tombstone(Instant deletedAt) {
+		return Update.update(QueryPlan.DELETED, true).set(DELETED_AT, deletedAt);
+	}
+	
+	private static Query idRange(@Nullable String owner, @Nullable ObjectId after, @Nullable ObjectId last) {
+		final Query query = new Query();
+		if (owner != null)
+			query.addCriteria(Criteria.where(QueryPlan.OWNER).is(owner));
+		if (after != null || last != null) {
+			final Criteria id = Criteria.where(KeysetCursor.ID);
+			if (after != null)
+				id.gt(after);
+			if (last != null)
+				id.lte(last);
+			query.addCriteria(id);
+		}
+		return query;
+	}
+	
+	private static Query byId(String id, @Nullable String owner) {
+		final Query query = Query.query(Criteria.where(KeysetCursor.ID).is(id).and(QueryPlan.DELETED).is(false));
+		if (owner != null)
+			query.addCriteria(Criteria.where(QueryPlan.OWNER).is(owner));
+		return query;
+	}
+	
+	/**
+	 * Raw pipeline stage.
+	 */
+	private static AggregationOperation stage(String operator, Document body) {
+		return context -> new Document(operator, body);
+	}
+	
+	/**
+	 * Encodes the keyset cursor of a document using its mapped representation.
+	 */
+	private String cursor(Todo todo, Sort sort) {
+		final Document document = new Document();
+		mongoTemplate.getConverter().write(todo, document);
+		return KeysetCursor.encode(document, sort);
 	}
 	
 }
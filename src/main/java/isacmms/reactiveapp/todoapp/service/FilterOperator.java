@@ -0,0 +1,79 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Typed filter operators, sent as <i>field__operator=value</i> query parameters.
+ * <i>in</i> and <i>nin</i> take comma separated values.
+ *
+ * @author isacm
+ *
+ */
+public enum FilterOperator {
+
+	EQ, NE, IN, NIN, GT, GTE, LT, LTE;
+
+	/**
+	 * Separator between field and operator.
+	 */
+	public static final String SEPARATOR = "__";
+
+	/**
+	 * Parameter key suffix of the operator, e.g. <i>__gte</i>.
+	 */
+	public String suffix() {
+		return SEPARATOR + name().toLowerCase();
+	}
+
+	/**
+	 * Finds the operator a parameter key ends with.
+	 *
+	 * @param key parameter key.
+	 * @return operator or empty.
+	 */
+	public static Optional<FilterOperator> of(String key) {
+		return Arrays.stream(values())
+				.filter(operator -> key.endsWith(operator.suffix()) && key.length() > operator.suffix().length())
+				.findFirst();
+	}
+
+	/**
+	 * Compiles <i>field__operator=value</i> into a typed criteria.
+	 *
+	 * @param key parameter key.
+	 * @param value raw parameter value.
+	 * @return criteria over the stored type of the field.
+	 */
+	static Criteria criteria(String key, String value) {
+		final FilterOperator operator = of(key)
+				.orElseThrow(() -> new IllegalArgumentException("Not a filter: " + key));
+		final String field = key.substring(0, key.length() - operator.suffix().length());
+		final Criteria where = Criteria.where(field);
+
+		switch (operator) {
+		case IN:
+		case NIN:
+			final List<Object> values = Arrays.stream(value.split(","))
+					.map(String::trim)
+					.map(raw -> TodoFieldTypes.convert(field, raw))
+					.collect(Collectors.toList());
+			return operator == IN ? where.in(values) : where.nin(values);
+		default:
+			final Object typed = TodoFieldTypes.convert(field, value);
+			switch (operator) {
+			case NE: return where.ne(typed);
+			case GT: return where.gt(typed);
+			case GTE: return where.gte(typed);
+			case LT: return where.lt(typed);
+			case LTE: return where.lte(typed);
+			default: return where.is(typed);
+			}
+		}
+	}
+
+}
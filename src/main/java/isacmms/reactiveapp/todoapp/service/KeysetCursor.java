@@ -0,0 +1,177 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Opaque keyset cursor helpers.
+ * <p>A cursor is the base64url encoded extended JSON of the sort key values
+ * (plus <i>_id</i> as tie breaker) of the last document of a page. It is turned
+ * into a range predicate so the next page starts right after that document
+ * instead of skipping over all previous ones.</p>
+ * 
+ * @author isacm
+ *
+ */
+final class KeysetCursor {
+	
+	static final String ID = "_id";
+	
+	private static final String INVALID_CURSOR = "Invalid cursor.";
+	private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+			.outputMode(JsonMode.EXTENDED)
+			.build();
+	
+	private KeysetCursor() {}
+	
+	/**
+	 * Appends <i>_id</i> to the sort when missing so the order is total.
+	 * 
+	 * @param sort requested sort.
+	 * @return sort usable for keyset pagination.
+	 */
+	static Sort keysetSort(Sort sort) {
+		if (sort.getOrderFor(ID) != null)
+			return sort;
+		return sort.and(Sort.by(Direction.ASC, ID));
+	}
+	
+	/**
+	 * Encodes the sort key values of a document.
+	 * 
+	 * @param document mapped document of the last element of a page.
+	 * @param sort keyset sort.
+	 * @return opaque cursor.
+	 */
+	static String encode(Document document, Sort sort) {
+		final Document values = new Document();
+		sort.forEach(order -> values.append(order.getProperty(), document.get(order.getProperty())));
+		return Base64.getUrlEncoder()
+				.withoutPadding()
+				.encodeToString(values.toJson(JSON_SETTINGS).getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Decodes a cursor and checks it was issued for the given sort.
+	 * Each value must be null or have the stored type of its sort key, so a crafted
+	 * cursor can't put operators in the range predicate. Keys outside the todo fields,
+	 * such as the text search score, only take numbers.
+	 * 
+	 * @param cursor opaque cursor.
+	 * @param sort keyset sort.
+	 * @return sort key values.
+	 * @throws ResponseStatusException BAD_REQUEST when the cursor is malformed, holds
+	 *         a value of another type or was issued for another sort.
+	 */
+	static Document decode(String cursor, Sort sort) {
+		final Document values;
+		try {
+			values = Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException | JsonParseException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CURSOR, e);
+		}
+		
+		final List<String> properties = sort.stream()
+				.map(Order::getProperty)
+				.collect(Collectors.toList());
+		if (!properties.equals(new ArrayList<>(values.keySet())))
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CURSOR);
+		values.forEach((property, value) -> {
+			if (value != null && !(TodoFieldTypes.names().contains(property) ? 
+					TodoFieldTypes.isStored(property, value) : value instanceof Number))
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CURSOR);
+		});
+		return values;
+	}
+	
+	/**
+	 * Orders mapped documents as the database orders them for the sort,
+	 * with missing values first. Used to merge sorted results read from
+	 * more than one collection.
+	 * 
+	 * @param sort keyset sort.
+	 * @return comparator of mapped documents.
+	 */
+	static Comparator<Document> comparator(Sort sort) {
+		Comparator<Document> comparator = (left, right) -> 0;
+		for (Order order : sort) {
+			final Comparator<Document> property = Comparator.comparing(
+					document -> document.get(order.getProperty()), KeysetCursor::compareValues);
+			comparator = comparator.thenComparing(order.isAscending() ? property : property.reversed());
+		}
+		return comparator;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static int compareValues(@Nullable Object left, @Nullable Object right) {
+		if (left == null || right == null)
+			return left == null ? (right == null ? 0 : -1) : 1;
+		if (left instanceof Number && right instanceof Number)
+			return new BigDecimal(left.toString()).compareTo(new BigDecimal(right.toString()));
+		return ((Comparable<Object>) left).compareTo(right);
+	}
+	
+	/**
+	 * Builds the range predicate matching every document after the cursor position:
+	 * <pre>(k1 > v1) OR (k1 = v1 AND k2 > v2) OR ... </pre>
+	 * Comparison direction follows each order direction. Missing values sort first,
+	 * as in {@link #comparator(Sort)}: after a missing value come the present ones when
+	 * ascending and nothing when descending, and missing values come after any present
+	 * one when descending.
+	 * 
+	 * @param sort keyset sort.
+	 * @param values decoded cursor values.
+	 * @return criteria to be added to the page query.
+	 */
+	static Criteria criteria(Sort sort, Document values) {
+		final List<Order> orders = sort.toList();
+		final List<Criteria> branches = new ArrayList<>(orders.size());
+		
+		for (int i = 0; i < orders.size(); i++) {
+			final Order order = orders.get(i);
+			final Criteria after = after(order, values.get(order.getProperty()));
+			if (after == null)
+				continue;
+			final Criteria[] conditions = new Criteria[i + 1];
+			for (int j = 0; j < i; j++) {
+				final String property = orders.get(j).getProperty();
+				conditions[j] = Criteria.where(property).is(values.get(property));
+			}
+			conditions[i] = after;
+			branches.add(new Criteria().andOperator(conditions));
+		}
+		return new Criteria().orOperator(branches.toArray(new Criteria[0]));
+	}
+	
+	/**
+	 * Values of one sort key after the cursor value.
+	 * 
+	 * @return criteria or <i>null</i> when no value comes after.
+	 */
+	@Nullable
+	private static Criteria after(Order order, @Nullable Object value) {
+		final String property = order.getProperty();
+		if (order.isAscending())
+			return value == null ? Criteria.where(property).ne(null) : Criteria.where(property).gt(value);
+		return value == null ? null : 
+				new Criteria().orOperator(Criteria.where(property).lt(value), Criteria.where(property).is(null));
+	}
+	
+}
@@ -0,0 +1,243 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+
+/**
+ * Limits applied to user supplied queries before and while they run on Mongo.
+ * <ul>
+ * <li>Regex filters over the length limit or with nested quantifiers, e.g. <i>(a+)+</i>,
+ * are rejected with 400 before reaching the database.</li>
+ * <li>Every query carries a server side <i>maxTimeMS</i>. Queries killed by it answer 504.</li>
+ * <li>Unpaged listings stop at a hard document cap and answer 413, pointing to pagination.</li>
+ * </ul>
+ * <p>Rejections are counted as <i>todo.query.guard.rejected</i> tagged by reason
+ * and timeouts as <i>todo.query.guard.timeouts</i>.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class QueryGuard {
+
+	static final String REJECTED = "todo.query.guard.rejected";
+	static final String TIMEOUTS = "todo.query.guard.timeouts";
+
+	/**
+	 * Server error code of operations exceeding maxTimeMS.
+	 */
+	private static final int MAX_TIME_EXPIRED = 50;
+
+	private final int maxPatternLength;
+	private final int maxQuantifiers;
+	private final Duration maxTime;
+	private final int maxResults;
+
+	private final Counter tooLong;
+	private final Counter tooComplex;
+	private final Counter tooMany;
+	private final Counter timeouts;
+
+	/**
+	 *
+	 * @param registry where rejection and timeout counters are bound.
+	 * @param maxPatternLength longest regex accepted.
+	 * @param maxQuantifiers most quantifiers accepted in one regex.
+	 * @param maxTime server side time limit of every query.
+	 * @param maxResults most documents returned by an unpaged listing.
+	 */
+	public QueryGuard(MeterRegistry registry,
+			@Value("${todo.query.guard.max-pattern-length:256}") int maxPatternLength,
+			@Value("${todo.query.guard.max-pattern-quantifiers:16}") int maxQuantifiers,
+			@Value("${todo.query.guard.max-time:2s}") Duration maxTime,
+			@Value("${todo.query.guard.max-results:10000}") int maxResults) {
+		this.maxPatternLength = maxPatternLength;
+		this.maxQuantifiers = maxQuantifiers;
+		this.maxTime = maxTime;
+		this.maxResults = maxResults;
+		this.tooLong = registry.counter(REJECTED, "reason", "length");
+		this.tooComplex = registry.counter(REJECTED, "reason", "complexity");
+		this.tooMany = registry.counter(REJECTED, "reason", "results");
+		this.timeouts = registry.counter(TIMEOUTS);
+	}
+
+	/**
+	 * Rejects expressions that are too long or prone to catastrophic backtracking.
+	 *
+	 * @param field filtered field, for the error message.
+	 * @param regex expression as received.
+	 * @throws ResponseStatusException 400.
+	 */
+	void checkPattern(String field, String regex) {
+		if (regex.length() > this.maxPatternLength) {
+			this.tooLong.increment();
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					field + " expression exceeds " + this.maxPatternLength + " characters.");
+		}
+		if (quantifiers(regex) > this.maxQuantifiers || hasNestedQuantifier(regex)) {
+			this.tooComplex.increment();
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					field + " expression is too complex.");
+		}
+	}
+
+	/**
+	 * Bounds the query execution time.
+	 */
+	Query bound(Query query) {
+		return query.maxTime(this.maxTime);
+	}
+
+	/**
+	 * Bounds the aggregation execution time.
+	 */
+	AggregationOptions bound(AggregationOptions.Builder options) {
+		return options.maxTime(this.maxTime).build();
+	}
+
+	/**
+	 * Bounds an unpaged listing: one document over the cap is requested so
+	 * exceeding it can be told apart from matching it exactly.
+	 */
+	Query cap(Query query) {
+		return bound(query).limit(this.maxResults + 1);
+	}
+
+	/**
+	 * Fails the listing once it goes over the cap. Documents are still emitted as
+	 * they are read: JSON arrays are buffered by their writers, so they answer 413
+	 * before the body starts, while streamed listings end with an error element.
+	 *
+	 * @throws ResponseStatusException 413 signaled downstream.
+	 */
+	<T> Flux<T> capped(Flux<T> results) {
+		return results.index()
+				.handle((indexed, sink) -> {
+					if (indexed.getT1() < this.maxResults) {
+						sink.next(indexed.getT2());
+						return;
+					}
+					this.tooMany.increment();
+					sink.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+							"More than " + this.maxResults + " todos matched. Use limit/after pagination."));
+				});
+	}
+
+	/**
+	 * Maps queries killed by maxTimeMS to 504.
+	 */
+	Throwable translate(Throwable error) {
+		if (!isTimeout(error))
+			return error;
+		this.timeouts.increment();
+		log.warn("Query exceeded {}", this.maxTime);
+		return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Query took too long.", error);
+	}
+
+	private static boolean isTimeout(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof MongoExecutionTimeoutException)
+				return true;
+			if (cause instanceof MongoException && ((MongoException) cause).getCode() == MAX_TIME_EXPIRED)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts unbounded and counted quantifiers outside character classes.
+	 */
+	static int quantifiers(String regex) {
+		int count = 0;
+		for (int i = 0; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[')
+				i = classEnd(regex, i);
+			else if (c == '*' || c == '+' || c == '{')
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds a quantified group which itself contains a quantifier (star height above one),
+	 * the usual shape of exponential backtracking such as <i>(a+)+</i> or <i>(\w*\s?)*</i>.
+	 */
+	static boolean hasNestedQuantifier(String regex) {
+		final Deque<boolean[]> groups = new ArrayDeque<>();
+		boolean closedQuantified = false;
+		for (int i = 0; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			boolean closed = false;
+			switch (c) {
+			case '\\':
+				i++;
+				break;
+			case '[':
+				i = classEnd(regex, i);
+				break;
+			case '(':
+				groups.push(new boolean[1]);
+				break;
+			case ')':
+				if (!groups.isEmpty()) {
+					closed = groups.pop()[0];
+					if (closed && !groups.isEmpty())
+						groups.peek()[0] = true;
+				}
+				break;
+			case '*':
+			case '+':
+			case '{':
+				if (closedQuantified)
+					return true;
+				if (!groups.isEmpty())
+					groups.peek()[0] = true;
+				break;
+			default:
+				break;
+			}
+			closedQuantified = closed;
+		}
+		return false;
+	}
+
+	/**
+	 * Index of the bracket closing the character class opened at start.
+	 */
+	private static int classEnd(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^')
+			i++;
+		if (i < regex.length() && regex.charAt(i) == ']')
+			i++;
+		for (; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == ']')
+				return i;
+		}
+		return regex.length();
+	}
+
+}
@@ -0,0 +1,83 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.lang.Nullable;
+
+import lombok.Getter;
+
+/**
+ * Compiled, owner independent representation of a list request.
+ * Plans are immutable and shared between requests through {@link QueryPlanCache},
+ * the owner is only bound when the query is built.
+ * 
+ * @author isacm
+ *
+ */
+@Getter
+class QueryPlan {
+	
+	static final String OWNER = "owner";
+	static final String DELETED = "deleted";
+	
+	/**
+	 * Precompiled patterns by field name.
+	 */
+	private final Map<String, Pattern> patterns;
+	
+	/**
+	 * Criteria template. <i>null</i> when there is no filter.
+	 */
+	@Nullable
+	private final Criteria criteria;
+	
+	/**
+	 * Keyset sort, always ending on <i>_id</i>.
+	 */
+	private final Sort sort;
+	
+	QueryPlan(Map<String, Pattern> patterns, @Nullable Criteria criteria, Sort sort) {
+		this.patterns = patterns;
+		this.criteria = criteria;
+		this.sort = sort;
+	}
+	
+	/**
+	 * Builds a new query from this plan. Tombstones are always excluded.
+	 * 
+	 * @param owner bound as an equality predicate. <i>null</i> ignores ownership.
+	 * @return query ready to be executed.
+	 */
+	Query query(@Nullable String owner) {
+		final Query query = new Query().with(this.sort)
+				.addCriteria(Criteria.where(DELETED).is(false));
+		if (owner != null)
+			query.addCriteria(Criteria.where(OWNER).is(owner));
+		if (this.criteria != null)
+			query.addCriteria(this.criteria);
+		return query;
+	}
+	
+	/**
+	 * Builds a new query from this plan returning only the given fields.
+	 * Sort properties are always included so keyset cursors can still be encoded.
+	 * 
+	 * @param owner bound as an equality predicate. <i>null</i> ignores ownership.
+	 * @param fields projected fields. Empty returns whole documents.
+	 * @return query ready to be executed.
+	 */
+	Query query(@Nullable String owner, Set<String> fields) {
+		final Query query = query(owner);
+		if (!fields.isEmpty()) {
+			fields.forEach(query.fields()::include);
+			this.sort.forEach(order -> query.fields().include(order.getProperty()));
+		}
+		return query;
+	}
+	
+}
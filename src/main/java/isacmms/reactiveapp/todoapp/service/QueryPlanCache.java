@@ -0,0 +1,169 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Bounded cache of compiled {@link QueryPlan}s keyed by the normalized
+ * filter and sort parameters of list requests. Repeated queries skip
+ * field lookup, pattern compilation and Criteria/Sort creation.
+ * <p>Hit and miss counters are published as <i>cache.gets</i> metrics
+ * tagged <i>cache=todo.query.plans</i>.</p>
+ * 
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class QueryPlanCache {
+	
+	static final String CACHE_NAME = "todo.query.plans";
+	
+	private final Cache<Key, QueryPlan> cache;
+	private final QueryGuard guard;
+	
+	/**
+	 * 
+	 * @param registry meter registry where hit/miss counters are bound.
+	 * @param guard rejects dangerous expressions before they are compiled.
+	 * @param maxSize max number of plans kept. Least used plans are evicted first.
+	 */
+	public QueryPlanCache(MeterRegistry registry, QueryGuard guard,
+			@Value("${todo.query.plan-cache.max-size:1000}") long maxSize) {
+		this.guard = guard;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maxSize)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(registry, this.cache, CACHE_NAME);
+	}
+	
+	/**
+	 * Gets the compiled plan for the request parameters, compiling it on a miss.
+	 * 
+	 * @param regexs mapa<campo, regex> para ser utilizado na busca.
+	 * @param sortProperties strings de nomes dos campos para ordenação.
+	 * @return compiled plan.
+	 */
+	QueryPlan plan(Map<String, String> regexs, String... sortProperties) {
+		return plan(regexs, Map.of(), sortProperties);
+	}
+	
+	/**
+	 * Gets the compiled plan for the request parameters, compiling it on a miss.
+	 * 
+	 * @param regexs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados, ver {@link FilterOperator}.
+	 * @param sortProperties strings de nomes dos campos para ordenação.
+	 * @return compiled plan.
+	 */
+	QueryPlan plan(Map<String, String> regexs, Map<String, String> filters, String... sortProperties) {
+		return this.cache.get(
+				new Key(new TreeMap<>(regexs), new TreeMap<>(filters), Arrays.asList(sortProperties)), 
+				this::compile);
+	}
+	
+	/**
+	 * Cache statistics, including hit and miss counts.
+	 * 
+	 * @return snapshot of the statistics.
+	 */
+	public CacheStats stats() {
+		return this.cache.stats();
+	}
+	
+	/**
+	 * Rejected expressions throw before anything is cached.
+	 */
+	private QueryPlan compile(Key key) {
+		log.debug("> QueryPlanCache.compile()");
+		final Map<String, Pattern> patterns = new LinkedHashMap<>();
+		key.getRegexs().forEach((field, regex) -> {
+			this.guard.checkPattern(field, regex);
+			patterns.put(field, pattern(regex));
+		});
+		
+		final Criteria[] criterias = Stream.concat(
+					patterns.entrySet().stream()
+						.map(entry -> RegexRewriter.rewrite(entry.getKey(), entry.getValue())),
+					key.getFilters().entrySet().stream()
+						.map(entry -> FilterOperator.criteria(entry.getKey(), entry.getValue())))
+				.toArray(Criteria[]::new);
+		
+		return new QueryPlan(
+				Collections.unmodifiableMap(patterns), 
+				criterias.length == 0 ? null : new Criteria().andOperator(criterias), 
+				KeysetCursor.keysetSort(sort(key.getSortProperties())));
+	}
+	
+	/**
+	 * Compiles a case insensitive pattern.
+	 * Invalid expressions have their special characters removed.
+	 */
+	private static Pattern pattern(String regex) {
+		try {
+			return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+		} catch (PatternSyntaxException e) {
+			log.debug("Regex compilation found invalid operators. All special characters will be removed.");
+			log.debug(e);
+			return Pattern.compile(regex.replaceAll("[^a-zA-Z0-9\\s]", ""), Pattern.CASE_INSENSITIVE);
+		}
+	}
+	
+	/**
+	 * Método auxiliar para gerar ordenação por campos.
+	 * 
+	 * @param sortProperties strings de nomes dos campos para ordenação.
+	 * Strings iniciadas com sinal de menor (-) serão de ordem <b>decrescente</b>.
+	 * Campos não existentes serão <b>ignorados</b>.
+	 * @return Objeto Sort configurado para os campos solicitados que existem no objeto.
+	 */
+	private static Sort sort(List<String> sortProperties) {
+		final Set<String> todoFields = TodoFieldTypes.names();
+		return Sort.by(
+				sortProperties.stream()
+					.filter(prop -> prop.startsWith("-") ? todoFields.contains(prop.substring(1)) : todoFields.contains(prop))
+					.map(prop -> new Order(
+							prop.startsWith("-") ? Direction.DESC : Direction.ASC, 
+							prop.startsWith("-") ? prop.substring(1) : prop))
+					.collect(Collectors.toList()));
+	}
+	
+	/**
+	 * Normalized request parameters.
+	 * Filters are sorted by field name, sort order is kept as requested.
+	 */
+	@Data
+	private static class Key {
+		private final SortedMap<String, String> regexs;
+		private final SortedMap<String, String> filters;
+		private final List<String> sortProperties;
+	}
+	
+}
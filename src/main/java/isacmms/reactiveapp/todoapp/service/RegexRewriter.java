@@ -0,0 +1,108 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+
+/**
+ * Index aware rewrite of case insensitive regex filters.
+ * <p>Fields with a case folded shadow field have anchored literal expressions rewritten:</p>
+ * <ul>
+ * <li><i>^literal$</i> becomes an equality on the shadow field.</li>
+ * <li><i>^literal</i> becomes a range scan <i>[literal, successor(literal))</i> on the shadow field.</li>
+ * </ul>
+ * Every other expression keeps the regex on the original field and is only evaluated
+ * on documents left by the other predicates (e.g. owner).
+ * 
+ * @author isacm
+ *
+ */
+final class RegexRewriter {
+	
+	/**
+	 * Field name to case folded shadow field name.
+	 */
+	static final Map<String, String> SHADOW_FIELDS = Map.of("description", "descriptionFolded");
+	
+	private static final String META_CHARACTERS = ".[]{}()*+?|^$\\";
+	
+	private RegexRewriter() {}
+	
+	/**
+	 * Rewrites a compiled case insensitive pattern into the cheapest equivalent criteria.
+	 * 
+	 * @param field filtered field.
+	 * @param pattern compiled pattern.
+	 * @return criteria for the field.
+	 */
+	static Criteria rewrite(String field, Pattern pattern) {
+		final String shadow = SHADOW_FIELDS.get(field);
+		if (shadow == null)
+			return Criteria.where(field).regex(pattern);
+		
+		final String regex = pattern.pattern();
+		if (!regex.startsWith("^"))
+			return Criteria.where(field).regex(pattern);
+		
+		final boolean exact = regex.endsWith("$") && !regex.endsWith("\\$") && regex.length() > 1;
+		final Optional<String> literal = literal(regex.substring(1, exact ? regex.length() - 1 : regex.length()));
+		if (literal.isEmpty())
+			return Criteria.where(field).regex(pattern);
+		
+		final String folded = Todo.fold(literal.get());
+		if (exact)
+			return Criteria.where(shadow).is(folded);
+		
+		final Optional<String> successor = successor(folded);
+		if (successor.isEmpty())
+			return Criteria.where(field).regex(pattern);
+		return Criteria.where(shadow).gte(folded).lt(successor.get());
+	}
+	
+	/**
+	 * Unescapes an expression made only of literal characters.
+	 * 
+	 * @param body expression without anchors.
+	 * @return literal value or empty if the expression has any operator.
+	 */
+	static Optional<String> literal(String body) {
+		final StringBuilder literal = new StringBuilder(body.length());
+		for (int i = 0; i < body.length(); i++) {
+			final char c = body.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == body.length())
+					return Optional.empty();
+				final char escaped = body.charAt(++i);
+				if (Character.isLetterOrDigit(escaped))
+					return Optional.empty(); // \d, \w, \Q...
+				literal.append(escaped);
+			} else if (META_CHARACTERS.indexOf(c) >= 0)
+				return Optional.empty();
+			else
+				literal.append(c);
+		}
+		return Optional.of(literal.toString());
+	}
+	
+	/**
+	 * Smallest string greater than every string prefixed by value.
+	 * 
+	 * @param value prefix.
+	 * @return exclusive upper bound or empty when it can not be computed by
+	 *         incrementing the last character while keeping UTF-8 byte order.
+	 */
+	static Optional<String> successor(String value) {
+		if (value.isEmpty())
+			return Optional.empty();
+		final int last = value.length() - 1;
+		final char c = value.charAt(last);
+		if (Character.isSurrogate(c) || c >= '\uD7FF')
+			return Optional.empty();
+		return Optional.of(value.substring(0, last) + (char) (c + 1));
+	}
+	
+}
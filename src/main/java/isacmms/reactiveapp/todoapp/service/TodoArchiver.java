@@ -0,0 +1,199 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.CreateCollectionOptions;
+
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Moves completed todos not modified for longer than the age into the
+ * <i>todos_archive</i> collection, keeping the todos collection and its
+ * indexes down to the todos still in use.
+ * <p>The archive is created compressed and with a single <i>owner_id</i> index.
+ * Each run walks the archivable todos in <i>_id</i> ordered chunks: a chunk is copied
+ * with one bulk upsert and then removed with one deleteMany, with a pause between chunks.
+ * Every step can be repeated, so a run stopped halfway is completed by the next one.
+ * Todos modified between the copy and the delete stay where they are and their
+ * copies are dropped from the archive.</p>
+ * <p>Archived todos are no longer counted by the summaries, which are recounted
+ * for the owners of each chunk. They are still found by id, deletes tombstone them
+ * in the archive and purges remove them from it; a write moves one back into the
+ * todos collection first.</p>
+ * <p>Disabled by default.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoArchiver implements DisposableBean {
+
+	static final String COLLECTION = "todos_archive";
+
+	private static final int NAMESPACE_EXISTS = 48;
+	private static final Duration PREPARE_TIMEOUT = Duration.ofSeconds(30);
+
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final TodoRepository repository;
+	private final TodoSummaryService summaries;
+	private final TodoReadCache reads;
+	private final TodoJournal journal;
+	private final boolean enabled;
+	private final Duration age;
+	private final Duration interval;
+	private final ChunkedRunner chunks;
+	private final String compressor;
+	private Disposable schedule = Disposables.disposed();
+
+	/**
+	 *
+	 * @param mongoTemplate
+	 * @param repository
+	 * @param summaries counters recounted for the owners of each chunk.
+	 * @param reads owner scoped read cache, invalidated for the owners of each chunk.
+	 * @param journal pending writes, flushed before a chunk is read and held back while it is moved.
+	 * @param enabled runs the archival.
+	 * @param age time since the last modification after which a completed todo is archived.
+	 * @param interval time between runs.
+	 * @param chunkSize todos moved by each chunk.
+	 * @param chunkDelay pause between chunks.
+	 * @param compressor block compressor of the archive collection. snappy by default, which
+	 * every WiredTiger supports; zstd needs MongoDB 4.2 or later.
+	 */
+	public TodoArchiver(ReactiveMongoTemplate mongoTemplate, TodoRepository repository, TodoSummaryService summaries,
+			TodoReadCache reads, TodoJournal journal,
+			@Value("${todo.archive.enabled:false}") boolean enabled,
+			@Value("${todo.archive.age:90d}") Duration age,
+			@Value("${todo.archive.interval:1h}") Duration interval,
+			@Value("${todo.archive.chunk-size:500}") int chunkSize,
+			@Value("${todo.archive.chunk-delay:500ms}") Duration chunkDelay,
+			@Value("${todo.archive.compressor:snappy}") String compressor) {
+		this.mongoTemplate = mongoTemplate;
+		this.repository = repository;
+		this.summaries = summaries;
+		this.reads = reads;
+		this.journal = journal;
+		this.enabled = enabled;
+		this.age = age;
+		this.interval = interval;
+		this.chunks = new ChunkedRunner(chunkSize, chunkDelay);
+		this.compressor = compressor;
+	}
+
+	/**
+	 * Creates the archive and starts the runs. Startup fails when the archive can't be
+	 * created, rather than running without archival. Runs never overlap;
+	 * a tick arriving while a run is still going is dropped.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void startAfterStartup() {
+		if (!this.enabled)
+			return;
+		try {
+			prepare().block(PREPARE_TIMEOUT);
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Archive collection " + COLLECTION + " could not be created with block compressor "
+					+ this.compressor + ", check todo.archive.compressor", e);
+		}
+		this.schedule = Flux.interval(this.interval)
+				.onBackpressureDrop()
+				.concatMap(tick -> archive()
+						.onErrorResume(e -> {
+							log.warn("Archival failed: {}", e.getMessage());
+							return Mono.empty();
+						}), 1)
+				.subscribe(archived -> {
+					if (archived > 0)
+						log.info("Archived {} todos", archived);
+				});
+	}
+
+	/**
+	 * Creates the compressed archive collection when missing and its only index.
+	 *
+	 * @return completion.
+	 */
+	Mono<Void> prepare() {
+		return this.mongoTemplate.collectionExists(COLLECTION)
+				.filter(exists -> !exists)
+				.flatMap(missing -> this.mongoTemplate.getMongoDatabase()
+						.flatMap(database -> Mono.from(database.createCollection(COLLECTION, new CreateCollectionOptions()
+								.storageEngineOptions(new Document("wiredTiger",
+										new Document("configString", "block_compressor=" + this.compressor)))))))
+				.onErrorResume(MongoCommandException.class, e ->
+						e.getErrorCode() == NAMESPACE_EXISTS ? Mono.empty() : Mono.error(e))
+				.then(this.mongoTemplate.indexOps(COLLECTION)
+						.ensureIndex(new Index().on(QueryPlan.OWNER, Direction.ASC).on(KeysetCursor.ID, Direction.ASC)
+								.named("owner_id")))
+				.then();
+	}
+
+	/**
+	 * Moves every completed todo older than the age into the archive.
+	 *
+	 * @return number of archived todos.
+	 */
+	Mono<Long> archive() {
+		final Instant before = Instant.now().minus(this.age);
+		final AtomicLong archived = new AtomicLong();
+		return this.chunks.<Document>run(
+					(after, limit) -> this.journal.barrier(null)
+							.thenMany(this.repository.findArchivable(before, after == null ? null : after.getObjectId(KeysetCursor.ID), limit)),
+					(after, documents) -> this.journal.exclusive(null, move(before, documents, archived)))
+				.then(Mono.fromSupplier(archived::get));
+	}
+
+	/**
+	 * Copies the chunk to the archive and then deletes it from the todos collection.
+	 */
+	private Mono<Void> move(Instant before, List<Document> documents, AtomicLong archived) {
+		final List<ObjectId> ids = documents.stream()
+				.map(document -> document.getObjectId(KeysetCursor.ID))
+				.collect(Collectors.toList());
+		return this.repository.copyToArchive(documents)
+				.then(this.repository.deleteArchived(ids, before))
+				.flatMap(result -> result.getDeletedCount() < ids.size() ?
+						this.repository.deleteStaleArchived(ids).thenReturn(result) : Mono.just(result))
+				.doOnNext(result -> archived.addAndGet(result.getDeletedCount()))
+				.thenMany(Flux.fromIterable(owners(documents))
+						.concatMap(owner -> this.summaries.recount(owner)
+								.doOnSuccess(v -> this.reads.invalidate(owner))))
+				.then();
+	}
+
+	private static List<String> owners(List<Document> documents) {
+		return documents.stream()
+				.map(document -> document.getString(QueryPlan.OWNER))
+				.filter(Objects::nonNull)
+				.distinct()
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public void destroy() {
+		this.schedule.dispose();
+	}
+
+}
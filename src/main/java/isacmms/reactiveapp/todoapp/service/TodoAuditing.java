@@ -0,0 +1,42 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.data.mapping.callback.ReactiveEntityCallbacks;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeConvertCallback;
+import org.springframework.stereotype.Component;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the before convert entity callbacks, auditing among them, on todos written
+ * as documents without the template's save or insert, which would run them otherwise.
+ * The callbacks read the caller's security context, so they must run on the
+ * caller's subscription.
+ *
+ * @author isacm
+ *
+ */
+@Component
+public class TodoAuditing {
+
+	private final ReactiveEntityCallbacks callbacks;
+	private final String collectionName;
+
+	public TodoAuditing(BeanFactory beanFactory, ReactiveMongoTemplate mongoTemplate) {
+		this.callbacks = ReactiveEntityCallbacks.create(beanFactory);
+		this.collectionName = mongoTemplate.getCollectionName(Todo.class);
+	}
+
+	/**
+	 * Todos without <i>_id</i> are audited as new ones.
+	 *
+	 * @param todo
+	 * @return audited todo.
+	 */
+	public Mono<Todo> beforeConvert(Todo todo) {
+		return this.callbacks.callback(ReactiveBeforeConvertCallback.class, todo, this.collectionName);
+	}
+
+}
@@ -0,0 +1,68 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of a single todo of a bulk creation, identified by its position in the request.
+ * 
+ * @author isacm
+ *
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoBatchItem {
+
+	private static final int PENDING = 0;
+	private static final int CREATED = 201;
+	
+	/**
+	 * Zero based position of the todo in the request body.
+	 */
+	private final long index;
+	
+	/**
+	 * Http status of the item: 201 when created, the error status otherwise.
+	 */
+	private final int status;
+	
+	/**
+	 * Created todo. <i>null</i> for failed items.
+	 */
+	private final Todo todo;
+	
+	/**
+	 * Error message. <i>null</i> for created items.
+	 */
+	private final String error;
+	
+	/**
+	 * Valid todo waiting to be inserted.
+	 */
+	public static TodoBatchItem pending(long index, Todo todo) {
+		return new TodoBatchItem(index, PENDING, todo, null);
+	}
+	
+	/**
+	 * Todo rejected or not inserted.
+	 */
+	public static TodoBatchItem failed(long index, int status, String error) {
+		return new TodoBatchItem(index, status, null, error);
+	}
+	
+	TodoBatchItem created() {
+		return new TodoBatchItem(this.index, CREATED, this.todo, null);
+	}
+	
+	@JsonIgnore
+	public boolean isPending() {
+		return this.status == PENDING;
+	}
+	
+}
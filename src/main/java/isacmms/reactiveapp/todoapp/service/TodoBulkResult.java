@@ -0,0 +1,26 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Counts of a bulk write over the todos matching a filter.
+ * 
+ * @author isacm
+ *
+ */
+@Data
+@AllArgsConstructor
+public class TodoBulkResult {
+
+	/**
+	 * Todos matching the filter.
+	 */
+	private final long matched;
+	
+	/**
+	 * Todos actually changed. Equal to matched for deletions.
+	 */
+	private final long modified;
+	
+}
@@ -0,0 +1,105 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Precomputed registry of the Todo fields that can be filtered and sorted,
+ * with the type their values are stored as.
+ * Replaces per request reflection over the model.
+ *
+ * @author isacm
+ *
+ */
+public final class TodoFieldTypes {
+
+	private static final Map<String, Class<?>> TYPES;
+
+	static {
+		final Map<String, Class<?>> types = new LinkedHashMap<>();
+		types.put("_id", ObjectId.class);
+		types.put("done", Boolean.class);
+		types.put("description", String.class);
+		types.put("owner", String.class);
+		types.put("createdDate", Instant.class);
+		types.put("lastModifiedDate", Instant.class);
+		TYPES = Map.copyOf(types);
+	}
+
+	private TodoFieldTypes() {
+	}
+
+	/**
+	 *
+	 * @return every registered field name.
+	 */
+	public static Set<String> names() {
+		return TYPES.keySet();
+	}
+
+	/**
+	 *
+	 * @param field
+	 * @return true when the field is registered with the given type.
+	 */
+	public static boolean is(String field, Class<?> type) {
+		return type.equals(TYPES.get(field));
+	}
+
+	/**
+	 * Tells if a value read back from a stored document has the field's type.
+	 * Instants are stored as dates.
+	 *
+	 * @param field registered field name.
+	 * @param value stored value, not null.
+	 * @return false on unknown fields or values of any other type, operator documents included.
+	 */
+	static boolean isStored(String field, Object value) {
+		final Class<?> type = TYPES.get(field);
+		if (type == null)
+			return false;
+		return (type == Instant.class ? Date.class : type).isInstance(value);
+	}
+
+	/**
+	 * Converts a query parameter value to the field's stored type.
+	 * Dates are ISO-8601 instants or local dates, taken as UTC midnight.
+	 *
+	 * @param field registered field name.
+	 * @param raw value as received.
+	 * @return typed value.
+	 * @throws ResponseStatusException 400 on unknown fields or unparseable values.
+	 */
+	static Object convert(String field, String raw) {
+		final Class<?> type = TYPES.get(field);
+		if (type == null)
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown filter field: " + field);
+		try {
+			if (type == ObjectId.class)
+				return new ObjectId(raw);
+			if (type == Boolean.class) {
+				if (!"true".equalsIgnoreCase(raw) && !"false".equalsIgnoreCase(raw))
+					throw new IllegalArgumentException(raw);
+				return Boolean.valueOf(raw);
+			}
+			if (type == Instant.class)
+				return raw.contains("T") ?
+						Instant.parse(raw) : LocalDate.parse(raw).atStartOfDay().toInstant(ZoneOffset.UTC);
+			return raw;
+		} catch (IllegalArgumentException | DateTimeParseException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"Invalid " + type.getSimpleName() + " value for " + field + ": " + raw, e);
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoIdempotencyKey;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Mono;
+
+/**
+ * Makes creates under an <i>Idempotency-Key</i> happen once.
+ * <p>A key is reserved by inserting it into a TTL indexed collection before the todo is
+ * created, and the created todo is stored with it afterwards. A request finding the key
+ * already reserved gets the stored todo back without touching the todos collection,
+ * or 409 while the first request is still running.</p>
+ * <p>Recent keys are also kept in memory with the shared result of their create,
+ * so concurrent duplicates reaching the same instance wait for one insert
+ * and replays are answered without a round trip.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoIdempotencyStore {
+
+	private static final String TODO = "todo";
+	private static final String EXPIRES_AT = "expiresAt";
+	private static final String IN_PROGRESS = "A request with this Idempotency-Key is still in progress.";
+	private static final String KEY_REUSED = "Idempotency-Key was already used for another request.";
+
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final Duration ttl;
+	private final Duration pendingTtl;
+	private final Cache<String, Entry> recent;
+
+	/**
+	 *
+	 * @param mongoTemplate
+	 * @param ttl time a key is remembered after its todo was created.
+	 * @param pendingTtl time a key stays reserved by a create that never finished.
+	 * @param cacheSize keys remembered in memory.
+	 */
+	public TodoIdempotencyStore(ReactiveMongoTemplate mongoTemplate,
+			@Value("${todo.idempotency.ttl:24h}") Duration ttl,
+			@Value("${todo.idempotency.pending-ttl:1m}") Duration pendingTtl,
+			@Value("${todo.idempotency.cache-size:10000}") long cacheSize) {
+		this.mongoTemplate = mongoTemplate;
+		this.ttl = ttl;
+		this.pendingTtl = pendingTtl;
+		this.recent = Caffeine.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(ttl)
+				.build();
+	}
+
+	/**
+	 * Creates the todo once per owner and key.
+	 *
+	 * @param owner
+	 * @param key client supplied Idempotency-Key.
+	 * @param request request body, compared with the one the key was first used for.
+	 * @param create the actual create.
+	 * @return created todo, or the one created by the first request with the key.
+	 */
+	Mono<Todo> execute(String owner, String key, Todo request, Supplier<Mono<Todo>> create) {
+		return Mono.defer(() -> {
+			final String id = owner + ':' + key;
+			final String fingerprint = fingerprint(request);
+			final Entry entry = this.recent.get(id, k -> new Entry(fingerprint, reserve(id, fingerprint, create).cache()));
+			if (!entry.getFingerprint().equals(fingerprint))
+				return Mono.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, KEY_REUSED));
+			return entry.getResult()
+					.doOnError(e -> this.recent.asMap().remove(id, entry));
+		});
+	}
+
+	/**
+	 * Reserves the key, or replays it when another request already did.
+	 */
+	private Mono<Todo> reserve(String id, String fingerprint, Supplier<Mono<Todo>> create) {
+		final TodoIdempotencyKey reservation = new TodoIdempotencyKey(id, fingerprint, null,
+				Date.from(Instant.now().plus(this.pendingTtl)));
+		return this.mongoTemplate.insert(reservation)
+				.map(reserved -> true)
+				.onErrorResume(DuplicateKeyException.class, e -> Mono.just(false))
+				.flatMap(reserved -> reserved ? complete(reservation, create) : replay(id, fingerprint));
+	}
+
+	/**
+	 * Creates the todo and stores it with the key. A failed create releases the key.
+	 * Once the todo was created the key is never released: when it can't be stored,
+	 * the todo is still returned and the key stays reserved until the pending ttl,
+	 * so retries get 409 instead of creating a second todo.
+	 */
+	private Mono<Todo> complete(TodoIdempotencyKey reservation, Supplier<Mono<Todo>> create) {
+		return create.get()
+				.onErrorResume(e -> this.mongoTemplate.remove(reservation)
+						.onErrorResume(removal -> {
+							log.warn("Idempotency-Key {} could not be released", reservation.getId(), removal);
+							return Mono.empty();
+						})
+						.then(Mono.error(e)))
+				.flatMap(todo -> this.mongoTemplate.updateFirst(query(where("_id").is(reservation.getId())),
+							Update.update(TODO, todo).set(EXPIRES_AT, Date.from(Instant.now().plus(this.ttl))),
+							TodoIdempotencyKey.class)
+						.thenReturn(todo)
+						.onErrorResume(e -> {
+							log.warn("Idempotency-Key {} could not be completed, it stays reserved until it expires",
+									reservation.getId(), e);
+							return Mono.just(todo);
+						}));
+	}
+
+	private Mono<Todo> replay(String id, String fingerprint) {
+		log.debug("Replaying Idempotency-Key {}", id);
+		return this.mongoTemplate.findById(id, TodoIdempotencyKey.class)
+				.filter(stored -> stored.getTodo() != null || !stored.getFingerprint().equals(fingerprint))
+				.switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.CONFLICT, IN_PROGRESS)))
+				.flatMap(stored -> stored.getFingerprint().equals(fingerprint) ?
+						Mono.just(stored.getTodo()) :
+						Mono.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, KEY_REUSED)));
+	}
+
+	static String fingerprint(Todo request) {
+		final String body = request.getDescription() + '\n' + request.getDone();
+		return DigestUtils.md5DigestAsHex(body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Getter
+	@AllArgsConstructor
+	private static class Entry {
+		private final String fingerprint;
+		private final Mono<Todo> result;
+	}
+
+}
@@ -0,0 +1,805 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Optional write-behind stage for creates and patches.
+ * <p>When enabled, each write is appended to a memory-mapped journal file and
+ * acknowledged once the append was forced to disk. Forces are grouped: appends go on
+ * while one runs, and the next one covers all of them at once. A background flusher drains the
+ * journal to Mongo in ordered bulk writes, adds the counter deltas of the flushed entries
+ * to their owners' summaries and invalidates their reads; the flushed offset only moves
+ * once that is done. Entries left unflushed by a crash are read back and flushed again
+ * on startup; inserts found already written are taken as flushed. Entries that may have
+ * been written before, recovered ones and those of a failed flush, recount their owners
+ * instead, since their deltas may have been added already.</p>
+ * <p>Every read of an owner waits for the owner's pending entries to be flushed first
+ * ({@link #barrier(String)}), so owners read their own writes. Direct writes also hold
+ * the owner's appends back until they are done ({@link #exclusive(String, Mono)}), so they
+ * are never reordered before journaled ones and no todo changes under a pending patch.
+ * A patch that still matches nothing when flushed, its todo having been removed or
+ * changed some other way, is dead-lettered and changes no counter.</p>
+ * <p>File layout: the offset of the oldest unflushed entry (8 bytes), then entries of
+ * payload length (4 bytes), CRC32 of the payload (4 bytes) and BSON payload.
+ * A zero length ends the journal, and so does an entry whose checksum does not match,
+ * which is how a torn append is dropped. The file is a ring: an entry that does not fit
+ * before the end of the file goes at its beginning, behind a length of -1 that sends
+ * readers there, as long as it ends before the oldest pending entry. Appends are only
+ * refused while the pending entries take the whole file.</p>
+ * <p>Lag is published as <i>todo.journal.pending</i> (entries),
+ * <i>todo.journal.lag.bytes</i> and <i>todo.journal.lag.seconds</i> (age of the oldest entry).
+ * Entries Mongo refuses for good are moved to the <i>todos_dead_letters</i> collection
+ * and counted by <i>todo.journal.dead.letters</i>.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoJournal implements DisposableBean {
+
+	private static final int HEADER = Long.BYTES;
+	private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+	private static final int WRAP = -1;
+	private static final String ID = "_id";
+	private static final String OP = "op";
+	private static final String INSERT = "insert";
+	private static final String UPDATE = "update";
+	private static final String TODO = "todo";
+	private static final String SET = "set";
+	private static final String EXPECTED = "expected";
+	private static final String WAS_DONE = "wasDone";
+	private static final String VERSION = "__v";
+	private static final String LAST_MODIFIED_DATE = "lastModifiedDate";
+	private static final String LAST_MODIFIED_BY = "lastModifiedBy";
+	private static final String DEAD_LETTERS = "todos_dead_letters";
+	private static final String JOURNAL_FULL = "Write-behind journal is full, try again later.";
+	private static final String FLUSH_TIMEOUT = "Pending writes could not be flushed in time, try again later.";
+	private static final String UNMATCHED = "Todo was removed or changed before the patch was flushed";
+
+	private final Codec<Document> codec = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final TodoAuditing auditing;
+	private final TodoSummaryService summaries;
+	private final TodoReadCache reads;
+	private final boolean enabled;
+	private final int maxBatch;
+	private final Duration readTimeout;
+
+	private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+	private final Map<String, Entry> pendingTodos = new ConcurrentHashMap<>();
+	private final Map<String, Long> pendingOwners = new ConcurrentHashMap<>();
+	private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+	private final FluxSink<Boolean> wakeups;
+
+	/**
+	 * Direct writes in flight per owner, under the <i>null</i> key for those of every owner,
+	 * and the appends waiting for them. Guarded by this.
+	 */
+	private final Map<String, Integer> holds = new HashMap<>();
+	private final List<Runnable> heldAppends = new ArrayList<>();
+
+	private final Counter deadLetters;
+	private final Disposable flusher;
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int writeOffset = HEADER;
+	private long lastSeq;
+	private volatile long flushedSeq;
+
+	/**
+	 * Last entry forced to disk. Guarded by syncLock.
+	 */
+	private final Object syncLock = new Object();
+	private long syncedSeq;
+
+	/**
+	 *
+	 * @param mongoTemplate
+	 * @param auditing run on every journaled write, as the template would on a direct one.
+	 * @param summaries counters updated for the owners of each flushed batch.
+	 * @param reads owner scoped read cache, invalidated for the owners of each flushed batch.
+	 * @param registry where lag gauges are bound.
+	 * @param enabled journals creates and patches instead of writing them to Mongo.
+	 * @param path journal file, created when missing.
+	 * @param size journal file size. Appends are refused with 503 while it is full.
+	 * @param flushInterval time between flushes when nobody is waiting for one.
+	 * @param maxBatch entries per bulk write.
+	 * @param readTimeout longest time a read waits for the owner's entries to be flushed.
+	 */
+	public TodoJournal(ReactiveMongoTemplate mongoTemplate, TodoAuditing auditing, TodoSummaryService summaries, TodoReadCache reads,
+			MeterRegistry registry,
+			@Value("${todo.write-behind.enabled:false}") boolean enabled,
+			@Value("${todo.write-behind.journal:todo.journal}") String path,
+			@Value("${todo.write-behind.journal-size:64MB}") DataSize size,
+			@Value("${todo.write-behind.flush-interval:50ms}") Duration flushInterval,
+			@Value("${todo.write-behind.max-batch:500}") int maxBatch,
+			@Value("${todo.write-behind.read-timeout:5s}") Duration readTimeout) {
+		this.mongoTemplate = mongoTemplate;
+		this.auditing = auditing;
+		this.summaries = summaries;
+		this.reads = reads;
+		this.enabled = enabled;
+		this.maxBatch = maxBatch;
+		this.readTimeout = readTimeout;
+		if (!enabled) {
+			this.wakeups = null;
+			this.deadLetters = null;
+			this.flusher = Disposables.disposed();
+			return;
+		}
+
+		open(Paths.get(path), Math.toIntExact(size.toBytes()));
+		recover();
+		Gauge.builder("todo.journal.pending", this.pending, Queue::size).register(registry);
+		Gauge.builder("todo.journal.lag.bytes", this, TodoJournal::lagBytes).register(registry);
+		Gauge.builder("todo.journal.lag.seconds", this, TodoJournal::lagSeconds).register(registry);
+		this.deadLetters = Counter.builder("todo.journal.dead.letters").register(registry);
+
+		final UnicastProcessor<Boolean> processor = UnicastProcessor.create();
+		this.wakeups = processor.sink();
+		this.flusher = Flux.merge(Flux.interval(flushInterval).map(tick -> true), processor)
+				.onBackpressureDrop()
+				.concatMap(wakeup -> drain(), 1)
+				.subscribe();
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Journals a new todo. It is audited as new, then the <i>_id</i> is generated here
+	 * and the version starts at 0.
+	 *
+	 * @param todo prepared new todo.
+	 * @return the todo, once its entry is durable.
+	 */
+	Mono<Todo> insert(Todo todo) {
+		return this.auditing.beforeConvert(todo)
+				.flatMap(audited -> {
+					if (audited.get_id() == null)
+						audited.set_id(new ObjectId());
+					if (audited.get__v() == null)
+						audited.set__v(0L);
+					final Document payload = new Document(OP, INSERT).append(TODO, document(audited));
+					return whenUnheld(audited.getOwner(), () -> append(audited, payload));
+				})
+				.flatMap(entry -> sync(entry.seq).thenReturn(entry.todo));
+	}
+
+	/**
+	 * Journals a patch. The patch is applied to the latest pending state of the todo
+	 * when there is one, <i>current</i> otherwise. The last modification audit fields
+	 * come from the entity callbacks and are written along with the patch.
+	 *
+	 * @param current todo as read from Mongo.
+	 * @param apply the patch applied in memory, version included.
+	 * @param set <i>$set</i> of the patch, written when the entry is flushed along with the version.
+	 * The entry keeps the version it expects and the one it writes, so writing it again is a no-op.
+	 * @return patched todo, once its entry is durable.
+	 */
+	Mono<Todo> update(Todo current, UnaryOperator<Todo> apply, Document set) {
+		return this.auditing.beforeConvert(copy(current))
+				.flatMap(audited -> {
+					final Document converted = (Document) this.mongoTemplate.getConverter().convertToMongoType(set);
+					audited.getLastModifiedDate().ifPresent(date -> converted.append(LAST_MODIFIED_DATE, date));
+					audited.getLastModifiedBy().ifPresent(name -> converted.append(LAST_MODIFIED_BY, name));
+					return whenUnheld(current.getOwner(), () -> {
+						final Entry latest = this.pendingTodos.get(current.getId());
+						final Todo previous = latest == null ? current : latest.todo;
+						final Long expected = previous.get__v();
+						final boolean wasDone = Boolean.TRUE.equals(previous.getDone());
+						final Todo todo = apply.apply(copy(previous));
+						converted.append(VERSION, todo.get__v());
+						audited.getLastModifiedDate().ifPresent(todo::setLastModifiedDate);
+						audited.getLastModifiedBy().ifPresent(todo::setLastModifiedBy);
+						return append(todo, new Document(OP, UPDATE).append(TODO, document(todo)).append(SET, converted)
+								.append(EXPECTED, expected).append(WAS_DONE, wasDone));
+					});
+				})
+				.flatMap(entry -> sync(entry.seq).thenReturn(entry.todo));
+	}
+
+	/**
+	 * Runs an append, under the journal lock, once no direct write of the owner is in flight.
+	 *
+	 * @param owner
+	 * @param append
+	 * @return what the append returns.
+	 */
+	private <T> Mono<T> whenUnheld(String owner, Supplier<T> append) {
+		return Mono.<T>create(sink -> {
+					final Runnable attempt = new Runnable() {
+						@Override
+						public void run() {
+							tryAppend(owner, append, sink, this);
+						}
+					};
+					sink.onDispose(() -> dropHeld(attempt));
+					attempt.run();
+				})
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	private <T> void tryAppend(String owner, Supplier<T> append, MonoSink<T> sink, Runnable attempt) {
+		final T appended;
+		synchronized (this) {
+			if (this.holds.containsKey(owner) || this.holds.containsKey(null)) {
+				this.heldAppends.add(attempt);
+				return;
+			}
+			try {
+				appended = append.get();
+			} catch (RuntimeException e) {
+				sink.error(e);
+				return;
+			}
+		}
+		sink.success(appended);
+	}
+
+	private synchronized void dropHeld(Runnable attempt) {
+		this.heldAppends.remove(attempt);
+	}
+
+	/**
+	 * Runs a direct write with the owner's appends held back: the owner's pending entries
+	 * are flushed first and new ones wait until the write is done.
+	 *
+	 * @param owner <i>null</i> holds back the appends of every owner.
+	 * @param write direct write to Mongo.
+	 * @return the write's result.
+	 */
+	<T> Mono<T> exclusive(@Nullable String owner, Mono<T> write) {
+		if (!this.enabled)
+			return write;
+		return Mono.defer(() -> {
+			hold(owner);
+			return barrier(owner)
+					.then(write)
+					.doFinally(signal -> unhold(owner));
+		});
+	}
+
+	private synchronized void hold(@Nullable String owner) {
+		this.holds.merge(owner, 1, Integer::sum);
+	}
+
+	/**
+	 * Releases a hold and retries the held appends, which wait again when still held.
+	 */
+	private void unhold(@Nullable String owner) {
+		final List<Runnable> retries;
+		synchronized (this) {
+			this.holds.computeIfPresent(owner, (key, count) -> count == 1 ? null : count - 1);
+			retries = new ArrayList<>(this.heldAppends);
+			this.heldAppends.clear();
+		}
+		retries.forEach(Runnable::run);
+	}
+
+	/**
+	 * Latest state of a todo with pending entries.
+	 *
+	 * @param id
+	 * @return pending todo or empty when all its writes were flushed.
+	 */
+	Mono<Todo> pending(String id) {
+		return Mono.fromSupplier(() -> {
+			final Entry entry = this.pendingTodos.get(id);
+			return entry == null ? null : copy(entry.todo);
+		});
+	}
+
+	/**
+	 * Waits until the pending entries of the owner are flushed.
+	 * Completes right away when the owner has none or write-behind is disabled.
+	 *
+	 * @param owner <i>null</i> waits for the entries of every owner.
+	 * @return completion, 503 when the entries were not flushed within the read timeout.
+	 */
+	Mono<Void> barrier(@Nullable String owner) {
+		if (!this.enabled)
+			return Mono.empty();
+		return Mono.defer(() -> {
+			final Long target = owner == null ? lastPendingSeq() : this.pendingOwners.get(owner);
+			if (target == null || target <= this.flushedSeq)
+				return Mono.empty();
+			return Mono.<Void>create(sink -> {
+						final Waiter waiter = new Waiter(target, sink);
+						this.waiters.add(waiter);
+						sink.onDispose(() -> this.waiters.remove(waiter));
+						release();
+						this.wakeups.next(true);
+					})
+					.timeout(this.readTimeout)
+					.onErrorMap(TimeoutException.class, e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, FLUSH_TIMEOUT, e));
+		});
+	}
+
+	private synchronized Long lastPendingSeq() {
+		return this.pending.isEmpty() ? null : this.lastSeq;
+	}
+
+	/**
+	 * Appends one entry, durable once synced. The entry is written first and the wrap
+	 * marker leading to it last, so a torn wrap is dropped like any torn append.
+	 */
+	private synchronized Entry append(Todo todo, Document payload) {
+		final ByteBuf raw = new RawBsonDocument(payload, this.codec).getByteBuffer();
+		final byte[] bytes = new byte[raw.remaining()];
+		raw.get(bytes);
+		final int start = start(ENTRY_HEADER + bytes.length);
+		final int end = start + ENTRY_HEADER + bytes.length;
+
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		final ByteBuffer view = this.buffer.duplicate();
+		view.position(start + ENTRY_HEADER);
+		view.put(bytes);
+		view.putInt(0);
+		this.buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+		this.buffer.putInt(start, bytes.length);
+		if (start != this.writeOffset)
+			this.buffer.putInt(this.writeOffset, WRAP);
+
+		final Entry entry = new Entry(++this.lastSeq, start, System.nanoTime(), todo, payload);
+		track(entry);
+		this.writeOffset = end;
+		return entry;
+	}
+
+	/**
+	 * Forces the journal to disk unless a force started after the entry was appended.
+	 * Appenders waiting while a force runs find their entries covered by it, or share
+	 * the next one, which covers everything appended until it starts.
+	 *
+	 * @param seq entry to make durable.
+	 * @return completion once the entry is on disk.
+	 */
+	private Mono<Void> sync(long seq) {
+		return Mono.<Void>fromRunnable(() -> {
+					synchronized (this.syncLock) {
+						if (this.syncedSeq >= seq)
+							return;
+						final long appended = appendedSeq();
+						this.buffer.force();
+						this.syncedSeq = appended;
+					}
+				})
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	private synchronized long appendedSeq() {
+		return this.lastSeq;
+	}
+
+	/**
+	 * Where an entry of the given size goes: at the write offset, or at the beginning of
+	 * the file when it does not fit before the end. Room for the zero length ending the
+	 * journal is kept after it, and it never reaches the oldest pending entry.
+	 *
+	 * @return offset of the entry, 503 when the file has no room for it.
+	 */
+	private int start(int size) {
+		final Entry oldest = this.pending.peek();
+		final int capacity = this.buffer.capacity();
+		final boolean wrapped = oldest != null && oldest.start > this.writeOffset;
+		if (this.writeOffset + size + Integer.BYTES <= (wrapped ? oldest.start : capacity))
+			return this.writeOffset;
+		if (!wrapped && HEADER + size + Integer.BYTES <= (oldest == null ? capacity : oldest.start))
+			return HEADER;
+		throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, JOURNAL_FULL);
+	}
+
+	private void track(Entry entry) {
+		this.pending.add(entry);
+		this.pendingTodos.put(entry.todo.getId(), entry);
+		this.pendingOwners.put(entry.todo.getOwner(), entry.seq);
+	}
+
+	/**
+	 * Flushes batches until the journal is empty or a batch fails.
+	 */
+	private Mono<Void> drain() {
+		return flush()
+				.expand(flushed -> flushed && !this.pending.isEmpty() ? flush() : Mono.empty())
+				.then();
+	}
+
+	/**
+	 * One ordered bulk write of the oldest entries.
+	 *
+	 * @return true when entries were flushed, false when there were none or the write failed.
+	 */
+	private Mono<Boolean> flush() {
+		final List<Entry> batch = new ArrayList<>(this.maxBatch);
+		final Iterator<Entry> oldest = this.pending.iterator();
+		while (batch.size() < this.maxBatch && oldest.hasNext())
+			batch.add(oldest.next());
+		if (batch.isEmpty())
+			return Mono.just(false);
+
+		final List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+		batch.forEach(entry -> models.add(model(entry)));
+		return this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(Todo.class))
+				.flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(true))))
+				.flatMap(result -> skipUnmatched(batch, result.getMatchedCount()).thenReturn(batch.size()))
+				.onErrorResume(MongoBulkWriteException.class, e -> skipUnmatched(batch.subList(0, e.getWriteErrors().get(0).getIndex()),
+						e.getWriteResult().getMatchedCount()).then(skipFailed(batch, e)))
+				.flatMap(done -> flushed(batch.subList(0, done)))
+				.thenReturn(true)
+				.onErrorResume(e -> {
+					batch.forEach(entry -> entry.replayed = true);
+					log.warn("Flush of {} journal entries failed, retrying later: {}", batch.size(), e.getMessage());
+					return Mono.just(false);
+				});
+	}
+
+	/**
+	 * An ordered bulk stops at its first error. Entries before it were written.
+	 * An insert failing on a duplicate key was written before a crash; any other failed
+	 * entry can never be written and is dead-lettered.
+	 *
+	 * @return entries done, the failed one included.
+	 */
+	private Mono<Integer> skipFailed(List<Entry> batch, MongoBulkWriteException e) {
+		final BulkWriteError error = e.getWriteErrors().get(0);
+		final int done = error.getIndex() + 1;
+		final Entry failed = batch.get(error.getIndex());
+		failed.skipped = true;
+		if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY)
+			return Mono.just(done);
+		return deadLetter(failed, error.getCode(), error.getMessage()).thenReturn(done);
+	}
+
+	/**
+	 * An update matches nothing when it was written before or when its todo was removed
+	 * or changed since it was journaled. When fewer updates matched than were written,
+	 * the stored todos tell which ones were applied; the others are dead-lettered and
+	 * skipped, so they add no delta.
+	 *
+	 * @param written entries written by the bulk.
+	 * @param matched matched count of the bulk.
+	 */
+	private Mono<Void> skipUnmatched(List<Entry> written, long matched) {
+		final List<Entry> updates = written.stream()
+				.filter(entry -> UPDATE.equals(entry.payload.getString(OP)))
+				.collect(Collectors.toList());
+		if (matched >= updates.size())
+			return Mono.empty();
+		final Query query = new Query(Criteria.where(ID).in(updates.stream().map(entry -> entry.todo.get_id()).distinct().collect(Collectors.toList())));
+		query.fields().include(VERSION).include(LAST_MODIFIED_DATE);
+		return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(Todo.class))
+				.collectMap(document -> document.get(ID))
+				.flatMapMany(stored -> Flux.fromIterable(updates)
+						.filter(entry -> !applied(entry, stored.get(entry.todo.get_id()))))
+				.concatMap(entry -> {
+					entry.skipped = true;
+					return deadLetter(entry, null, UNMATCHED);
+				})
+				.then();
+	}
+
+	/**
+	 * An update was applied when the stored todo went past the version it writes, or is
+	 * at that version with the last modification date it writes.
+	 */
+	private static boolean applied(Entry entry, @Nullable Document stored) {
+		if (stored == null || !(stored.get(VERSION) instanceof Number))
+			return false;
+		final long version = ((Number) stored.get(VERSION)).longValue();
+		final Object modified = entry.payload.get(SET, Document.class).get(LAST_MODIFIED_DATE);
+		return version > entry.todo.get__v()
+				|| version == entry.todo.get__v() && (modified == null || modified.equals(stored.get(LAST_MODIFIED_DATE)));
+	}
+
+	/**
+	 * Moves an entry that can never be written to the dead letters. When the dead letter
+	 * can't be written either, the flush fails and the entry stays in the journal.
+	 */
+	private Mono<Void> deadLetter(Entry entry, @Nullable Integer code, String message) {
+		log.error("Dead-lettering journal entry of todo {}: {}", entry.todo.getId(), message);
+		return this.mongoTemplate.getCollection(DEAD_LETTERS)
+				.flatMap(collection -> Mono.from(collection.insertOne(new Document(TODO, entry.todo.get_id())
+						.append(QueryPlan.OWNER, entry.todo.getOwner())
+						.append("code", code)
+						.append("message", message)
+						.append("failedAt", new Date())
+						.append("entry", entry.payload))))
+				.doOnSuccess(result -> this.deadLetters.increment())
+				.then();
+	}
+
+	/**
+	 * Adds the summed deltas of each owner as one <i>$inc</i>, or recounts owners with
+	 * entries that may have been written before, then checkpoints. A failure leaves the
+	 * entries pending for the next flush.
+	 */
+	private Mono<Void> flushed(List<Entry> done) {
+		if (done.isEmpty())
+			return Mono.empty();
+		final Entry last = done.get(done.size() - 1);
+		final Map<String, long[]> deltas = new LinkedHashMap<>();
+		final Set<String> recounts = new LinkedHashSet<>();
+		done.forEach(entry -> {
+			final String owner = entry.todo.getOwner();
+			final long[] delta = deltas.computeIfAbsent(owner, key -> new long[3]);
+			if (entry.replayed)
+				recounts.add(owner);
+			else if (!entry.skipped)
+				add(entry, delta);
+		});
+		return Flux.fromIterable(deltas.entrySet())
+				.concatMap(delta -> recounts.contains(delta.getKey()) ? this.summaries.recount(delta.getKey())
+						: this.summaries.add(delta.getKey(), delta.getValue()[0], delta.getValue()[1], delta.getValue()[2]))
+				.then(Mono.fromRunnable(() -> {
+					checkpoint(last);
+					deltas.keySet().forEach(this.reads::invalidate);
+				}))
+				.doFinally(signal -> release())
+				.then();
+	}
+
+	/**
+	 * Adds the change of one entry to its owner's total, open and done deltas.
+	 */
+	private static void add(Entry entry, long[] delta) {
+		final boolean done = Boolean.TRUE.equals(entry.todo.getDone());
+		if (INSERT.equals(entry.payload.getString(OP))) {
+			delta[0]++;
+			delta[done ? 2 : 1]++;
+		} else if (entry.payload.getBoolean(WAS_DONE, false) != done) {
+			delta[done ? 2 : 1]++;
+			delta[done ? 1 : 2]--;
+		}
+	}
+
+	/**
+	 * Records flushed entries, moving the flushed offset to the oldest pending one,
+	 * and starts the file over once nothing is pending.
+	 */
+	private synchronized void checkpoint(Entry last) {
+		while (!this.pending.isEmpty() && this.pending.peek().seq <= last.seq)
+			this.pending.poll();
+		this.pendingTodos.values().removeIf(entry -> entry.seq <= last.seq);
+		this.pendingOwners.values().removeIf(seq -> seq <= last.seq);
+		if (this.pending.isEmpty()) {
+			this.buffer.putInt(HEADER, 0);
+			this.buffer.putLong(0, HEADER);
+			this.writeOffset = HEADER;
+		} else {
+			this.buffer.putLong(0, this.pending.peek().start);
+		}
+		this.buffer.force();
+		this.flushedSeq = last.seq;
+	}
+
+	/**
+	 * Completes the barriers whose entries are flushed.
+	 */
+	private void release() {
+		this.waiters.removeIf(waiter -> {
+			if (waiter.seq > this.flushedSeq)
+				return false;
+			waiter.sink.success();
+			return true;
+		});
+	}
+
+	/**
+	 * Updates match the version they were applied over and set the version they produce,
+	 * so an update written again after a crash or a failed flush matches nothing.
+	 */
+	private WriteModel<Document> model(Entry entry) {
+		if (INSERT.equals(entry.payload.getString(OP)))
+			return new InsertOneModel<>(entry.payload.get(TODO, Document.class));
+		return new UpdateOneModel<>(
+				new Document(ID, entry.todo.get_id()).append(QueryPlan.OWNER, entry.todo.getOwner())
+						.append(QueryPlan.DELETED, false).append(VERSION, entry.payload.get(EXPECTED)),
+				new Document("$set", entry.payload.get(SET, Document.class)));
+	}
+
+	private void open(Path path, int size) {
+		try {
+			if (path.getParent() != null)
+				Files.createDirectories(path.getParent());
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			final int capacity = (int) Math.max(size, this.channel.size());
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Write-behind journal " + path + " could not be opened", e);
+		}
+	}
+
+	/**
+	 * Reads back the entries after the flushed offset, following the wrap marker once,
+	 * up to the first missing or corrupt one.
+	 */
+	private void recover() {
+		long flushed = this.buffer.getLong(0);
+		if (flushed < HEADER || flushed > this.buffer.capacity() - Integer.BYTES)
+			flushed = HEADER;
+		int offset = (int) flushed;
+		boolean wrapped = false;
+		while (offset + Integer.BYTES <= this.buffer.capacity() && !(wrapped && offset >= flushed)) {
+			final int length = this.buffer.getInt(offset);
+			if (length == WRAP && !wrapped) {
+				wrapped = true;
+				offset = HEADER;
+				continue;
+			}
+			if (length <= 0 || offset + ENTRY_HEADER + length > (wrapped ? flushed : this.buffer.capacity()))
+				break;
+			final byte[] bytes = new byte[length];
+			final ByteBuffer view = this.buffer.duplicate();
+			view.position(offset + ENTRY_HEADER);
+			view.get(bytes);
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			if ((int) crc.getValue() != this.buffer.getInt(offset + Integer.BYTES)) {
+				log.warn("Write-behind journal ends with a corrupt entry at {}, dropping it", offset);
+				break;
+			}
+			final Document payload = new RawBsonDocument(bytes).decode(this.codec);
+			final Todo todo = this.mongoTemplate.getConverter().read(Todo.class, payload.get(TODO, Document.class));
+			final int start = offset;
+			offset += ENTRY_HEADER + length;
+			final Entry entry = new Entry(++this.lastSeq, start, System.nanoTime(), todo, payload);
+			entry.replayed = true;
+			track(entry);
+		}
+		this.writeOffset = offset;
+		if (this.writeOffset + Integer.BYTES <= this.buffer.capacity())
+			this.buffer.putInt(this.writeOffset, 0);
+		this.buffer.putLong(0, flushed);
+		this.buffer.force();
+		if (!this.pending.isEmpty())
+			log.info("Write-behind journal recovered {} unflushed entries", this.pending.size());
+	}
+
+	private Document document(Todo todo) {
+		final Document document = new Document();
+		this.mongoTemplate.getConverter().write(todo, document);
+		return document;
+	}
+
+	private Todo copy(Todo todo) {
+		return this.mongoTemplate.getConverter().read(Todo.class, document(todo));
+	}
+
+	private synchronized double lagBytes() {
+		final Entry oldest = this.pending.peek();
+		if (oldest == null)
+			return 0;
+		return oldest.start < this.writeOffset ? this.writeOffset - oldest.start
+				: this.buffer.capacity() - oldest.start + this.writeOffset - HEADER;
+	}
+
+	private double lagSeconds() {
+		final Entry oldest = this.pending.peek();
+		return oldest == null ? 0 : (System.nanoTime() - oldest.appended) / 1e9;
+	}
+
+	/**
+	 * Stops the flusher. Entries still pending stay in the journal for the next start.
+	 */
+	@Override
+	public void destroy() throws IOException {
+		this.flusher.dispose();
+		if (this.channel != null)
+			this.channel.close();
+	}
+
+	@RequiredArgsConstructor
+	private static class Entry {
+
+		private final long seq;
+
+		/**
+		 * Offset of the entry.
+		 */
+		private final int start;
+
+		/**
+		 * {@link System#nanoTime()} of the append.
+		 */
+		private final long appended;
+
+		/**
+		 * Todo as it is once the entry is flushed.
+		 */
+		private final Todo todo;
+
+		private final Document payload;
+
+		/**
+		 * May have been written before: recovered or part of a failed flush.
+		 */
+		private volatile boolean replayed;
+
+		/**
+		 * Failed in its bulk write, so it changed nothing.
+		 */
+		private volatile boolean skipped;
+
+	}
+
+	@AllArgsConstructor
+	private static class Waiter {
+
+		private final long seq;
+		private final MonoSink<Void> sink;
+
+	}
+
+}
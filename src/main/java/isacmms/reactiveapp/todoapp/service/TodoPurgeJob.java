@@ -0,0 +1,97 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Getter;
+
+/**
+ * Progress of an asynchronous purge started by {@link TodoPurgeService}.
+ * Updated by the running job and read concurrently by status requests.
+ * 
+ * @author isacm
+ *
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoPurgeJob {
+
+	public enum Status { RUNNING, COMPLETED, CANCELLED, FAILED }
+	
+	private final String id;
+	
+	/**
+	 * Owner whose todos are purged. <i>null</i> purges every todo.
+	 */
+	private final String owner;
+	
+	private final Instant startedAt = Instant.now();
+	
+	private volatile Status status = Status.RUNNING;
+	
+	private volatile boolean cancelRequested;
+	
+	private volatile Instant finishedAt;
+	
+	private volatile String error;
+	
+	@Getter(lombok.AccessLevel.NONE)
+	private final AtomicLong deleted = new AtomicLong();
+	
+	@Getter(lombok.AccessLevel.NONE)
+	private final AtomicLong chunks = new AtomicLong();
+	
+	TodoPurgeJob(String id, String owner) {
+		this.id = id;
+		this.owner = owner;
+	}
+	
+	/**
+	 * Todos deleted so far.
+	 */
+	public long getDeleted() {
+		return this.deleted.get();
+	}
+	
+	/**
+	 * Chunks deleted so far.
+	 */
+	public long getChunks() {
+		return this.chunks.get();
+	}
+	
+	@JsonIgnore
+	public boolean isFinished() {
+		return this.status != Status.RUNNING;
+	}
+	
+	/**
+	 * Asks the job to stop after its current chunk.
+	 */
+	void cancel() {
+		this.cancelRequested = true;
+	}
+	
+	void chunkDeleted(long count) {
+		this.deleted.addAndGet(count);
+		this.chunks.incrementAndGet();
+	}
+	
+	void completed() {
+		finish(this.cancelRequested ? Status.CANCELLED : Status.COMPLETED);
+	}
+	
+	void failed(Throwable e) {
+		this.error = e.getMessage();
+		finish(Status.FAILED);
+	}
+	
+	private void finish(Status status) {
+		this.finishedAt = Instant.now();
+		this.status = status;
+	}
+	
+}
@@ -0,0 +1,152 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs purges as server side jobs, deleting todos in <i>_id</i> ordered chunks.
+ * Each chunk is one query reading the next chunk's ids and one deleteMany over
+ * that id range, so a purge costs two round trips per chunk instead of two per todo.
+ * A pause between chunks limits the load put on the database. The todos collection
+ * is purged first and the archive after it.
+ * <p>Summaries of the owners found in a chunk are recounted and their reads invalidated
+ * after the chunk is deleted, so counters and ETags follow the purge as it progresses.
+ * Jobs are kept in memory; finished jobs are forgotten when a new job starts
+ * after they have been finished for longer than the retention.</p>
+ * 
+ * @author isacm
+ *
+ */
+@Log4j2
+@Service
+public class TodoPurgeService {
+
+	private final TodoRepository repository;
+	private final String collectionName;
+	private final TodoSummaryService summaries;
+	private final TodoReadCache reads;
+	private final ChunkedRunner chunks;
+	private final Duration retention;
+	private final Map<String, TodoPurgeJob> jobs = new ConcurrentHashMap<>();
+	
+	/**
+	 * 
+	 * @param mongoTemplate
+	 * @param repository
+	 * @param summaries counters recounted for the owners of each chunk.
+	 * @param reads owner scoped read cache, invalidated for the owners of each chunk.
+	 * @param chunkSize todos deleted by each deleteMany.
+	 * @param chunkDelay pause between chunks.
+	 * @param retention time finished jobs can still be queried.
+	 */
+	public TodoPurgeService(ReactiveMongoTemplate mongoTemplate, TodoRepository repository, TodoSummaryService summaries, TodoReadCache reads,
+			@Value("${todo.purge.chunk-size:1000}") int chunkSize,
+			@Value("${todo.purge.chunk-delay:100ms}") Duration chunkDelay,
+			@Value("${todo.purge.retention:1h}") Duration retention) {
+		this.repository = repository;
+		this.collectionName = mongoTemplate.getCollectionName(Todo.class);
+		this.summaries = summaries;
+		this.reads = reads;
+		this.chunks = new ChunkedRunner(chunkSize, chunkDelay);
+		this.retention = retention;
+	}
+	
+	/**
+	 * Starts a purge in background. The job is not bound to the caller's subscription.
+	 * 
+	 * @param owner whose todos are purged. <i>null</i> purges every todo.
+	 * @return started job.
+	 */
+	public TodoPurgeJob start(@Nullable String owner) {
+		log.debug("> TodoPurgeService.start()");
+		forgetFinished();
+		final TodoPurgeJob job = new TodoPurgeJob(UUID.randomUUID().toString(), owner);
+		this.jobs.put(job.getId(), job);
+		run(job).subscribe(
+				null,
+				e -> {
+					log.warn("Purge {} failed after {} todos: {}", job.getId(), job.getDeleted(), e.getMessage());
+					job.failed(e);
+				},
+				() -> {
+					log.info("Purge {} {} after {} todos", job.getId(), job.isCancelRequested() ? "cancelled" : "completed", job.getDeleted());
+					job.completed();
+				});
+		return job;
+	}
+	
+	public Optional<TodoPurgeJob> find(String id) {
+		return Optional.ofNullable(this.jobs.get(id));
+	}
+	
+	/**
+	 * Stops the job after its current chunk. Finished jobs are left as they are.
+	 * 
+	 * @param id
+	 * @return job or empty when not found.
+	 */
+	public Optional<TodoPurgeJob> cancel(String id) {
+		log.debug("> TodoPurgeService.cancel()");
+		return find(id).map(job -> {
+			job.cancel();
+			return job;
+		});
+	}
+	
+	Mono<Void> run(TodoPurgeJob job) {
+		return Flux.just(this.collectionName, TodoArchiver.COLLECTION)
+				.concatMap(collection -> this.chunks.<Todo>run(
+						(after, limit) -> this.repository.findIdRange(collection, job.getOwner(), id(after), limit),
+						(after, todos) -> delete(collection, job, id(after), todos),
+						job::isCancelRequested))
+				.then();
+	}
+	
+	/**
+	 * Deletes the id range of the chunk read after <i>after</i>.
+	 */
+	private Mono<Void> delete(String collection, TodoPurgeJob job, @Nullable ObjectId after, List<Todo> todos) {
+		return this.repository.deleteIdRange(collection, job.getOwner(), after, todos.get(todos.size() - 1).get_id())
+				.doOnNext(result -> job.chunkDeleted(result.getDeletedCount()))
+				.thenMany(Flux.fromIterable(owners(todos))
+						.concatMap(owner -> this.summaries.recount(owner)
+								.doOnSuccess(v -> this.reads.invalidate(owner))))
+				.then();
+	}
+	
+	private static ObjectId id(@Nullable Todo todo) {
+		return todo == null ? null : todo.get_id();
+	}
+	
+	private static List<String> owners(List<Todo> todos) {
+		return todos.stream()
+				.map(Todo::getOwner)
+				.filter(Objects::nonNull)
+				.distinct()
+				.collect(Collectors.toList());
+	}
+	
+	private void forgetFinished() {
+		final Instant limit = Instant.now().minus(this.retention);
+		this.jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(limit));
+	}
+	
+}
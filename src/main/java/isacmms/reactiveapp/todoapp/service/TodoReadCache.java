@@ -0,0 +1,174 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * In process read-through cache of owner scoped reads.
+ * <p>Entries are keyed by owner, the owner's generation and the normalized query.
+ * Writes bump the owner's generation instead of searching for its entries,
+ * so invalidation is O(1) and the orphaned entries age out through size and TTL eviction.
+ * A read racing a write stores its result under the old generation, where it is never read again.
+ * Generations come from one counter shared by all owners and are forgotten once unused
+ * for the TTL, so an owner seen again never gets back a generation its old entries used.</p>
+ * <p>Listings stream from the database as they are read and are only cached once complete,
+ * when they hold at most <i>max-list-size</i> todos. Longer listings and cancelled ones are not cached.</p>
+ * <p>Weight is counted in todos, an entry weighs the size of its list or 1.
+ * Hit and miss counters are published as <i>cache.gets</i> tagged <i>cache=todo.reads</i>
+ * and the hit ratio as <i>todo.reads.hit.ratio</i>.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoReadCache {
+
+	static final String CACHE_NAME = "todo.reads";
+
+	private final boolean enabled;
+	private final int maxListSize;
+	private final Cache<Key, Object> cache;
+	private final Cache<String, Long> generations;
+	private final AtomicLong lastGeneration = new AtomicLong();
+
+	/**
+	 *
+	 * @param registry where hit/miss counters and the hit ratio are bound.
+	 * @param enabled <i>false</i> reads straight from the database.
+	 * @param ttl time entries live after being written.
+	 * @param maxWeight max number of cached todos, summed over all entries, and of owners with a generation.
+	 * @param maxListSize longest listing cached.
+	 */
+	public TodoReadCache(MeterRegistry registry,
+			@Value("${todo.cache.enabled:true}") boolean enabled,
+			@Value("${todo.cache.ttl:30s}") Duration ttl,
+			@Value("${todo.cache.max-weight:100000}") long maxWeight,
+			@Value("${todo.cache.max-list-size:1000}") int maxListSize) {
+		this.enabled = enabled;
+		this.maxListSize = maxListSize;
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(maxWeight)
+				.weigher((Key key, Object value) -> value instanceof List ? Math.max(1, ((List<?>) value).size()) : 1)
+				.expireAfterWrite(ttl)
+				.recordStats()
+				.build();
+		this.generations = Caffeine.newBuilder()
+				.maximumSize(maxWeight)
+				.expireAfterAccess(ttl)
+				.build();
+		CaffeineCacheMetrics.monitor(registry, this.cache, CACHE_NAME);
+		Gauge.builder(CACHE_NAME + ".hit.ratio", this.cache, cache -> cache.stats().hitRate())
+				.register(registry);
+	}
+
+	/**
+	 * Cached owner scoped listing. On a miss, todos are emitted as they are loaded
+	 * and kept aside until the listing completes or outgrows <i>maxListSize</i>.
+	 *
+	 * @param owner
+	 * @param query normalized query parameters, compared by equality.
+	 * @param loader database read on a miss.
+	 * @return cached or loaded todos.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Flux<T> list(String owner, Object query, Supplier<Flux<T>> loader) {
+		if (!this.enabled)
+			return loader.get();
+		return Flux.defer(() -> {
+			final Key key = key(owner, query);
+			final Object cached = this.cache.getIfPresent(key);
+			if (cached != null)
+				return Flux.fromIterable((List<T>) cached);
+			final List<T> todos = new ArrayList<>();
+			final AtomicBoolean overflown = new AtomicBoolean();
+			return loader.get()
+					.doOnNext(todo -> {
+						if (overflown.get())
+							return;
+						if (todos.size() < this.maxListSize) {
+							todos.add(todo);
+						} else {
+							overflown.set(true);
+							todos.clear();
+						}
+					})
+					.doOnComplete(() -> {
+						if (!overflown.get())
+							this.cache.put(key, todos);
+					});
+		});
+	}
+
+	/**
+	 * Cached owner scoped single value. Empty results are not cached.
+	 *
+	 * @param owner
+	 * @param query normalized query parameters, compared by equality.
+	 * @param loader database read on a miss.
+	 * @return cached or loaded value.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Mono<T> one(String owner, Object query, Supplier<Mono<T>> loader) {
+		if (!this.enabled)
+			return loader.get();
+		return Mono.defer(() -> {
+			final Key key = key(owner, query);
+			final Object cached = this.cache.getIfPresent(key);
+			if (cached != null)
+				return Mono.just((T) cached);
+			return loader.get()
+					.doOnNext(value -> this.cache.put(key, value));
+		});
+	}
+
+	/**
+	 * Invalidates every entry of the owner.
+	 *
+	 * @param owner
+	 */
+	void invalidate(String owner) {
+		log.debug("> TodoReadCache.invalidate()");
+		this.generations.put(owner, this.lastGeneration.incrementAndGet());
+	}
+
+	/**
+	 * Cache statistics, including hit and miss counts.
+	 *
+	 * @return snapshot of the statistics.
+	 */
+	public CacheStats stats() {
+		return this.cache.stats();
+	}
+
+	private Key key(String owner, Object query) {
+		return new Key(owner, this.generations.get(owner, o -> this.lastGeneration.incrementAndGet()), query);
+	}
+
+	@Data
+	private static class Key {
+		private final String owner;
+		private final long generation;
+		private final Object query;
+	}
+
+}
@@ -1,5 +1,6 @@
 package isacmms.reactiveapp.todoapp.service;
 
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -11,7 +12,11 @@ import reactor.core.publisher.Mono;
 public interface TodoRepository extends ReactiveMongoRepository<Todo, String>, CustomReactiveMongoRepository {
 	
 	//public Mono<Todo> findById(ObjectId id);
+	@Query("{ '_id': ?0, 'deleted': false }")
+	public Mono<Todo> findById(String id);
+	@Query("{ 'owner': ?0, 'deleted': false }")
 	public Flux<Todo> findByOwner(String owner);
+	@Query("{ '_id': ?0, 'owner': ?1, 'deleted': false }")
 	public Mono<Todo> findBy_idInAndOwner(String id, String owner);
 	
 }
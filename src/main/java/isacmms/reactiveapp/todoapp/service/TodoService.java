@@ -1,20 +1,33 @@
 package isacmms.reactiveapp.todoapp.service;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.domain.Sort.Direction;
-import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
+import isacmms.reactiveapp.todoapp.api.event.TodoBatchCreatedEvent;
 import isacmms.reactiveapp.todoapp.api.event.TodoCreatedEvent;
+import isacmms.reactiveapp.todoapp.api.event.TodosChangedEvent;
 import isacmms.reactiveapp.todoapp.model.Todo;
-import isacmms.reactiveapp.todoapp.util.ObjectFields;
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
 import lombok.extern.log4j.Log4j2;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -23,33 +36,186 @@ import reactor.core.publisher.Mono;
 @Service
 public class TodoService implements AdminTodoService, UserTodoService {
 	
+	private static final String DESCRIPTION = "description";
+	private static final String DESCRIPTION_FOLDED = "descriptionFolded";
+	private static final String DONE = "done";
+	private static final String LAST_MODIFIED_DATE = "lastModifiedDate";
+	private static final String LAST_MODIFIED_BY = "lastModifiedBy";
+	private static final String VERSION = "__v";
+	private static final String FIELD_VERSIONS = "fieldVersions";
+	private static final Set<String> EDITABLE_FIELDS = Set.of(DESCRIPTION, DONE);
+	
+	/**
+	 * Versão de campo das escritas que não partem de uma versão conhecida, para que
+	 * sempre contem como alteração para patches baseados em uma versão anterior.
+	 */
+	private static final long UNKNOWN_VERSION = Long.MAX_VALUE;
+	private static final String BATCH_INSERT_FAILED = "Todo not created: its batch failed to insert.";
+	private static final String EMPTY_PATCH = "Patch must set description or done.";
+	private static final String VERSION_MISMATCH = "Todo was modified since the version in If-Match.";
+	
 	private final ApplicationEventPublisher publisher;
 	private final TodoRepository repository;
+	private final QueryPlanCache plans;
+	private final TodoSummaryService summaries;
+	private final TodoReadCache reads;
+	private final TodoPurgeService purges;
+	private final TodoWriteCoalescer inserts;
+	private final TodoIdempotencyStore idempotency;
+	private final TodoJournal journal;
+	private final int defaultLimit;
+	private final int maxLimit;
+	private final int batchSize;
+	private final int patchRetries;
 	
-	public TodoService(ApplicationEventPublisher publisher, TodoRepository repository) {
+	/**
+	 * 
+	 * @param publisher
+	 * @param repository
+	 * @param plans compiled query plans cache.
+	 * @param summaries per owner counters kept current by every write.
+	 * @param reads owner scoped read cache, invalidated by every write.
+	 * @param purges chunked purge jobs.
+	 * @param inserts insert path of new todos, coalesced into bulk writes when enabled.
+	 * @param idempotency keys of creates already done, replayed instead of inserting again.
+	 * @param journal write-behind journal of creates and patches, when enabled.
+	 * @param defaultLimit page size used when a paginated request does not specify one.
+	 * @param maxLimit greatest page size allowed. Bigger requested sizes are reduced to it.
+	 * @param batchSize todos inserted by each insertMany of a bulk creation.
+	 * @param patchRetries times a patch with an outdated <i>If-Match</i> is retried over
+	 * the current version when its fields did not change since. 0 answers 412 right away.
+	 */
+	public TodoService(ApplicationEventPublisher publisher, TodoRepository repository, QueryPlanCache plans,
+			TodoSummaryService summaries, TodoReadCache reads, TodoPurgeService purges, TodoWriteCoalescer inserts,
+			TodoIdempotencyStore idempotency, TodoJournal journal,
+			@Value("${todo.pagination.default-limit:50}") int defaultLimit,
+			@Value("${todo.pagination.max-limit:500}") int maxLimit,
+			@Value("${todo.batch.size:500}") int batchSize,
+			@Value("${todo.concurrency.patch-retries:2}") int patchRetries) {
 		this.publisher = publisher;
 		this.repository = repository;
+		this.plans = plans;
+		this.summaries = summaries;
+		this.reads = reads;
+		this.purges = purges;
+		this.inserts = inserts;
+		this.idempotency = idempotency;
+		this.journal = journal;
+		this.defaultLimit = defaultLimit;
+		this.maxLimit = maxLimit;
+		this.batchSize = batchSize;
+		this.patchRetries = patchRetries;
 	}
 	
 	/**
 	 * Busca todos os registros usando regex que um usuário possui.
-	 * Username será incluído como regex para owner de Todo.
+	 * Username será incluído como igualdade para owner de Todo.
 	 * 
 	 * @param owner para restringir a busca.
 	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
 	 * Campos não existentes serão ignorados.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
 	 * @param sortProperties
 	 * @return todos os registros encontrados.
 	 */
 	@Override
-	public Flux<Todo> findAll(String owner, Map<String, String> rxs, String... sortProperties) {
+	public Flux<Todo> findAll(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
 		log.debug("> TodoService.findAll(username, regexs, ...sortProperties)");
 		
 		log.debug("Expressions: ");
 		rxs.forEach(log::debug);
 		
-		rxs.put("owner", owner);
-		return this.repository.findByRegex(rxs, sort(sortProperties));
+		return this.journal.barrier(owner).thenMany(this.reads.list(owner, 
+				List.of("all", new TreeMap<>(rxs), new TreeMap<>(filters), new TreeSet<>(fields), List.of(sortProperties)), 
+				() -> this.repository.findByPlan(this.plans.plan(rxs, filters, sortProperties), owner, fields)));
+	}
+	
+	/**
+	 * O mesmo que findAll, mas retorna os documentos como lidos do banco,
+	 * sem mapeá-los para Todo e sem passar pelo cache, direto do cursor para a resposta.
+	 * 
+	 * @param owner para restringir a busca.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param sortProperties
+	 * @return documentos BSON dos registros encontrados.
+	 */
+	@Override
+	public Flux<RawBsonDocument> findAllRaw(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
+		log.debug("> TodoService.findAllRaw()");
+		return this.journal.barrier(owner).thenMany(
+				this.repository.findRawByPlan(this.plans.plan(rxs, filters, sortProperties), owner, fields));
+	}
+	
+	/**
+	 * Busca paginada (keyset) dos registros de um usuário usando regex.
+	 * 
+	 * @param owner para restringir a busca.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param page tamanho da página e cursor da página anterior.
+	 * @param sortProperties
+	 * @return página encontrada com o cursor da próxima página.
+	 */
+	@Override
+	public Mono<CursorPage<Todo>> findPage(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties) {
+		log.debug("> TodoService.findPage()");
+		final int limit = limit(page);
+		return this.journal.barrier(owner).then(this.reads.one(owner, 
+				Arrays.asList("page", new TreeMap<>(rxs), new TreeMap<>(filters), new TreeSet<>(fields), List.of(sortProperties), page.getAfter(), limit), 
+				() -> this.repository.findPageByPlan(this.plans.plan(rxs, filters, sortProperties), owner, fields, page.getAfter(), limit)));
+	}
+	
+	/**
+	 * O mesmo que findAll, incluindo os registros arquivados, intercalados na mesma ordenação.
+	 * 
+	 * @param owner para restringir a busca.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param sortProperties
+	 * @return registros ativos e arquivados encontrados.
+	 */
+	@Override
+	public Flux<Todo> findAllWithArchive(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
+		log.debug("> TodoService.findAllWithArchive()");
+		return this.journal.barrier(owner).thenMany(
+				Flux.defer(() -> this.repository.findWithArchiveByPlan(this.plans.plan(rxs, filters, sortProperties), owner, fields)));
+	}
+	
+	/**
+	 * O mesmo que findPage, incluindo os registros arquivados, intercalados na mesma ordenação.
+	 * 
+	 * @param owner para restringir a busca.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param page tamanho da página e cursor da página anterior.
+	 * @param sortProperties
+	 * @return página encontrada com o cursor da próxima página.
+	 */
+	@Override
+	public Mono<CursorPage<Todo>> findPageWithArchive(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties) {
+		log.debug("> TodoService.findPageWithArchive()");
+		return this.journal.barrier(owner).then(
+				Mono.defer(() -> this.repository.findPageWithArchiveByPlan(this.plans.plan(rxs, filters, sortProperties), owner, fields, page.getAfter(), limit(page))));
+	}
+	
+	/**
+	 * Busca textual por relevância nas descrições dos registros de um usuário.
+	 * 
+	 * @param owner para restringir a busca.
+	 * @param text termos da busca.
+	 * @param page tamanho da página e cursor da página anterior.
+	 * @return página ordenada por relevância com o cursor da próxima página.
+	 */
+	@Override
+	public Mono<CursorPage<Todo>> search(String owner, String text, CursorRequest page) {
+		log.debug("> TodoService.search()");
+		return this.journal.barrier(owner).then(this.repository.searchPage(owner, text, page.getAfter(), limit(page)));
 	}
 	
 	/**
@@ -63,7 +229,7 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	@Override
 	public Flux<Todo> findAllIgnoreOwnership(String... sortProperties) {
 		log.debug("> TodoService.findAllIgnoreOwnership(String... sortProperties)");
-		return this.findAllIgnoreOwnership(new HashMap<>(), sortProperties);
+		return this.findAllIgnoreOwnership(new HashMap<>(), new HashMap<>(), Set.of(), sortProperties);
 	}
 	
 	/**
@@ -71,21 +237,98 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	 * 
 	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
 	 * Campos não existentes serão ignorados.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
 	 * @param sortProperties
 	 * @return todos os registros encontrados.
 	 */
 	@Override
-	public Flux<Todo> findAllIgnoreOwnership(Map<String, String> rxs, String... sortProperties) {
+	public Flux<Todo> findAllIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
 		log.debug("> TodoService.findAllIgnoreOwnership(regexs, ...sortProperties)");
 		
 		log.debug("Expressions: ");
 		rxs.forEach(log::debug);
 		
-		return this.repository.findByRegex(rxs, sort(sortProperties));
+		return this.repository.findByPlan(this.plans.plan(rxs, filters, sortProperties), null, fields);
 	}
 	
 	/**
-	 * Busca de registro por id.
+	 * O mesmo que findAllIgnoreOwnership, mas retorna os documentos como lidos do banco,
+	 * sem mapeá-los para Todo.
+	 * 
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param sortProperties
+	 * @return documentos BSON dos registros encontrados.
+	 */
+	@Override
+	public Flux<RawBsonDocument> findAllRawIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
+		log.debug("> TodoService.findAllRawIgnoreOwnership()");
+		return this.repository.findRawByPlan(this.plans.plan(rxs, filters, sortProperties), null, fields);
+	}
+	
+	/**
+	 * Busca paginada (keyset) de todos os registros usando regex.
+	 * 
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param page tamanho da página e cursor da página anterior.
+	 * @param sortProperties
+	 * @return página encontrada com o cursor da próxima página.
+	 */
+	@Override
+	public Mono<CursorPage<Todo>> findPageIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties) {
+		log.debug("> TodoService.findPageIgnoreOwnership()");
+		return this.repository.findPageByPlan(this.plans.plan(rxs, filters, sortProperties), null, fields, page.getAfter(), limit(page));
+	}
+	
+	/**
+	 * O mesmo que findAllIgnoreOwnership, incluindo os registros arquivados.
+	 * 
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param sortProperties
+	 * @return registros ativos e arquivados encontrados.
+	 */
+	@Override
+	public Flux<Todo> findAllWithArchiveIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties) {
+		log.debug("> TodoService.findAllWithArchiveIgnoreOwnership()");
+		return this.repository.findWithArchiveByPlan(this.plans.plan(rxs, filters, sortProperties), null, fields);
+	}
+	
+	/**
+	 * O mesmo que findPageIgnoreOwnership, incluindo os registros arquivados.
+	 * 
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param fields campos retornados. Vazio retorna os documentos completos.
+	 * @param page tamanho da página e cursor da página anterior.
+	 * @param sortProperties
+	 * @return página encontrada com o cursor da próxima página.
+	 */
+	@Override
+	public Mono<CursorPage<Todo>> findPageWithArchiveIgnoreOwnership(Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties) {
+		log.debug("> TodoService.findPageWithArchiveIgnoreOwnership()");
+		return this.repository.findPageWithArchiveByPlan(this.plans.plan(rxs, filters, sortProperties), null, fields, page.getAfter(), limit(page));
+	}
+	
+	/**
+	 * Contadores (total, abertos e concluídos) dos registros de um usuário.
+	 * 
+	 * @param owner dono dos registros.
+	 * @return resumo mantido incrementalmente a cada escrita.
+	 */
+	@Override
+	public Mono<TodoSummary> summary(String owner) {
+		log.debug("> TodoService.summary()");
+		return this.journal.barrier(owner).then(this.reads.one(owner, List.of("summary"), () -> this.summaries.find(owner)));
+	}
+	
+	/**
+	 * Busca de registro por id. Registros arquivados também são encontrados.
 	 * 
 	 * @param id do registro a ser buscado.
 	 * @param owner para restringir a busca.
@@ -94,11 +337,12 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	@Override
 	public Mono<Todo> findById(String id, String owner) {
 		log.debug("> TodoService.findById()");
-		return this.repository.findBy_idInAndOwner(id, owner);
+		return this.journal.barrier(owner).then(this.reads.one(owner, List.of("id", id), () -> this.repository.findBy_idInAndOwner(id, owner)
+				.switchIfEmpty(Mono.defer(() -> this.repository.findArchivedById(id, owner)))));
 	}
 	
 	/**
-	 * Busca de registro por id.
+	 * Busca de registro por id. Registros arquivados também são encontrados.
 	 * 
 	 * @param id do registro a ser buscado.
 	 * @return registro encontrado.
@@ -106,7 +350,8 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	@Override
 	public Mono<Todo> findByIdIgnoreOwnership(String id) {
 		log.debug("> TodoService.findByIdIgnoreOwnership()");
-		return this.repository.findById(id);
+		return this.repository.findById(id)
+				.switchIfEmpty(Mono.defer(() -> this.repository.findArchivedById(id, null)));
 	}
 	
 	/**
@@ -122,6 +367,89 @@ public class TodoService implements AdminTodoService, UserTodoService {
 		log.debug("Owner: ");
 		log.debug(owner);
 		
+		final Todo prepared = prepare(todo, owner);
+        return (this.journal.isEnabled() ? 
+        		this.journal.insert(prepared) : this.inserts.insert(prepared).flatMap(this.summaries::created))
+            .doOnNext(this::evict)
+            .doOnSuccess(t -> this.publisher.publishEvent(new TodoCreatedEvent(t)));
+    }
+	
+	/**
+	 * Criação de novo registro uma única vez por chave de idempotência.
+	 * Repetições da requisição com a mesma chave recebem o registro criado pela primeira,
+	 * sem nova inserção; repetições concorrentes aguardam uma única inserção.
+	 * 
+	 * @param todo Objeto com campos e valores para inserção.
+	 * @param owner da entidade a ser criada.
+	 * @param idempotencyKey chave enviada pelo cliente (<i>Idempotency-Key</i>).
+	 * @return entidade <b>salva</b> no banco de dados, nesta ou na primeira requisição.
+	 */
+	@Override
+	public Mono<Todo> create(Todo todo, String owner, String idempotencyKey) {
+		log.debug("> TodoService.create() with Idempotency-Key");
+		return this.idempotency.execute(owner, idempotencyKey, todo, () -> create(todo, owner));
+	}
+	
+	/**
+	 * Criação de registros em lote. Os itens são agrupados em lotes de tamanho
+	 * configurado e cada lote é salvo com um único insertMany, seguido de um único
+	 * incremento dos contadores, uma invalidação do cache e um evento.
+	 * Itens já rejeitados passam adiante sem serem inseridos.
+	 * <p>Se um insertMany falhar todos os itens pendentes do lote são reportados como
+	 * falhos, mas os anteriores ao erro podem ter sido salvos; os contadores podem ser
+	 * corrigidos por {@link #rebuildSummaries()}.</p>
+	 * 
+	 * @param items itens na ordem da requisição, pendentes ou rejeitados.
+	 * @param owner dos registros criados.
+	 * @return resultado de cada item, na mesma ordem.
+	 */
+	@Override
+	public Flux<TodoBatchItem> createAll(Flux<TodoBatchItem> items, String owner) {
+		log.debug("> TodoService.createAll()");
+		return items
+			.buffer(this.batchSize)
+			.concatMap(batch -> insertBatch(batch, owner));
+	}
+	
+	private Flux<TodoBatchItem> insertBatch(List<TodoBatchItem> batch, String owner) {
+		final List<Todo> todos = batch.stream()
+				.filter(TodoBatchItem::isPending)
+				.map(item -> prepare(item.getTodo(), owner))
+				.collect(Collectors.toList());
+		if (todos.isEmpty())
+			return Flux.fromIterable(batch);
+		
+		return this.repository.insert(todos)
+			.collectList()
+			.flatMap(saved -> this.summaries.createdAll(owner, saved).thenReturn(saved))
+			.doOnNext(saved -> {
+				this.reads.invalidate(owner);
+				this.publisher.publishEvent(new TodoBatchCreatedEvent(saved));
+			})
+			.map(saved -> batch.stream()
+					.map(item -> item.isPending() ? item.created() : item)
+					.collect(Collectors.toList()))
+			.onErrorResume(e -> {
+				log.warn("Batch insert of {} todos failed: {}", todos.size(), e.getMessage());
+				this.reads.invalidate(owner);
+				return Mono.just(batch.stream()
+						.map(item -> item.isPending() 
+								? TodoBatchItem.failed(item.getIndex(), HttpStatus.INTERNAL_SERVER_ERROR.value(), BATCH_INSERT_FAILED) 
+								: item)
+						.collect(Collectors.toList()));
+			})
+			.flatMapIterable(results -> results);
+	}
+	
+	/**
+	 * Método auxiliar para preparar um novo registro: id gerado pelo banco,
+	 * done falso por padrão e o dono informado.
+	 * 
+	 * @param todo a ser criado.
+	 * @param owner da entidade a ser criada.
+	 * @return o mesmo todo, ainda <b>não salvo</b> no banco de dados.
+	 */
+	private static Todo prepare(Todo todo, String owner) {
 		if (todo.get_id() != null)
 			todo.set_id(null);
 		
@@ -129,10 +457,9 @@ public class TodoService implements AdminTodoService, UserTodoService {
 			todo.setDone(false);
 		
 		todo.setOwner(owner);
-		
-        return this.repository.save(todo)
-            .doOnSuccess(t -> this.publisher.publishEvent(new TodoCreatedEvent(t)));
-    }
+		todo.setFieldVersions(new HashMap<>());
+		return todo;
+	}
 	
 	/**
 	 * Atualização de registro por id.
@@ -141,24 +468,19 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	 * @param id do registro a ser atualizado.
 	 * @param dto com os campos e valores para atualização.
 	 * @param owner para restringir a atualização.
+	 * @param version versão esperada (<i>If-Match</i>). <i>null</i> atualiza qualquer versão.
 	 * @return entidade atualizada <b>salva</b> no banco de dados.
 	 */
 	@Override
-	public Mono<Todo> update(String id, Todo dto, String owner) {
+	public Mono<Todo> update(String id, Todo dto, String owner, @Nullable Long version) {
 		log.debug("> TodoService.update()");
-		return this.repository
-				.findBy_idInAndOwner(id, owner)
-				.flatMap(entity -> 
-						this.repository.save(updateData(entity, dto)));
+		return modify(id, owner, version, 0, updateOf(dto), entity -> updateData(entity, dto));
 	}
 	
 	@Override
-	public Mono<Todo> updateIgnoreOwnership(String id, Todo dto) {
+	public Mono<Todo> updateIgnoreOwnership(String id, Todo dto, @Nullable Long version) {
 		log.debug("> TodoService.updateIgnoreOwnership()");
-		return this.repository
-			.findById(id)
-			.flatMap(entity -> 
-					this.repository.save(updateData(entity, dto)));
+		return modify(id, null, version, 0, updateOf(dto), entity -> updateData(entity, dto));
 	}
 	
 	/**
@@ -176,6 +498,19 @@ public class TodoService implements AdminTodoService, UserTodoService {
 		return entity;
 	}
 	
+	/**
+	 * <i>$set</i> de todos os campos editáveis, equivalente a {@link #updateData(Todo, Todo)}.
+	 * 
+	 * @param obj com os campos para atualização.
+	 * @return update a ser aplicado no banco de dados.
+	 */
+	private static Update updateOf(Todo obj) {
+		return new Update()
+				.set(DESCRIPTION, obj.getDescription())
+				.set(DESCRIPTION_FOLDED, Todo.fold(obj.getDescription()))
+				.set(DONE, obj.getDone());
+	}
+	
 	/**
 	 * Atualização de registro por meio de patch.
 	 * Campos nulos serão <b>ignorados</b>
@@ -183,26 +518,24 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	 * @param id da entidade a ser atualizada.
 	 * @param dto com o campos para atualização da entidade.
 	 * @param owner para retringir a atualização.
+	 * @param version versão esperada (<i>If-Match</i>). <i>null</i> atualiza qualquer versão.
+	 * Com versão desatualizada o patch ainda é aplicado se nenhum dos seus campos mudou desde ela.
 	 * @return entidade atualizada.
 	 */
 	@Override
-	public Mono<Todo> patch(String id, Todo dto, String owner) {
+	public Mono<Todo> patch(String id, Todo dto, String owner, @Nullable Long version) {
 		log.debug("> TodoService.patch()");
 		log.debug(dto);
-		return this.repository
-			.findBy_idInAndOwner(id, owner)
-			.flatMap(entity ->
-					this.repository.save(patchData(entity, dto)));
+		if (this.journal.isEnabled() && version == null)
+			return journalPatch(id, owner, dto);
+		return modify(id, owner, version, this.patchRetries, patchOf(dto), entity -> patchData(entity, dto));
 	}
 	
 	@Override
-	public Mono<Todo> patchIgnoreOwnership(String id, Todo dto) {
+	public Mono<Todo> patchIgnoreOwnership(String id, Todo dto, @Nullable Long version) {
 		log.debug("> TodoService.patchIgnoreOwnership()");
 		log.debug(dto);
-		return this.repository
-			.findById(id)
-			.flatMap(entity ->
-					this.repository.save(patchData(entity, dto)));
+		return modify(id, null, version, this.patchRetries, patchOf(dto), entity -> patchData(entity, dto));
 	}
 	
 	/**
@@ -228,7 +561,234 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	}
 	
 	/**
-	 * Deleção de registro por id.
+	 * <i>$set</i> somente dos campos não nulos, equivalente a {@link #patchData(Todo, Todo)}.
+	 * 
+	 * @param obj com campos para atualização.
+	 * @return update a ser aplicado no banco de dados.
+	 */
+	private static Update patchOf(Todo obj) {
+		final Update update = new Update();
+		if (obj.getDescription() != null)
+			update.set(DESCRIPTION, obj.getDescription())
+				.set(DESCRIPTION_FOLDED, Todo.fold(obj.getDescription()));
+		if (obj.getDone() != null)
+			update.set(DONE, obj.getDone());
+		return update;
+	}
+	
+	/**
+	 * Patch de todos os registros de um usuário que atendem aos filtros,
+	 * em um único updateMany. Campos nulos serão <b>ignorados</b>.
+	 * Cada registro alterado tem sua versão incrementada e os campos de auditoria escritos.
+	 * Os contadores do usuário são recalculados, já que não se sabe quantos
+	 * registros mudaram de estado.
+	 * 
+	 * @param owner para restringir a atualização.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @param dto com o campos para atualização.
+	 * @return quantidade de registros encontrados e alterados.
+	 */
+	@Override
+	public Mono<TodoBulkResult> patchMatching(String owner, Map<String, String> rxs, Map<String, String> filters, Todo dto) {
+		log.debug("> TodoService.patchMatching()");
+		final Update update = patchOf(dto);
+		if (update.getUpdateObject().isEmpty())
+			return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, EMPTY_PATCH));
+		final QueryPlan plan = this.plans.plan(rxs, filters);
+		
+		return this.journal.exclusive(owner, auditor()
+				.map(Optional::of)
+				.defaultIfEmpty(Optional.empty())
+				.flatMap(auditor -> {
+					editedFields(update).forEach(field -> update.set(FIELD_VERSIONS + "." + field, UNKNOWN_VERSION));
+					update.set(LAST_MODIFIED_DATE, Instant.now()).inc(VERSION, 1);
+					auditor.ifPresent(name -> update.set(LAST_MODIFIED_BY, name));
+					return this.repository.updateByPlan(plan, owner, update);
+				}))
+			.map(result -> new TodoBulkResult(result.getMatchedCount(), result.getModifiedCount()))
+			.flatMap(result -> changedMatching(owner, TodosChangedEvent.Type.UPDATED, result));
+	}
+	
+	/**
+	 * Deleção lógica de todos os registros de um usuário que atendem aos filtros,
+	 * em um único updateMany. Os registros são removidos pelo {@link TodoTombstonePurger}.
+	 * 
+	 * @param owner para restringir a deleção.
+	 * @param rxs mapa<campo, regex> para ser utilizado na busca.
+	 * @param filters mapa<campo__operador, valor> de filtros tipados.
+	 * @return quantidade de registros deletados.
+	 */
+	@Override
+	public Mono<TodoBulkResult> deleteMatching(String owner, Map<String, String> rxs, Map<String, String> filters) {
+		log.debug("> TodoService.deleteMatching()");
+		return Mono.fromCallable(() -> this.plans.plan(rxs, filters))
+			.flatMap(plan -> this.journal.exclusive(owner, this.repository.tombstoneByPlan(plan, owner, Instant.now())))
+			.map(result -> new TodoBulkResult(result.getMatchedCount(), result.getModifiedCount()))
+			.flatMap(result -> changedMatching(owner, TodosChangedEvent.Type.DELETED, result));
+	}
+	
+	/**
+	 * Recalcula os contadores, invalida o cache e publica o evento de uma escrita em massa
+	 * que alterou algum registro.
+	 */
+	private Mono<TodoBulkResult> changedMatching(String owner, TodosChangedEvent.Type type, TodoBulkResult result) {
+		if (result.getModified() == 0)
+			return Mono.just(result);
+		return this.summaries.recount(owner)
+			.then(Mono.fromRunnable(() -> {
+				this.reads.invalidate(owner);
+				this.publisher.publishEvent(new TodosChangedEvent(owner, type, result.getModified()));
+			}))
+			.thenReturn(result);
+	}
+	
+	/**
+	 * Patch pelo journal de write-behind: o registro é lido (do journal, se houver
+	 * escritas pendentes, ou do banco), alterado em memória e a alteração é gravada
+	 * no journal. O banco é atualizado depois, pelo flusher do journal.
+	 * Os campos de auditoria são preenchidos pelo journal.
+	 * 
+	 * @param id do registro.
+	 * @param owner para restringir a atualização.
+	 * @param dto com o campos para atualização da entidade.
+	 * @return entidade atualizada, após a gravação no journal.
+	 */
+	private Mono<Todo> journalPatch(String id, String owner, Todo dto) {
+		final Update update = patchOf(dto);
+		final Set<String> fields = editedFields(update);
+		fields.forEach(field -> update.set(FIELD_VERSIONS + "." + field, UNKNOWN_VERSION));
+		return this.journal.pending(id)
+			.filter(todo -> owner.equals(todo.getOwner()))
+			.switchIfEmpty(Mono.defer(() -> this.repository.findBy_idInAndOwner(id, owner)))
+			.switchIfEmpty(Mono.defer(() -> restore(id, owner)))
+			.flatMap(current -> this.journal.update(current, previous -> {
+				final Todo todo = patchData(previous, dto);
+				todo.set__v(todo.get__v() == null ? 1L : todo.get__v() + 1);
+				if (todo.getFieldVersions() == null)
+					todo.setFieldVersions(new HashMap<>());
+				fields.forEach(field -> todo.getFieldVersions().put(field, UNKNOWN_VERSION));
+				return todo;
+			}, (org.bson.Document) update.getUpdateObject().get("$set")))
+			.doOnNext(this::evict);
+	}
+	
+	/**
+	 * Aplica o update em um único findAndModify com <i>_id</i> e owner no filtro,
+	 * sem leitura prévia. O registro anterior retornado pelo banco recebe as mesmas
+	 * alterações em memória, o que dá o estado salvo e o estado anterior para os contadores.
+	 * Campos de auditoria e versão são escritos no mesmo comando.
+	 * <p>Com versão esperada ela também entra no filtro. Se o registro existir em outra versão,
+	 * a escrita é repetida sobre a versão atual enquanto houver tentativas e nenhum dos campos
+	 * alterados tiver mudado desde a versão esperada; caso contrário falha com 412.</p>
+	 * 
+	 * @param id do registro.
+	 * @param owner para restringir a atualização. <i>null</i> ignora o dono.
+	 * @param version versão esperada. <i>null</i> ignora a versão.
+	 * @param retries tentativas sobre versões mais novas.
+	 * @param update alterações dos campos.
+	 * @param apply mesmas alterações aplicadas em memória.
+	 * @return entidade atualizada.
+	 */
+	private Mono<Todo> modify(String id, @Nullable String owner, @Nullable Long version, int retries, Update update, UnaryOperator<Todo> apply) {
+		final Instant now = Instant.now();
+		return this.journal.exclusive(owner, auditor()
+				.map(Optional::of)
+				.defaultIfEmpty(Optional.empty())
+				.flatMap(auditor -> {
+					update.set(LAST_MODIFIED_DATE, now);
+					auditor.ifPresent(name -> update.set(LAST_MODIFIED_BY, name));
+					return write(id, owner, version, retries, update)
+						.switchIfEmpty(Mono.defer(() -> restore(id, owner)
+								.flatMap(restored -> write(id, owner, version, retries, update))))
+						.flatMap(previous -> {
+							final boolean wasDone = Boolean.TRUE.equals(previous.getDone());
+							final Todo todo = apply.apply(previous);
+							todo.setLastModifiedDate(now);
+							auditor.ifPresent(todo::setLastModifiedBy);
+							todo.set__v(todo.get__v() == null ? 1L : todo.get__v() + 1);
+							return this.summaries.changed(todo, wasDone);
+						});
+				}))
+			.doOnNext(this::evict);
+	}
+	
+	/**
+	 * Devolve um registro arquivado à coleção de registros para que seja alterado,
+	 * voltando a ser contado no resumo do dono.
+	 * 
+	 * @return registro restaurado ou vazio se não estiver arquivado.
+	 */
+	private Mono<Todo> restore(String id, @Nullable String owner) {
+		return this.repository.restoreArchived(id, owner)
+			.flatMap(this.summaries::created);
+	}
+	
+	/**
+	 * Uma tentativa de escrita. A versão de cada campo alterado é registrada junto.
+	 * 
+	 * @return registro anterior à escrita.
+	 */
+	private Mono<Todo> write(String id, @Nullable String owner, @Nullable Long version, int retries, Update update) {
+		final Update stamped = Update.fromDocument(update.getUpdateObject());
+		final long written = version == null ? UNKNOWN_VERSION : version + 1;
+		editedFields(update).forEach(field -> stamped.set(FIELD_VERSIONS + "." + field, written));
+		return this.repository.findAndModify(id, owner, version, stamped)
+			.switchIfEmpty(Mono.defer(() -> version == null ? 
+					Mono.empty() : conflict(id, owner, version, retries, update)));
+	}
+	
+	/**
+	 * Trata uma escrita cuja versão esperada não foi encontrada: registro inexistente
+	 * (vazio), nova tentativa sobre a versão atual ou 412.
+	 */
+	private Mono<Todo> conflict(String id, @Nullable String owner, long version, int retries, Update update) {
+		return (owner == null ? this.repository.findById(id) : this.repository.findBy_idInAndOwner(id, owner))
+			.flatMap(current -> {
+				if (retries > 0 && unchangedSince(current, editedFields(update), version)) {
+					log.debug("Retrying write of {} over version {}", id, current.get__v());
+					return write(id, owner, current.get__v() == null ? 0L : current.get__v(), retries - 1, update);
+				}
+				return Mono.error(new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, VERSION_MISMATCH));
+			});
+	}
+	
+	/**
+	 * Indica se nenhum dos campos foi escrito depois da versão informada.
+	 * Registros gravados antes das versões de campo nunca são considerados inalterados.
+	 */
+	private static boolean unchangedSince(Todo current, Set<String> fields, long version) {
+		final Map<String, Long> versions = current.getFieldVersions();
+		return versions != null && fields.stream()
+				.allMatch(field -> versions.getOrDefault(field, 0L) <= version);
+	}
+	
+	/**
+	 * Campos editáveis alterados pelo update.
+	 */
+	private static Set<String> editedFields(Update update) {
+		final Object set = update.getUpdateObject().get("$set");
+		if (!(set instanceof org.bson.Document))
+			return Set.of();
+		return ((org.bson.Document) set).keySet().stream()
+				.filter(EDITABLE_FIELDS::contains)
+				.collect(Collectors.toSet());
+	}
+	
+	/**
+	 * Usuário autenticado, como registrado pelo callback de auditoria nos saves.
+	 */
+	private static Mono<String> auditor() {
+		return ReactiveSecurityContextHolder.getContext()
+				.flatMap(context -> Mono.justOrEmpty(context.getAuthentication()))
+				.filter(Authentication::isAuthenticated)
+				.map(Authentication::getName);
+	}
+	
+	/**
+	 * Deleção lógica de registro por id. O registro deixa de ser lido e é removido
+	 * pelo {@link TodoTombstonePurger} após o período de retenção. Registros arquivados
+	 * são marcados no próprio arquivo, sem alterar o resumo, que não os conta.
 	 * 
 	 * @param id do registro a ser deletado.
 	 * @param owner para restringir a deleção.
@@ -237,73 +797,88 @@ public class TodoService implements AdminTodoService, UserTodoService {
 	@Override
 	public Mono<Todo> delete(String id, String owner) {
 		log.debug("> TodoService.delete()");
-		return this.repository
-			.findBy_idInAndOwner(id, owner)
-			.flatMap(todo -> 
-					this.repository
-						.deleteById(todo.getId())
-						.thenReturn(todo));
+		return this.journal.exclusive(owner, tombstone(id, owner))
+			.doOnNext(this::evict);
 	}
 	
 	@Override
 	public Mono<Todo> deleteIgnoreOwnership(String id) {
 		log.debug("> TodoService.delete()");
-		return this.repository
-			.findById(id)
-			.flatMap(todo -> 
-					this.repository
-						.deleteById(todo.getId())
-						.thenReturn(todo));
+		return this.journal.exclusive(null, tombstone(id, null))
+			.doOnNext(this::evict);
+	}
+	
+	private Mono<Todo> tombstone(String id, @Nullable String owner) {
+		final Instant now = Instant.now();
+		return this.repository.findAndTombstone(id, owner, now)
+			.flatMap(this.summaries::deleted)
+			.switchIfEmpty(Mono.defer(() -> this.repository.findAndTombstoneArchived(id, owner, now)));
 	}
 	
 	/**
-	 * Deleção de todos os registros.
+	 * Inicia a deleção em lotes dos registros, em segundo plano.
 	 * 
-	 * @return todos os registros deletados.
+	 * @param owner dono dos registros a serem deletados. <i>null</i> deleta todos os registros.
+	 * @return job iniciado, com id para acompanhamento e cancelamento.
 	 */
 	@Override
-	public Flux<Todo> deleteAll() {
-		log.debug("> TodoService.deleteAll()");
-		return this.repository.findAll()
-			.flatMap(todo -> 
-					this.repository
-						.deleteById(todo.getId())
-						.thenReturn(todo));
+	public Mono<TodoPurgeJob> purge(@Nullable String owner) {
+		log.debug("> TodoService.purge()");
+		return Mono.fromSupplier(() -> this.purges.start(owner));
 	}
 	
 	/**
-	 * Método auxiliar para gerar ordenação por campos.
+	 * Progresso de uma deleção em lotes.
 	 * 
-	 * @param sortProperties strings de nomes dos campos para ordenação.
-	 * Strings iniciadas com sinal de menor (-) serão de ordem <b>decrescente</b>.
-	 * Campos não existentes serão <b>ignorados</b>.
-	 * @return Objeto Sort configurado para os campos solicitados que existem no objeto.
+	 * @param id do job.
+	 * @return job encontrado.
 	 */
-	private static Sort sort(String... sortProperties) {
-		log.debug("> TodoService.sort()");
-		
-		List<String> todoFields = ObjectFields.getNames(Todo.class);
-		
-		log.debug("Requested properties: ");
-		Arrays.stream(sortProperties)
-			.forEach(prop -> log.debug("\t"+prop));
-		
-		log.debug("Available properties: ");
-		todoFields.stream()
-			.forEach(prop -> log.debug("\t"+prop));
-		
-		log.debug("Matching properties: ");
-		Arrays.stream(sortProperties)
-			.filter(prop -> prop.startsWith("-") ? todoFields.contains(prop.substring(1)) : todoFields.contains(prop))
-			.forEach(prop -> log.debug("\t"+prop));
-		
-		return Sort.by(
-				Arrays.stream(sortProperties)
-					.filter(prop -> prop.startsWith("-") ? todoFields.contains(prop.substring(1)) : todoFields.contains(prop))
-					.map(prop -> new Order(
-							prop.startsWith("-") ? Direction.DESC : Direction.ASC, 
-							prop.startsWith("-") ? prop.substring(1) : prop))
-					.collect(Collectors.toList()));
+	@Override
+	public Mono<TodoPurgeJob> findPurge(String id) {
+		log.debug("> TodoService.findPurge()");
+		return Mono.justOrEmpty(this.purges.find(id));
+	}
+	
+	/**
+	 * Cancela uma deleção em lotes após o lote corrente.
+	 * 
+	 * @param id do job.
+	 * @return job encontrado.
+	 */
+	@Override
+	public Mono<TodoPurgeJob> cancelPurge(String id) {
+		log.debug("> TodoService.cancelPurge()");
+		return Mono.justOrEmpty(this.purges.cancel(id));
+	}
+	
+	/**
+	 * Recalcula os contadores de todos os usuários a partir dos registros.
+	 * 
+	 * @return quantidade de usuários com resumo recalculado.
+	 */
+	@Override
+	public Mono<Long> rebuildSummaries() {
+		log.debug("> TodoService.rebuildSummaries()");
+		return this.summaries.rebuild();
+	}
+	
+	/**
+	 * Invalida as leituras em cache do dono do registro escrito.
+	 */
+	private void evict(Todo todo) {
+		this.reads.invalidate(todo.getOwner());
+	}
+	
+	/**
+	 * Método auxiliar para resolver o tamanho da página.
+	 * 
+	 * @param page requisição de página.
+	 * @return tamanho solicitado limitado ao máximo configurado ou o padrão.
+	 */
+	private int limit(CursorRequest page) {
+		if (page.getLimit() == null)
+			return this.defaultLimit;
+		return Math.min(page.getLimit(), this.maxLimit);
 	}
 
 }
@@ -0,0 +1,191 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.out;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Mono;
+
+/**
+ * Maintains the per owner {@link TodoSummary} counters.
+ * Every todo write is mirrored as a single upserted <i>$inc</i>, so reading
+ * a summary is one primary key lookup regardless of how many todos exist.
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Service
+public class TodoSummaryService {
+
+	private static final String TOTAL = "total";
+	private static final String OPEN = "open";
+	private static final String DONE = "done";
+	private static final String CHANGES = "changes";
+
+	private final ReactiveMongoTemplate mongoTemplate;
+
+	public TodoSummaryService(ReactiveMongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	/**
+	 * Owner's counters. Owners without todos get zeroed counters.
+	 *
+	 * @param owner
+	 * @return summary.
+	 */
+	public Mono<TodoSummary> find(String owner) {
+		log.debug("> TodoSummaryService.find()");
+		return this.mongoTemplate.findById(owner, TodoSummary.class)
+				.defaultIfEmpty(TodoSummary.empty(owner));
+	}
+
+	/**
+	 * Counts a newly created todo.
+	 */
+	public Mono<Todo> created(Todo todo) {
+		return increment(todo.getOwner(), 1, done(todo) ? 0 : 1, done(todo) ? 1 : 0)
+				.thenReturn(todo);
+	}
+
+	/**
+	 * Counts todos created together by one owner as a single <i>$inc</i>.
+	 *
+	 * @param owner
+	 * @param todos created todos.
+	 * @return completion.
+	 */
+	public Mono<Void> createdAll(String owner, List<Todo> todos) {
+		final long done = todos.stream().filter(TodoSummaryService::done).count();
+		return increment(owner, todos.size(), todos.size() - done, done);
+	}
+
+	/**
+	 * Counts the change and moves a todo between open and done when its state changed.
+	 *
+	 * @param todo saved todo.
+	 * @param wasDone state before the write.
+	 * @return the given todo.
+	 */
+	public Mono<Todo> changed(Todo todo, boolean wasDone) {
+		final int delta = wasDone == done(todo) ? 0 : wasDone ? -1 : 1;
+		return increment(todo.getOwner(), 0, -delta, delta)
+				.thenReturn(todo);
+	}
+
+	/**
+	 * Discounts a deleted todo.
+	 */
+	public Mono<Todo> deleted(Todo todo) {
+		return increment(todo.getOwner(), -1, done(todo) ? 0 : -1, done(todo) ? -1 : 0)
+				.thenReturn(todo);
+	}
+
+	/**
+	 * Adds counter deltas summed by the caller over several writes of one owner
+	 * as a single <i>$inc</i>.
+	 *
+	 * @param owner
+	 * @param total
+	 * @param open
+	 * @param done
+	 * @return completion.
+	 */
+	public Mono<Void> add(String owner, long total, long open, long done) {
+		return increment(owner, total, open, done);
+	}
+
+	/**
+	 * Recomputes one owner's counters from its todos, for writes touching
+	 * an unknown number of todos in each state. The change counter is incremented
+	 * as by any other write. Writes running concurrently may be lost by the recount.
+	 *
+	 * @param owner
+	 * @return completion.
+	 */
+	public Mono<Void> recount(String owner) {
+		log.debug("> TodoSummaryService.recount()");
+		return this.mongoTemplate.aggregate(
+					newAggregation(
+						match(Criteria.where(QueryPlan.OWNER).is(owner).and(QueryPlan.DELETED).is(false)),
+						group().count().as(TOTAL).sum(isOpen()).as(OPEN).sum(isDone()).as(DONE)),
+					Todo.class,
+					Document.class)
+				.next()
+				.defaultIfEmpty(new Document())
+				.flatMap(counts -> this.mongoTemplate.upsert(
+						Query.query(Criteria.where("_id").is(owner)),
+						new Update()
+							.set(TOTAL, count(counts, TOTAL))
+							.set(OPEN, count(counts, OPEN))
+							.set(DONE, count(counts, DONE))
+							.inc(CHANGES, 1),
+						TodoSummary.class))
+				.then();
+	}
+
+	/**
+	 * Recomputes every summary from the todos collection, replacing the
+	 * current counters. Writes running concurrently may be lost by the rebuild.
+	 * Change counters restart from the rebuild time in milliseconds so they
+	 * keep growing and no previous collection ETag can match again.
+	 *
+	 * @return number of owners summarized.
+	 */
+	public Mono<Long> rebuild() {
+		log.debug("> TodoSummaryService.rebuild()");
+		return this.mongoTemplate.aggregate(
+					newAggregation(
+						match(Criteria.where(QueryPlan.DELETED).is(false)),
+						group(QueryPlan.OWNER).count().as(TOTAL).sum(isOpen()).as(OPEN).sum(isDone()).as(DONE),
+						project(TOTAL, OPEN, DONE)
+							.and(LiteralOperators.valueOf(System.currentTimeMillis()).asLiteral()).as(CHANGES),
+						out(this.mongoTemplate.getCollectionName(TodoSummary.class))),
+					Todo.class,
+					TodoSummary.class)
+				.count();
+	}
+
+	private Mono<Void> increment(String owner, long total, long open, long done) {
+		return this.mongoTemplate.upsert(
+					Query.query(Criteria.where("_id").is(owner)),
+					new Update().inc(TOTAL, total).inc(OPEN, open).inc(DONE, done).inc(CHANGES, 1),
+					TodoSummary.class)
+				.then();
+	}
+
+	private static ConditionalOperators.Cond isDone() {
+		return ConditionalOperators.when(Criteria.where(DONE).is(true)).then(1).otherwise(0);
+	}
+
+	private static ConditionalOperators.Cond isOpen() {
+		return ConditionalOperators.when(Criteria.where(DONE).is(true)).then(0).otherwise(1);
+	}
+
+	private static long count(Document counts, String key) {
+		final Number count = counts.get(key, Number.class);
+		return count == null ? 0L : count.longValue();
+	}
+
+	private static boolean done(Todo todo) {
+		return Boolean.TRUE.equals(todo.getDone());
+	}
+
+}
@@ -0,0 +1,107 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Removes tombstones left by deletes once they are older than the retention.
+ * <p>Each run deletes the expired tombstones oldest first, in chunks of one query
+ * reading the chunk's ids and one deleteMany over them, with a pause between chunks.
+ * A mass delete therefore turns into a steady trickle of small deletes instead of
+ * a single large one.</p>
+ * <p>Summaries and reads are not touched, tombstones were already left out of both
+ * when the todos were deleted.</p>
+ *
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoTombstonePurger implements DisposableBean {
+
+	private final TodoRepository repository;
+	private final String collectionName;
+	private final Duration retention;
+	private final Duration purgeInterval;
+	private final ChunkedRunner chunks;
+	private Disposable schedule = Disposables.disposed();
+
+	/**
+	 *
+	 * @param mongoTemplate
+	 * @param repository
+	 * @param retention time a deleted todo is kept as a tombstone.
+	 * @param purgeInterval time between runs.
+	 * @param chunkSize tombstones removed by each deleteMany.
+	 * @param chunkDelay pause between chunks.
+	 */
+	public TodoTombstonePurger(ReactiveMongoTemplate mongoTemplate, TodoRepository repository,
+			@Value("${todo.tombstones.retention:7d}") Duration retention,
+			@Value("${todo.tombstones.purge-interval:10m}") Duration purgeInterval,
+			@Value("${todo.tombstones.chunk-size:500}") int chunkSize,
+			@Value("${todo.tombstones.chunk-delay:200ms}") Duration chunkDelay) {
+		this.repository = repository;
+		this.collectionName = mongoTemplate.getCollectionName(Todo.class);
+		this.retention = retention;
+		this.purgeInterval = purgeInterval;
+		this.chunks = new ChunkedRunner(chunkSize, chunkDelay);
+	}
+
+	/**
+	 * Starts the runs once the application is ready. Runs never overlap;
+	 * a tick arriving while a run is still going is dropped.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void startAfterStartup() {
+		this.schedule = Flux.interval(this.purgeInterval)
+				.onBackpressureDrop()
+				.concatMap(tick -> purge()
+						.onErrorResume(e -> {
+							log.warn("Tombstone purge failed: {}", e.getMessage());
+							return Mono.empty();
+						}), 1)
+				.subscribe(purged -> {
+					if (purged > 0)
+						log.info("Purged {} tombstones", purged);
+				});
+	}
+
+	/**
+	 * Removes every tombstone older than the retention, from the todos collection
+	 * and then from the archive.
+	 *
+	 * @return number of removed tombstones.
+	 */
+	Mono<Long> purge() {
+		final Instant before = Instant.now().minus(this.retention);
+		final AtomicLong purged = new AtomicLong();
+		return Flux.just(this.collectionName, TodoArchiver.COLLECTION)
+				.concatMap(collection -> this.chunks.<ObjectId>run(
+						(after, limit) -> this.repository.findExpiredTombstones(collection, before, limit).map(Todo::get_id),
+						(after, ids) -> this.repository.deleteTombstones(collection, ids)
+								.doOnNext(result -> purged.addAndGet(result.getDeletedCount()))))
+				.then(Mono.fromSupplier(purged::get));
+	}
+
+	@Override
+	public void destroy() {
+		this.schedule.dispose();
+	}
+
+}
@@ -0,0 +1,242 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+
+/**
+ * Optional coalescing stage in front of the repository for new todos.
+ * When enabled, concurrent inserts are collected for up to a time window or a
+ * number of todos and written together by one unordered bulkWrite. Each caller
+ * still gets its own todo or its own error, as reported for its index by the bulk.
+ * <p>Todos are prepared as a save of a new todo would: the <i>_id</i> is generated here
+ * and the version starts at 0, after the entity callbacks have audited it on the
+ * caller's subscription. When disabled inserts go straight to {@code save}.</p>
+ * <p>Closed batches wait in an unbounded queue while the bulk writes in flight are
+ * busy, as the batching timer does not wait for demand. Should the writer fail anyway,
+ * the inserts it held are failed and a new writer takes the following ones.</p>
+ * 
+ * @author isacm
+ *
+ */
+@Log4j2
+@Component
+public class TodoWriteCoalescer implements DisposableBean {
+
+	/**
+	 * Bulk writes allowed in flight at once.
+	 */
+	private static final int MAX_IN_FLIGHT = 4;
+	
+	private final TodoRepository repository;
+	private final ReactiveMongoTemplate mongoTemplate;
+	private final TodoAuditing auditing;
+	private final MongoExceptionTranslator translator = new MongoExceptionTranslator();
+	private final boolean enabled;
+	private final Duration window;
+	private final int maxBatch;
+	private volatile Writer writer;
+	private volatile boolean closed;
+	
+	/**
+	 * 
+	 * @param repository used when coalescing is disabled.
+	 * @param mongoTemplate
+	 * @param auditing run for each todo before it is queued.
+	 * @param enabled collects inserts into bulk writes.
+	 * @param window longest time an insert waits for others.
+	 * @param maxBatch todos that close a batch before its window ends.
+	 */
+	public TodoWriteCoalescer(TodoRepository repository, ReactiveMongoTemplate mongoTemplate, TodoAuditing auditing,
+			@Value("${todo.write-coalescing.enabled:false}") boolean enabled,
+			@Value("${todo.write-coalescing.window:5ms}") Duration window,
+			@Value("${todo.write-coalescing.max-batch:100}") int maxBatch) {
+		this.repository = repository;
+		this.mongoTemplate = mongoTemplate;
+		this.auditing = auditing;
+		this.enabled = enabled;
+		this.window = window;
+		this.maxBatch = maxBatch;
+		if (enabled)
+			this.writer = new Writer();
+	}
+	
+	/**
+	 * Inserts a new todo, alone or coalesced with concurrent ones.
+	 * 
+	 * @param todo new todo.
+	 * @return saved todo.
+	 */
+	public Mono<Todo> insert(Todo todo) {
+		if (!this.enabled)
+			return this.repository.save(todo);
+		return this.auditing.beforeConvert(todo)
+				.flatMap(audited -> Mono.create(sink -> enqueue(new PendingInsert(audited, sink))));
+	}
+	
+	/**
+	 * Hands the insert to the current writer. An insert reaching a writer which
+	 * failed meanwhile is failed unless the writer already did it.
+	 */
+	private void enqueue(PendingInsert insert) {
+		final Writer writer = this.writer;
+		writer.pending.add(insert);
+		insert.sink.onDispose(() -> writer.pending.remove(insert));
+		writer.queue.next(insert);
+		final Throwable failure = writer.failure;
+		if (failure != null && writer.pending.remove(insert))
+			insert.sink.error(failure);
+	}
+	
+	/**
+	 * One unordered bulkWrite for the batch. Todos failing to convert never reach it.
+	 */
+	private Mono<Void> write(List<PendingInsert> batch) {
+		final List<PendingInsert> written = new ArrayList<>(batch.size());
+		final List<InsertOneModel<Document>> models = new ArrayList<>(batch.size());
+		for (PendingInsert pending : batch) {
+			try {
+				models.add(new InsertOneModel<>(document(pending.todo)));
+				written.add(pending);
+			} catch (RuntimeException e) {
+				pending.sink.error(e);
+			}
+		}
+		if (models.isEmpty())
+			return Mono.empty();
+		
+		return this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(Todo.class))
+				.flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false))))
+				.doOnNext(result -> written.forEach(PendingInsert::success))
+				.onErrorResume(e -> {
+					failed(written, e);
+					return Mono.empty();
+				})
+				.then();
+	}
+	
+	private Document document(Todo todo) {
+		if (todo.get_id() == null)
+			todo.set_id(new ObjectId());
+		if (todo.get__v() == null)
+			todo.set__v(0L);
+		final Document document = new Document();
+		this.mongoTemplate.getConverter().write(todo, document);
+		return document;
+	}
+	
+	/**
+	 * Bulk errors fail only the todos at their indexes, the others were inserted.
+	 * Any other error fails the whole batch.
+	 */
+	private void failed(List<PendingInsert> written, Throwable e) {
+		if (!(e instanceof MongoBulkWriteException)) {
+			log.warn("Coalesced insert of {} todos failed: {}", written.size(), e.getMessage());
+			written.forEach(pending -> pending.sink.error(e));
+			return;
+		}
+		final MongoBulkWriteException bulk = (MongoBulkWriteException) e;
+		final Map<Integer, BulkWriteError> errors = bulk.getWriteErrors().stream()
+				.collect(Collectors.toMap(BulkWriteError::getIndex, Function.identity()));
+		for (int i = 0; i < written.size(); i++) {
+			final BulkWriteError error = errors.get(i);
+			if (error == null)
+				written.get(i).success();
+			else
+				written.get(i).sink.error(translate(bulk, error));
+		}
+	}
+	
+	private Throwable translate(MongoBulkWriteException bulk, BulkWriteError error) {
+		final MongoWriteException e = new MongoWriteException(
+				new WriteError(error.getCode(), error.getMessage(), error.getDetails()), bulk.getServerAddress());
+		final DataAccessException translated = this.translator.translateExceptionIfPossible(e);
+		return translated == null ? e : translated;
+	}
+	
+	@Override
+	public void destroy() {
+		this.closed = true;
+		if (this.writer != null)
+			this.writer.subscription.dispose();
+	}
+	
+	/**
+	 * Queue of inserts with the subscription batching and writing them.
+	 */
+	private final class Writer {
+		
+		private final Set<PendingInsert> pending = ConcurrentHashMap.newKeySet();
+		private final FluxSink<PendingInsert> queue;
+		private final Disposable subscription;
+		private volatile Throwable failure;
+		
+		Writer() {
+			final UnicastProcessor<PendingInsert> processor = UnicastProcessor.create();
+			this.queue = processor.sink();
+			this.subscription = processor
+					.bufferTimeout(maxBatch, window)
+					.onBackpressureBuffer()
+					.flatMap(TodoWriteCoalescer.this::write, MAX_IN_FLIGHT)
+					.subscribe(null, this::failed);
+		}
+		
+		/**
+		 * Replaces this writer first, so new inserts stop reaching it, then fails what it held.
+		 */
+		private void failed(Throwable e) {
+			log.error("Coalesced insert writer failed, {} inserts failed with it", this.pending.size(), e);
+			if (!closed)
+				writer = new Writer();
+			this.failure = e;
+			this.pending.forEach(insert -> {
+				if (this.pending.remove(insert))
+					insert.sink.error(e);
+			});
+		}
+		
+	}
+	
+	@AllArgsConstructor
+	private static class PendingInsert {
+		
+		private final Todo todo;
+		private final MonoSink<Todo> sink;
+		
+		void success() {
+			this.sink.success(this.todo);
+		}
+		
+	}
+	
+}
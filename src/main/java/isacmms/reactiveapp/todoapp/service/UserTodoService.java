@@ -1,18 +1,33 @@
 package isacmms.reactiveapp.todoapp.service;
 
 import java.util.Map;
+import java.util.Set;
+
+import org.bson.RawBsonDocument;
+import org.springframework.lang.Nullable;
 
 import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface UserTodoService {
 
-	Flux<Todo> findAll(String owner, Map<String, String> rxs, String... sortProperties);
+	Flux<Todo> findAll(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Flux<RawBsonDocument> findAllRaw(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Mono<CursorPage<Todo>> findPage(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties);
+	Flux<Todo> findAllWithArchive(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, String... sortProperties);
+	Mono<CursorPage<Todo>> findPageWithArchive(String owner, Map<String, String> rxs, Map<String, String> filters, Set<String> fields, CursorRequest page, String... sortProperties);
+	Mono<CursorPage<Todo>> search(String owner, String text, CursorRequest page);
+	Mono<TodoSummary> summary(String owner);
 	Mono<Todo> findById(String id, String owner);
 	Mono<Todo> create(Todo todo, String owner);
-	Mono<Todo> update(String id, Todo dto, String owner);
-	Mono<Todo> patch(String id, Todo dto, String owner);
+	Mono<Todo> create(Todo todo, String owner, String idempotencyKey);
+	Flux<TodoBatchItem> createAll(Flux<TodoBatchItem> items, String owner);
+	Mono<Todo> update(String id, Todo dto, String owner, @Nullable Long version);
+	Mono<Todo> patch(String id, Todo dto, String owner, @Nullable Long version);
+	Mono<TodoBulkResult> patchMatching(String owner, Map<String, String> rxs, Map<String, String> filters, Todo dto);
 	Mono<Todo> delete(String id, String owner);
+	Mono<TodoBulkResult> deleteMatching(String owner, Map<String, String> rxs, Map<String, String> filters);
 	
 }
@@ -0,0 +1,51 @@
+package isacmms.reactiveapp.todoapp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+/**
+ * Media types shared by the handlers and the codec configuration.
+ *
+ * @author isacm
+ *
+ */
+public final class MediaTypes {
+
+	/**
+	 * Newline delimited JSON, written and flushed element by element.
+	 */
+	public static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+	/**
+	 * Payload media types handlers may answer with, JSON first as the default.
+	 */
+	public static final List<MediaType> PAYLOAD_TYPES = List.of(
+			MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, APPLICATION_SMILE);
+
+	private MediaTypes() {
+	}
+
+	/**
+	 * Payload media type preferred by the client's Accept header.
+	 *
+	 * @param req
+	 * @return one of {@link #PAYLOAD_TYPES}, JSON when none is acceptable.
+	 */
+	public static MediaType payloadType(ServerRequest req) {
+		final List<MediaType> accept = new ArrayList<>(req.headers().accept());
+		MediaType.sortBySpecificityAndQuality(accept);
+		for (MediaType type : accept) {
+			for (MediaType payload : PAYLOAD_TYPES) {
+				if (type.isCompatibleWith(payload))
+					return payload;
+			}
+		}
+		return MediaType.APPLICATION_JSON;
+	}
+
+}
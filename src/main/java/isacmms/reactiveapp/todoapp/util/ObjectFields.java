@@ -12,18 +12,27 @@ import lombok.extern.log4j.Log4j2;
 @Component
 public class ObjectFields {
 	
+	/**
+	 * Reflection result is computed once per class.
+	 */
+	private static final ClassValue<List<String>> NAMES = new ClassValue<>() {
+		@Override
+		protected List<String> computeValue(Class<?> clazz) {
+			return Arrays.stream(
+					clazz.getDeclaredFields())
+						.map(field -> field.getName())
+						.collect(Collectors.toUnmodifiableList());
+		}
+	};
+	
 	/**
 	 * Captura o nome dos campos declarados de um objeto por meio de reflection.
 	 * @param clazz Object.class do objecto em questão.
-	 * @return Lista de Strings dos nomes dos campos do objeto.
+	 * @return Lista <b>imutável</b> de Strings dos nomes dos campos do objeto.
 	 */
 	public static List<String> getNames(Class<?> clazz) {
 		log.debug("> ObjectFields.get()");
-		
-		return Arrays.stream(
-				clazz.getDeclaredFields())
-					.map(field -> field.getName())
-					.collect(Collectors.toList());
+		return NAMES.get(clazz);
 	}
 	
 }
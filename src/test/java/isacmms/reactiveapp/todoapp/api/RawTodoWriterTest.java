@@ -0,0 +1,87 @@
+package isacmms.reactiveapp.todoapp.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+class RawTodoWriterTest {
+
+	private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+	private final RawTodoWriter writer = new RawTodoWriter(mapper);
+
+	@Test
+	@DisplayName("Test raw array is byte compatible with the mapped todo list")
+	void testGivenStoredTodos_ThenArray_ExpectSameJsonAsMapper() throws Exception {
+		final Todo done = new Todo(new ObjectId().toHexString(), 3L, true, "Comprar \"leite\" é urgente", "user",
+				Instant.now(), Instant.now(), "user", "user");
+		final Todo open = new Todo(new ObjectId().toHexString(), 0L, null, "Second", "user");
+
+		assertEquals(mapper.writeValueAsString(List.of(done, open)),
+				text(writer.array(Flux.just(stored(done), stored(open)), Set.of(), new DefaultDataBufferFactory())));
+		assertEquals("[]", text(writer.array(Flux.empty(), Set.of(), new DefaultDataBufferFactory())));
+	}
+
+	@Test
+	@DisplayName("Test raw lines write only requested fields, as the mapped sparse todos do")
+	void testGivenFields_ThenLines_ExpectOnlyRequestedFields() throws Exception {
+		final Todo todo = new Todo(new ObjectId().toHexString(), 1L, false, "First", "user");
+
+		final String body = text(writer.lines(Flux.just(stored(todo), stored(todo)), Set.of("done", "_id"), new DefaultDataBufferFactory()));
+
+		final String line = mapper.writeValueAsString(mapper.<ObjectNode>valueToTree(todo).retain("done", "_id")) + "\n";
+		assertEquals(line + line, body);
+	}
+
+	/**
+	 * Todo as stored, hidden and audit fields included.
+	 */
+	private static RawBsonDocument stored(Todo todo) {
+		final Document document = new Document("_id", todo.get_id())
+				.append("owner", todo.getOwner())
+				.append("description", todo.getDescription())
+				.append("descriptionFolded", todo.getDescriptionFolded())
+				.append("createdBy", todo.getCreatedBy().orElse(null))
+				.append("createdDate", todo.getCreatedDate().map(Date::from).orElse(null))
+				.append("__v", todo.get__v());
+		if (todo.getDone() != null)
+			document.append("done", todo.getDone());
+		return new RawBsonDocument(document, new DocumentCodec());
+	}
+
+	private static String text(Flux<DataBuffer> buffers) {
+		return DataBufferUtils.join(buffers)
+				.map(buffer -> {
+					final String text = buffer.toString(StandardCharsets.UTF_8);
+					DataBufferUtils.release(buffer);
+					return text;
+				})
+				.block();
+	}
+
+}
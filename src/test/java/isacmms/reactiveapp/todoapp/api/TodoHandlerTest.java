@@ -4,7 +4,13 @@ import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,21 +18,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ResponseStatusException;
 
 import isacmms.reactiveapp.authapp.service.CustomReactiveUserDetailsService;
 import isacmms.reactiveapp.authapp.util.JwtUtil;
 import isacmms.reactiveapp.todoapp.api.AdminTodoHandler;
 import isacmms.reactiveapp.todoapp.api.TodoRouter;
 import isacmms.reactiveapp.todoapp.api.UserTodoHandler;
+import isacmms.reactiveapp.todoapp.config.CodecConfig;
 import isacmms.reactiveapp.todoapp.config.SecurityConfig;
 import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
+import isacmms.reactiveapp.todoapp.service.CursorPage;
+import isacmms.reactiveapp.todoapp.service.CursorRequest;
+import isacmms.reactiveapp.todoapp.service.TodoBulkResult;
 import isacmms.reactiveapp.todoapp.service.TodoService;
+import isacmms.reactiveapp.todoapp.util.MediaTypes;
 import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -38,7 +54,7 @@ import reactor.core.publisher.Mono;
  */
 @Log4j2
 @ExtendWith(SpringExtension.class)
-@ContextConfiguration(classes = { TodoRouter.class, AdminTodoHandler.class, UserTodoHandler.class, TodoService.class, JwtUtil.class })
+@ContextConfiguration(classes = { CodecConfig.class, TodoRouter.class, AdminTodoHandler.class, UserTodoHandler.class, TodoService.class, JwtUtil.class })
 @WebFluxTest
 @Import(SecurityConfig.class)
 class TodoHandlerTest {
@@ -64,6 +80,7 @@ class TodoHandlerTest {
 
 	@BeforeEach
     public void setUp() {
+		when(uTodoService.summary(anyString())).thenReturn(Mono.just(TodoSummary.empty("user")));
 		//webTestClient = WebTestClient.bindToApplicationContext(context).configureClient().build();
 		//webTestClient.mutate(csrf());
 	}
@@ -148,4 +165,398 @@ class TodoHandlerTest {
             });
 	}
 	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenLimitAndCursor_ThenFindAll_ExpectPageAndNextCursorHeader() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, "Descrição teste", "user");
+	    
+	    when(uTodoService.findPage(eq("user"), anyMap(), anyMap(), anySet(), any(CursorRequest.class)))
+	    	.thenAnswer(invocation -> {
+	    		CursorRequest page = invocation.getArgument(4);
+	    		assertEquals(1, page.getLimit());
+	    		assertEquals("previous", page.getAfter());
+	    		return Mono.just(new CursorPage<>(List.of(todo), "next"));
+	    	});
+	    
+	    webTestClient.get().uri("/api/todos?limit=1&after=previous")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().valueEquals(TodoHandler.NEXT_CURSOR_HEADER, "next")
+	    	.expectBodyList(Todo.class).hasSize(1);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenIncludeArchived_ThenFindAll_ExpectLiveAndArchivedMerged() {
+	    Todo live = new Todo("5edecb8015224141b781b9d2", 0L, false, "Live", "user");
+	    Todo archived = new Todo("5edecb8015224141b781b9d3", 2L, true, "Archived", "user");
+	    
+	    when(uTodoService.findAllWithArchive(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(Flux.just(live, archived));
+	    
+	    webTestClient.get().uri("/api/todos?includeArchived=true")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBodyList(Todo.class).hasSize(2);
+	    
+	    verify(uTodoService, never()).findAllRaw(anyString(), anyMap(), anyMap(), anySet());
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenInvalidLimit_ThenFindAll_ExpectBadRequest() {
+	    webTestClient.get().uri("/api/todos?limit=0")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isBadRequest();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenRegexOnNonTextField_ThenFindAll_ExpectBadRequest() {
+	    webTestClient.get().uri("/api/todos?done__regex=^t")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isBadRequest();
+	    verify(uTodoService, never()).findAllRaw(anyString(), anyMap(), anyMap(), anySet());
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenSearchTerms_ThenSearch_ExpectRankedPageNotTodoById() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, false, "Buy milk", "user");
+	    
+	    when(uTodoService.search(eq("user"), eq("milk"), any(CursorRequest.class)))
+	    	.thenReturn(Mono.just(new CursorPage<>(List.of(todo), null)));
+	    
+	    webTestClient.get().uri("/api/todos/search?q=milk")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().doesNotExist(TodoHandler.NEXT_CURSOR_HEADER)
+	    	.expectBodyList(Todo.class).hasSize(1);
+	    
+	    webTestClient.get().uri("/api/todos/search?q=")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isBadRequest();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenFields_ThenFindAll_ExpectOnlyRequestedFields() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, null, "user");
+	    
+	    when(uTodoService.findAllRaw(eq("user"), anyMap(), anyMap(), eq(Set.of("_id", "done"))))
+	    	.thenReturn(raw(todo));
+	    
+	    webTestClient.get().uri("/api/todos?fields=_id,done")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody()
+	    	.jsonPath("$[0]._id").isEqualTo("5edecb8015224141b781b9d2")
+	    	.jsonPath("$[0].done").isEqualTo(true)
+	    	.jsonPath("$[0].description").doesNotExist();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenUnknownOrHiddenFields_ThenFindAll_ExpectBadRequest() {
+	    webTestClient.get().uri("/api/todos?fields=done,nope")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isBadRequest();
+	    
+	    webTestClient.get().uri("/api/todos?fields=owner")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isBadRequest();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenNdjsonAccept_ThenFindAll_ExpectOneTodoPerLine() {
+	    Todo first = new Todo("5edecb8015224141b781b9d2", 0L, true, "First", "user");
+	    Todo second = new Todo("5edecb8015224141b781b9d3", 0L, false, "Second", "user");
+	    
+	    when(uTodoService.findAllRaw(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(raw(first, second));
+	    
+	    String body = webTestClient.get().uri("/api/todos")
+	    	.accept(MediaTypes.APPLICATION_NDJSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().contentTypeCompatibleWith(MediaTypes.APPLICATION_NDJSON)
+	    	.expectBody(String.class).returnResult().getResponseBody();
+	    
+	    String[] lines = body.split("\n");
+	    assertEquals(2, lines.length);
+	    assertTrue(lines[0].startsWith("{") && lines[0].contains("First"));
+	    assertTrue(lines[1].startsWith("{") && lines[1].contains("Second"));
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenEventStreamAccept_ThenFindAll_ExpectOneEventPerTodo() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, "First", "user");
+	    
+	    when(uTodoService.findAll(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(Flux.just(todo, todo));
+	    
+	    String body = webTestClient.get().uri("/api/todos")
+	    	.accept(MediaType.TEXT_EVENT_STREAM)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+	    	.expectBody(String.class).returnResult().getResponseBody();
+	    
+	    assertEquals(2, body.split("data:", -1).length - 1);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenListingOverCap_ThenFindAll_ExpectStreamsEndingWithErrorAndJsonPayloadTooLarge() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, "First", "user");
+	    ResponseStatusException tooMany = new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "More than 1 todos matched.");
+	    
+	    when(uTodoService.findAllRaw(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenAnswer(invocation -> raw(todo).concatWith(Flux.error(tooMany)));
+	    when(uTodoService.findAll(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(Flux.just(todo).concatWith(Flux.error(tooMany)));
+	    
+	    String lines = webTestClient.get().uri("/api/todos")
+	    	.accept(MediaTypes.APPLICATION_NDJSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody(String.class).returnResult().getResponseBody();
+	    assertEquals(2, lines.split("\n").length);
+	    assertTrue(lines.split("\n")[1].contains("\"status\":413"));
+	    
+	    String events = webTestClient.get().uri("/api/todos")
+	    	.accept(MediaType.TEXT_EVENT_STREAM)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody(String.class).returnResult().getResponseBody();
+	    assertTrue(events.contains("event:error") && events.contains("413"));
+	    
+	    webTestClient.get().uri("/api/todos")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenJsonPreferredOverNdjson_ThenFindAll_ExpectJsonArray() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, "First", "user");
+	    
+	    when(uTodoService.findAllRaw(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(raw(todo));
+	    
+	    webTestClient.get().uri("/api/todos")
+	    	.header("Accept", "application/json, application/x-ndjson;q=0.5")
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+	    	.expectBodyList(Todo.class).hasSize(1);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenUser_ThenSummary_ExpectCountersWithoutOwner() {
+	    when(uTodoService.summary("user"))
+	    	.thenReturn(Mono.just(new TodoSummary("user", 3L, 2L, 1L)));
+	    
+	    webTestClient.get().uri("/api/todos/summary")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody()
+	    	.jsonPath("$.total").isEqualTo(3)
+	    	.jsonPath("$.open").isEqualTo(2)
+	    	.jsonPath("$.done").isEqualTo(1)
+	    	.jsonPath("$.owner").doesNotExist();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenUserRole_ThenRebuildSummaries_ExpectForbidden() {
+	    webTestClient.post().uri("/api/admin/todos/summaries/rebuild")
+	    	.exchange().expectStatus().isForbidden();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenTypedFilters_ThenFindAll_ExpectFiltersPassedApartFromRegexs() {
+	    when(uTodoService.findAllRaw(eq("user"), 
+	    		eq(Map.of("description", "^buy")), 
+	    		eq(Map.of("done__eq", "true", "createdDate__gte", "2020-06-01")), 
+	    		anySet()))
+	    	.thenReturn(Flux.empty());
+	    
+	    webTestClient.get().uri("/api/todos?description__regex=^buy&done__eq=true&createdDate__gte=2020-06-01&done__bogus=1")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBodyList(Todo.class).hasSize(0);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenCurrentCollectionETag_ThenFindAll_ExpectNotModifiedWithoutQuery() {
+	    when(uTodoService.summary("user"))
+	    	.thenReturn(Mono.just(new TodoSummary("user", 1L, 1L, 0L, 7L)));
+	    when(uTodoService.findAllRaw(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(Flux.empty());
+	    
+	    final String etag = webTestClient.get().uri("/api/todos?done__eq=false")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.returnResult(Todo.class).getResponseHeaders().getETag();
+	    assertTrue(etag.startsWith("\"7-"));
+	    
+	    webTestClient.get().uri("/api/todos?done__eq=false")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.header(HttpHeaders.IF_NONE_MATCH, "\"stale\", W/" + etag)
+	    	.exchange().expectStatus().isNotModified()
+	    	.expectHeader().valueEquals(HttpHeaders.ETAG, etag);
+	    verify(uTodoService, times(1)).findAllRaw(eq("user"), anyMap(), anyMap(), anySet());
+	    
+	    webTestClient.get().uri("/api/todos?done__eq=true")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.header(HttpHeaders.IF_NONE_MATCH, etag)
+	    	.exchange().expectStatus().isOk();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenTodoVersion_ThenFindTodoById_ExpectETagAndNotModified() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 3L, true, "Descrição teste", "user");
+	    
+	    when(uTodoService.findById("5edecb8015224141b781b9d2", "user"))
+	    	.thenReturn(Mono.just(todo));
+	    
+	    webTestClient.get().uri("/api/todos/5edecb8015224141b781b9d2")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().valueEquals(HttpHeaders.ETAG, "\"5edecb8015224141b781b9d2-3\"");
+	    
+	    webTestClient.get().uri("/api/todos/5edecb8015224141b781b9d2")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.header(HttpHeaders.IF_NONE_MATCH, "\"5edecb8015224141b781b9d2-3\"")
+	    	.exchange().expectStatus().isNotModified()
+	    	.expectBody().isEmpty();
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenCborAccept_ThenFindAll_ExpectCborArray() {
+	    Todo first = new Todo("5edecb8015224141b781b9d2", 0L, true, "First", "user");
+	    Todo second = new Todo("5edecb8015224141b781b9d3", 0L, false, "Second", "user");
+	    
+	    when(uTodoService.findAll(eq("user"), anyMap(), anyMap(), anySet()))
+	    	.thenReturn(Flux.just(first, second));
+	    
+	    webTestClient.get().uri("/api/todos")
+	    	.accept(MediaType.APPLICATION_CBOR)
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().contentType(MediaType.APPLICATION_CBOR)
+	    	.expectBody(Todo[].class)
+	    	.value(todos -> {
+	    		assertEquals(2, todos.length);
+	    		assertEquals("Second", todos[1].getDescription());
+	    	});
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenSmilePreferredOverJson_ThenFindTodoById_ExpectSmileTodo() {
+	    Todo todo = new Todo("5edecb8015224141b781b9d2", 0L, true, "Descrição teste", "user");
+	    
+	    when(uTodoService.findById("5edecb8015224141b781b9d2", "user"))
+	    	.thenReturn(Mono.just(todo));
+	    
+	    webTestClient.get().uri("/api/todos/5edecb8015224141b781b9d2")
+	    	.header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/x-jackson-smile")
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().contentType(MediaTypes.APPLICATION_SMILE)
+	    	.expectBody(Todo.class)
+	    	.value(todoResponse -> {
+	    		assertEquals("Descrição teste", todoResponse.getDescription());
+	    		assertEquals(true, todoResponse.getDone());
+	    	});
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenNdjsonBodyWithInvalidTodo_ThenCreateBatch_ExpectOneResultPerTodo() {
+	    when(uTodoService.createAll(any(), eq("user")))
+	    	.thenAnswer(invocation -> invocation.getArgument(0));
+	    
+	    webTestClient.post().uri("/api/todos/batch")
+	    	.contentType(MediaTypes.APPLICATION_NDJSON)
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.bodyValue("{\"description\":\"First\"}\n{\"description\":\"\"}\n{\"done\":true,\"description\":\"Third\"}\n")
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody()
+	    	.jsonPath("$.length()").isEqualTo(3)
+	    	.jsonPath("$[0].index").isEqualTo(0)
+	    	.jsonPath("$[0].todo.description").isEqualTo("First")
+	    	.jsonPath("$[1].index").isEqualTo(1)
+	    	.jsonPath("$[1].status").isEqualTo(422)
+	    	.jsonPath("$[1].error").exists()
+	    	.jsonPath("$[1].todo").doesNotExist()
+	    	.jsonPath("$[2].todo.done").isEqualTo(true);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenDoneFilter_ThenDeleteMatching_ExpectCounts() {
+	    when(uTodoService.deleteMatching("user", Map.of(), Map.of("done__eq", "true")))
+	    	.thenReturn(Mono.just(new TodoBulkResult(4L, 4L)));
+	    
+	    webTestClient.delete().uri("/api/todos?done__eq=true")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.exchange().expectStatus().isOk()
+	    	.expectBody()
+	    	.jsonPath("$.matched").isEqualTo(4)
+	    	.jsonPath("$.modified").isEqualTo(4);
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenNoFilter_ThenPatchMatching_ExpectBadRequest() {
+	    webTestClient.patch().uri("/api/todos")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.bodyValue(new Todo(true, null))
+	    	.exchange().expectStatus().isBadRequest();
+	    
+	    verify(uTodoService, never()).patchMatching(anyString(), any(), any(), any());
+	}
+	
+	@WithMockUser(username = "user", authorities = "ROLE_USER")
+	@Test
+	public void testGivenIfMatch_ThenPatchTodoById_ExpectVersionPassedOrPreconditionFailed() {
+	    Todo patched = new Todo("5edecb8015224141b781b9d2", 4L, true, "Descrição teste", "user");
+	    
+	    when(uTodoService.patch(eq("5edecb8015224141b781b9d2"), any(Todo.class), eq("user"), eq(3L)))
+	    	.thenReturn(Mono.just(patched));
+	    
+	    webTestClient.patch().uri("/api/todos/5edecb8015224141b781b9d2")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.header(HttpHeaders.IF_MATCH, "\"5edecb8015224141b781b9d2-3\"")
+	    	.bodyValue(new Todo(true, null))
+	    	.exchange().expectStatus().isOk()
+	    	.expectHeader().valueEquals(HttpHeaders.ETAG, "\"5edecb8015224141b781b9d2-4\"");
+	    
+	    webTestClient.patch().uri("/api/todos/5edecb8015224141b781b9d2")
+	    	.accept(MediaType.APPLICATION_JSON)
+	    	.header(HttpHeaders.IF_MATCH, "\"5edecb8015224141b781b9d3-3\"")
+	    	.bodyValue(new Todo(true, null))
+	    	.exchange().expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+	    
+	    verify(uTodoService, times(1)).patch(anyString(), any(Todo.class), anyString(), any());
+	}
+	
+	/**
+	 * Todos as stored, hidden fields included.
+	 */
+	private static Flux<RawBsonDocument> raw(Todo... todos) {
+		return Flux.fromArray(todos).map(todo -> {
+			Document document = new Document("_id", todo.get_id())
+					.append("done", todo.getDone())
+					.append("description", todo.getDescription())
+					.append("descriptionFolded", todo.getDescriptionFolded())
+					.append("owner", todo.getOwner())
+					.append("__v", todo.get__v());
+			return new RawBsonDocument(document, new DocumentCodec());
+		});
+	}
+	
 }
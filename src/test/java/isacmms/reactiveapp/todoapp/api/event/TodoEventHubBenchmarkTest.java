@@ -0,0 +1,103 @@
+package isacmms.reactiveapp.todoapp.api.event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.Disposable;
+import reactor.core.publisher.DirectProcessor;
+
+/**
+ * Cost of publishing created todos to 10k WebSocket sessions spread over many owners,
+ * broadcasting every event to every session against the per owner hub.
+ * The broadcast side stands for the former publisher, where every session received
+ * every event and had to filter it out. Sessions are plain subscribers counting what
+ * they receive, so the numbers show the fan-out alone without sockets.
+ *
+ * @author isacm
+ *
+ */
+@Tag("benchmark")
+@Log4j2
+class TodoEventHubBenchmarkTest {
+
+	private static final int SESSIONS = 10_000;
+	private static final int OWNERS = 1_000;
+	private static final int EVENTS = 2_000;
+
+	@Test
+	@DisplayName("Benchmark fan-out of created todos to 10k sessions, broadcast against per owner topics")
+	void benchmarkFanOut() {
+		final List<TodoCreatedEvent> events = events();
+
+		final AtomicLong broadcastChecks = new AtomicLong();
+		final AtomicLong broadcastDeliveries = new AtomicLong();
+		final DirectProcessor<TodoCreatedEvent> broadcast = DirectProcessor.create();
+		final List<Disposable> broadcastSessions = sessions(owner -> broadcast
+				.filter(event -> {
+					broadcastChecks.incrementAndGet();
+					return owner.equals(((Todo) event.getSource()).getOwner());
+				})
+				.subscribe(event -> broadcastDeliveries.incrementAndGet()));
+		final long broadcastNanos = publish(events, broadcast::onNext, broadcastChecks, broadcastDeliveries);
+		broadcastSessions.forEach(Disposable::dispose);
+
+		final AtomicLong hubDeliveries = new AtomicLong();
+		final TodoEventHub hub = new TodoEventHub(256);
+		final List<Disposable> hubSessions = sessions(owner -> hub.subscribe(owner)
+				.subscribe(event -> hubDeliveries.incrementAndGet()));
+		final long hubNanos = publish(events, hub::onCreated, hubDeliveries);
+		hubSessions.forEach(Disposable::dispose);
+
+		log.info("Broadcast: {} events to {} sessions in {} ms, {} us per event, {} session checks",
+				EVENTS, SESSIONS, broadcastNanos / 1_000_000, broadcastNanos / EVENTS / 1_000, broadcastChecks.get());
+		log.info("Per owner hub: {} events to {} sessions in {} ms, {} us per event, {} deliveries",
+				EVENTS, SESSIONS, hubNanos / 1_000_000, hubNanos / EVENTS / 1_000, hubDeliveries.get());
+
+		final long expected = (long) EVENTS * (SESSIONS / OWNERS);
+		assertEquals(expected, broadcastDeliveries.get());
+		assertEquals(expected, hubDeliveries.get());
+		assertEquals((long) EVENTS * SESSIONS, broadcastChecks.get());
+		assertEquals(0, hub.subscribers("owner-0"));
+	}
+
+	private static List<TodoCreatedEvent> events() {
+		final List<TodoCreatedEvent> events = new ArrayList<>(EVENTS);
+		for (int i = 0; i < EVENTS; i++)
+			events.add(new TodoCreatedEvent(new Todo(false, "Todo number " + i, "owner-" + (i % OWNERS))));
+		return events;
+	}
+
+	private static List<Disposable> sessions(Function<String, Disposable> subscribe) {
+		final List<Disposable> sessions = new ArrayList<>(SESSIONS);
+		for (int i = 0; i < SESSIONS; i++)
+			sessions.add(subscribe.apply("owner-" + (i % OWNERS)));
+		return sessions;
+	}
+
+	/**
+	 * Publishes every event once to warm up and once measured.
+	 *
+	 * @param counters reset after the warm up.
+	 * @return nanos taken by the measured pass.
+	 */
+	private static long publish(List<TodoCreatedEvent> events, Consumer<TodoCreatedEvent> publisher, AtomicLong... counters) {
+		events.forEach(publisher);
+		for (AtomicLong counter : counters)
+			counter.set(0);
+		final long start = System.nanoTime();
+		events.forEach(publisher);
+		return System.nanoTime() - start;
+	}
+
+}
@@ -0,0 +1,56 @@
+package isacmms.reactiveapp.todoapp.api.event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+class TodoEventHubTest {
+
+	private final TodoEventHub hub = new TodoEventHub(16);
+
+	@Test
+	@DisplayName("Test subscribers only receive the created todos and bulk changes of their owner")
+	void testGivenTwoOwners_ThenPublish_ExpectEventsOfOwnTopicOnly() {
+		final Todo mine = new Todo("5edecb8015224141b781b9d2", 0L, false, "Mine", "user");
+		final Todo theirs = new Todo("5edecb8015224141b781b9d3", 0L, false, "Theirs", "other");
+		final Todo batched = new Todo("5edecb8015224141b781b9d4", 0L, false, "Batched", "user");
+
+		StepVerifier.create(hub.subscribe("user").map(event -> event.getSource()))
+			.then(() -> {
+				hub.onCreated(new TodoCreatedEvent(theirs));
+				hub.onCreated(new TodoCreatedEvent(mine));
+				hub.onBatchCreated(new TodoBatchCreatedEvent(List.of(theirs, batched)));
+				hub.onChanged(new TodosChangedEvent("other", TodosChangedEvent.Type.DELETED, 2));
+				hub.onChanged(new TodosChangedEvent("user", TodosChangedEvent.Type.UPDATED, 3));
+			})
+			.expectNext(mine, batched, "user")
+			.thenCancel()
+			.verify();
+	}
+
+	@Test
+	@DisplayName("Test topic is removed with its last subscriber")
+	void testGivenSubscribersCancelled_ThenSubscribers_ExpectTopicRemoved() {
+		final Disposable first = hub.subscribe("user").subscribe();
+		final Disposable second = hub.subscribe("user").subscribe();
+		assertEquals(2, hub.subscribers("user"));
+
+		first.dispose();
+		assertEquals(1, hub.subscribers("user"));
+		second.dispose();
+		assertEquals(0, hub.subscribers("user"));
+	}
+
+}
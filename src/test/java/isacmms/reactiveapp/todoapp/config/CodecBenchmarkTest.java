@@ -0,0 +1,83 @@
+package isacmms.reactiveapp.todoapp.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Encode/decode throughput and payload size of a 10k todo list in JSON, CBOR and Smile.
+ * Mappers are built the same way as {@link CodecConfig} builds them.
+ *
+ * @author isacm
+ *
+ */
+@Tag("benchmark")
+@Log4j2
+class CodecBenchmarkTest {
+
+	private static final int TODOS = 10_000;
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+
+	@Test
+	@DisplayName("Benchmark 10k todo list encode/decode in JSON, CBOR and Smile")
+	void benchmarkTodoListCodecs() throws Exception {
+		final List<Todo> todos = IntStream.range(0, TODOS)
+				.mapToObj(i -> new Todo(new ObjectId().toHexString(), (long) i, i % 3 == 0,
+						"Todo description number " + i, "user", Instant.now(), Instant.now(), "user", "user"))
+				.collect(Collectors.toList());
+
+		final long json = run("JSON", Jackson2ObjectMapperBuilder.json().build(), todos);
+		final long cbor = run("CBOR", Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build(), todos);
+		final long smile = run("Smile", Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build(), todos);
+
+		assertTrue(cbor < json, "CBOR payload should be smaller than JSON");
+		assertTrue(smile < json, "Smile payload should be smaller than JSON");
+	}
+
+	/**
+	 * @return payload size in bytes.
+	 */
+	private static long run(String format, ObjectMapper mapper, List<Todo> todos) throws Exception {
+		final JavaType listType = mapper.getTypeFactory().constructCollectionType(List.class, Todo.class);
+		byte[] payload = null;
+		for (int i = 0; i < WARMUP; i++)
+			mapper.readValue(payload = mapper.writeValueAsBytes(todos), listType);
+
+		long encodeNanos = 0;
+		long decodeNanos = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			payload = mapper.writeValueAsBytes(todos);
+			encodeNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final List<Todo> decoded = mapper.readValue(payload, listType);
+			decodeNanos += System.nanoTime() - start;
+			assertEquals(todos.size(), decoded.size());
+		}
+
+		log.info("{}: {} bytes, encode {} lists/s, decode {} lists/s", format, payload.length,
+				String.format("%.1f", ITERATIONS / (encodeNanos / 1e9)),
+				String.format("%.1f", ITERATIONS / (decodeNanos / 1e9)));
+		return payload.length;
+	}
+
+}
@@ -0,0 +1,100 @@
+package isacmms.reactiveapp.todoapp.config;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+class MongoIndexManagerTest {
+
+	private ReactiveMongoTemplate mongoTemplate;
+	private ReactiveIndexOperations indexOps;
+
+	@BeforeEach
+	void setUp() {
+		final MongoMappingContext context = new MongoMappingContext();
+		context.setInitialEntitySet(Set.of(Todo.class));
+		context.afterPropertiesSet();
+
+		this.mongoTemplate = mock(ReactiveMongoTemplate.class);
+		this.indexOps = mock(ReactiveIndexOperations.class);
+		when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context));
+		when(mongoTemplate.indexOps(Todo.class)).thenReturn(indexOps);
+	}
+
+	@Test
+	@DisplayName("Test verification reports declared indexes missing and undeclared ones present")
+	void testGivenPartialIndexes_ThenVerify_ExpectMissingAndExtra() {
+		when(indexOps.getIndexInfo()).thenReturn(Flux.just(
+				info("_id_"), info("owner_id_live"), info("owner_description_text"), info("description_1")));
+
+		final IndexReport report = new MongoIndexManager(mongoTemplate).verify().block();
+
+		assertFalse(report.isComplete());
+		assertEquals(Set.of("owner_done_createdDate_live", "owner_descriptionFolded_live", "deletedAt_tombstones"), report.getMissing().get("todos"));
+		assertEquals(Set.of("description_1"), report.getExtra().get("todos"));
+	}
+
+	@Test
+	@DisplayName("Test verification is complete when every declared index exists")
+	void testGivenAllIndexes_ThenVerify_ExpectComplete() {
+		when(indexOps.getIndexInfo()).thenReturn(Flux.just(
+				info("_id_"), info("owner_id_live"), info("owner_done_createdDate_live"),
+				info("owner_descriptionFolded_live"), info("owner_description_text"), info("deletedAt_tombstones")));
+
+		final IndexReport report = new MongoIndexManager(mongoTemplate).verify().block();
+
+		assertTrue(report.isComplete());
+		assertTrue(report.getExtra().isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test live indexes are built partial on todos that are not deleted")
+	void testGivenPartialIndexAnnotation_ThenEnsureIndexes_ExpectPartialFilterOnLiveIndexesOnly() {
+		final ArgumentCaptor<IndexDefinition> definitions = ArgumentCaptor.forClass(IndexDefinition.class);
+		when(indexOps.ensureIndex(definitions.capture())).thenReturn(Mono.just("ok"));
+
+		new MongoIndexManager(mongoTemplate).ensureIndexes().block();
+
+		final Map<String, Object> filters = definitions.getAllValues().stream()
+				.collect(Collectors.toMap(definition -> definition.getIndexOptions().getString("name"),
+						definition -> definition.getIndexOptions().getOrDefault("partialFilterExpression", "none")));
+		final Document live = new Document("deleted", false);
+		assertEquals(live, filters.get("owner_id_live"));
+		assertEquals(live, filters.get("owner_done_createdDate_live"));
+		assertEquals(live, filters.get("owner_descriptionFolded_live"));
+		assertEquals("none", filters.get("owner_description_text"));
+		assertEquals("none", filters.get("deletedAt_tombstones"));
+	}
+
+	private static IndexInfo info(String name) {
+		return new IndexInfo(List.of(), name, false, false, null);
+	}
+
+}
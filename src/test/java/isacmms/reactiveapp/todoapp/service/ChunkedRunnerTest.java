@@ -0,0 +1,77 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+class ChunkedRunnerTest {
+
+	private final List<String> calls = new ArrayList<>();
+
+	@Test
+	@DisplayName("Test chunks follow the last item of the previous one, after the delay, until a short chunk")
+	void testGivenFiveItems_ThenRun_ExpectThreeChunksAndDelays() {
+		final ChunkedRunner chunks = new ChunkedRunner(2, Duration.ofSeconds(1));
+
+		StepVerifier.withVirtualTime(() -> chunks.run(this::read, this::handle))
+			.expectSubscription()
+			.expectNoEvent(Duration.ofSeconds(1))
+			.thenAwait(Duration.ofSeconds(1))
+			.verifyComplete();
+
+		assertEquals(List.of("read null", "handle null [1, 2]", "read 2", "handle 2 [3, 4]", "read 4", "handle 4 [5]"), calls);
+	}
+
+	@Test
+	@DisplayName("Test a full last chunk ends with an empty read, never handled")
+	void testGivenFourItems_ThenRun_ExpectEmptyChunkNotHandled() {
+		final ChunkedRunner chunks = new ChunkedRunner(2, Duration.ZERO);
+
+		StepVerifier.create(chunks.run((Integer after, Integer limit) -> read(after, limit).filter(item -> item < 5), this::handle))
+			.verifyComplete();
+
+		assertEquals(List.of("read null", "handle null [1, 2]", "read 2", "handle 2 [3, 4]", "read 4"), calls);
+	}
+
+	@Test
+	@DisplayName("Test stopped run reads no further chunk")
+	void testGivenStoppedDuringChunk_ThenRun_ExpectSingleChunk() {
+		final ChunkedRunner chunks = new ChunkedRunner(2, Duration.ZERO);
+		final AtomicBoolean stopped = new AtomicBoolean();
+
+		StepVerifier.create(chunks.run(this::read, (after, items) -> handle(after, items).doOnSuccess(v -> stopped.set(true)), stopped::get))
+			.verifyComplete();
+
+		assertEquals(List.of("read null", "handle null [1, 2]"), calls);
+	}
+
+	/**
+	 * Items 1 to 5.
+	 */
+	private Flux<Integer> read(Integer after, Integer limit) {
+		return Flux.defer(() -> {
+			calls.add("read " + after);
+			return Flux.range(after == null ? 1 : after + 1, limit).filter(item -> item <= 5);
+		});
+	}
+
+	private Mono<Void> handle(Integer after, List<Integer> items) {
+		return Mono.fromRunnable(() -> calls.add("handle " + after + " " + items));
+	}
+
+}
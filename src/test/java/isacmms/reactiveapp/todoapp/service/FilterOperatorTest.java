@@ -0,0 +1,59 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class FilterOperatorTest {
+	
+	@Test
+	@DisplayName("Test values are converted to the registered field type")
+	void testGivenTypedFilters_ThenCriteria_ExpectTypedValues() {
+		assertEquals(new Document("done", true), 
+				FilterOperator.criteria("done__eq", "true").getCriteriaObject());
+		assertEquals(new Document("createdDate", new Document("$gte", Instant.parse("2020-06-01T00:00:00Z"))), 
+				FilterOperator.criteria("createdDate__gte", "2020-06-01").getCriteriaObject());
+		assertEquals(new Document("lastModifiedDate", new Document("$lt", Instant.parse("2020-06-01T10:15:30Z"))), 
+				FilterOperator.criteria("lastModifiedDate__lt", "2020-06-01T10:15:30Z").getCriteriaObject());
+		
+		final ObjectId first = new ObjectId();
+		final ObjectId second = new ObjectId();
+		assertEquals(new Document("_id", new Document("$in", List.of(first, second))), 
+				FilterOperator.criteria("_id__in", first + "," + second).getCriteriaObject());
+	}
+	
+	@Test
+	@DisplayName("Test operator suffixes do not shadow each other")
+	void testGivenSimilarSuffixes_ThenOf_ExpectExactOperator() {
+		assertEquals(FilterOperator.GTE, FilterOperator.of("createdDate__gte").get());
+		assertEquals(FilterOperator.GT, FilterOperator.of("createdDate__gt").get());
+		assertEquals(FilterOperator.NIN, FilterOperator.of("_id__nin").get());
+		assertTrue(FilterOperator.of("description__regex").isEmpty());
+		assertTrue(FilterOperator.of("__eq").isEmpty());
+	}
+	
+	@Test
+	@DisplayName("Test unknown fields and unparseable values are bad requests")
+	void testGivenInvalidFilter_ThenCriteria_ExpectBadRequest() {
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> FilterOperator.criteria("nope__eq", "1")).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> FilterOperator.criteria("done__eq", "yes")).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> FilterOperator.criteria("createdDate__gte", "yesterday")).getStatus());
+	}
+	
+}
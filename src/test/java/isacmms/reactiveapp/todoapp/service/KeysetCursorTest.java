@@ -0,0 +1,163 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class KeysetCursorTest {
+
+	@Test
+	@DisplayName("Test keyset sort appends _id as tie breaker")
+	void testGivenSortWithoutId_ThenKeysetSort_ExpectIdAppended() {
+		final Sort sort = KeysetCursor.keysetSort(Sort.by(Direction.DESC, "done"));
+		
+		assertEquals(Sort.by(Sort.Order.desc("done"), Sort.Order.asc("_id")), sort);
+		assertSame(sort, KeysetCursor.keysetSort(sort));
+	}
+	
+	@Test
+	@DisplayName("Test cursor encode and decode keep sort values and types")
+	void testGivenDocument_ThenEncodeAndDecode_ExpectSameSortValues() {
+		final ObjectId id = new ObjectId();
+		final Sort sort = KeysetCursor.keysetSort(Sort.by("done"));
+		final Document document = new Document("_id", id)
+				.append("done", true)
+				.append("description", "Descrição teste");
+		
+		final Document values = KeysetCursor.decode(KeysetCursor.encode(document, sort), sort);
+		
+		assertAll(
+				() -> assertEquals(List.of("done", "_id"), List.copyOf(values.keySet())),
+				() -> assertEquals(true, values.get("done")),
+				() -> assertEquals(id, values.get("_id")));
+	}
+	
+	@Test
+	@DisplayName("Test cursor issued for another sort is rejected")
+	void testGivenCursorOfAnotherSort_ThenDecode_ExpectBadRequest() {
+		final Document document = new Document("_id", new ObjectId()).append("done", true);
+		final String cursor = KeysetCursor.encode(document, KeysetCursor.keysetSort(Sort.by("done")));
+		
+		final ResponseStatusException e = assertThrows(ResponseStatusException.class, 
+				() -> KeysetCursor.decode(cursor, KeysetCursor.keysetSort(Sort.unsorted())));
+		assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+		assertThrows(ResponseStatusException.class, 
+				() -> KeysetCursor.decode("not a cursor", KeysetCursor.keysetSort(Sort.unsorted())));
+	}
+	
+	@Test
+	@DisplayName("Test cursor holding an operator document or a value of another type is rejected")
+	void testGivenCraftedCursorValues_ThenDecode_ExpectBadRequest() {
+		final Sort sort = KeysetCursor.keysetSort(Sort.by("description"));
+		final String operator = KeysetCursor.encode(new Document("description", new Document("$gt", ""))
+				.append("_id", new ObjectId()), sort);
+		final String mistyped = KeysetCursor.encode(new Document("description", 42)
+				.append("_id", new ObjectId()), sort);
+		
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> KeysetCursor.decode(operator, sort)).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> KeysetCursor.decode(mistyped, sort)).getStatus());
+		assertNull(KeysetCursor.decode(KeysetCursor.encode(new Document("_id", new ObjectId()), sort), sort).get("description"));
+	}
+	
+	@Test
+	@DisplayName("Test range predicate follows sort direction")
+	void testGivenCursorValues_ThenCriteria_ExpectRangePredicate() {
+		final ObjectId id = new ObjectId();
+		final Sort sort = KeysetCursor.keysetSort(Sort.by(Direction.DESC, "done"));
+		
+		final Document criteria = KeysetCursor.criteria(sort, new Document("done", true).append("_id", id))
+				.getCriteriaObject();
+		
+		final Document expected = Document.parse("{ $or: [ "
+				+ "{ $and: [ { $or: [ { done: { $lt: true } }, { done: null } ] } ] }, "
+				+ "{ $and: [ { done: true }, { _id: { $gt: { $oid: '" + id.toHexString() + "' } } } ] } ] }");
+		assertEquals(expected.toJson(), criteria.toJson());
+	}
+	
+	@Test
+	@DisplayName("Test range predicate pages through missing and present values in comparator order")
+	void testGivenMixedNullSortValues_ThenCriteria_ExpectDocumentsAfterCursor() {
+		final List<Integer> ranks = Arrays.asList(null, 2, null, 1, 3, 2);
+		final List<Document> documents = new ArrayList<>();
+		ranks.forEach(rank -> documents.add(new Document("_id", new ObjectId()).append("rank", rank)));
+		
+		for (Direction direction : Direction.values()) {
+			final Sort sort = KeysetCursor.keysetSort(Sort.by(direction, "rank"));
+			final List<Document> sorted = new ArrayList<>(documents);
+			sorted.sort(KeysetCursor.comparator(sort));
+			for (int i = 0; i < sorted.size(); i++) {
+				final Document cursor = sorted.get(i);
+				final Document criteria = KeysetCursor.criteria(sort, new Document("rank", cursor.get("rank")).append("_id", cursor.get("_id")))
+						.getCriteriaObject();
+				
+				final List<Document> after = sorted.stream()
+						.filter(document -> matches(criteria, document))
+						.collect(Collectors.toList());
+				
+				assertEquals(sorted.subList(i + 1, sorted.size()), after, direction + " after " + cursor.toJson());
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Test comparator orders documents as the sort, missing values first")
+	void testGivenDocumentsFromTwoSources_ThenComparator_ExpectSortOrder() {
+		final ObjectId first = new ObjectId();
+		final ObjectId second = new ObjectId();
+		final Sort sort = KeysetCursor.keysetSort(Sort.by(Direction.DESC, "done"));
+		final Document openFirst = new Document("_id", first).append("done", false);
+		final Document openSecond = new Document("_id", second).append("done", false);
+		final Document done = new Document("_id", second).append("done", true);
+		final Document unknown = new Document("_id", first);
+		
+		final List<Document> sorted = new ArrayList<>(List.of(openSecond, unknown, openFirst, done));
+		sorted.sort(KeysetCursor.comparator(sort));
+		
+		assertEquals(List.of(done, openFirst, openSecond, unknown), sorted);
+	}
+	
+	/**
+	 * Evaluates the operators the range predicate uses, comparing present values only, as Mongo does.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean matches(Document criteria, Document document) {
+		return criteria.entrySet().stream().allMatch(condition -> {
+			if ("$or".equals(condition.getKey()))
+				return ((List<Document>) condition.getValue()).stream().anyMatch(branch -> matches(branch, document));
+			if ("$and".equals(condition.getKey()))
+				return ((List<Document>) condition.getValue()).stream().allMatch(branch -> matches(branch, document));
+			final Object actual = document.get(condition.getKey());
+			if (!(condition.getValue() instanceof Document))
+				return Objects.equals(condition.getValue(), actual);
+			final Map.Entry<String, Object> operator = ((Document) condition.getValue()).entrySet().iterator().next();
+			if ("$ne".equals(operator.getKey()))
+				return !Objects.equals(operator.getValue(), actual);
+			if (actual == null || operator.getValue() == null)
+				return false;
+			final int comparison = ((Comparable<Object>) actual).compareTo(operator.getValue());
+			return "$gt".equals(operator.getKey()) ? comparison > 0 : comparison < 0;
+		});
+	}
+	
+}
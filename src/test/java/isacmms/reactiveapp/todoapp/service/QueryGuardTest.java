@@ -0,0 +1,96 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.ServerAddress;
+import com.mongodb.MongoQueryException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class QueryGuardTest {
+	
+	private SimpleMeterRegistry registry;
+	private QueryGuard guard;
+	
+	@BeforeEach
+	void setUp() {
+		this.registry = new SimpleMeterRegistry();
+		this.guard = new QueryGuard(this.registry, 16, 4, Duration.ofMillis(500L), 3);
+	}
+	
+	@Test
+	@DisplayName("Test nested quantifiers are detected outside escapes and character classes")
+	void testGivenPatterns_ThenHasNestedQuantifier_ExpectOnlyStarHeightAboveOne() {
+		assertTrue(QueryGuard.hasNestedQuantifier("(a+)+"));
+		assertTrue(QueryGuard.hasNestedQuantifier("^(\\w*\\s?)*$"));
+		assertTrue(QueryGuard.hasNestedQuantifier("((ab)+c)*"));
+		assertTrue(QueryGuard.hasNestedQuantifier("(x+){2,}"));
+		assertFalse(QueryGuard.hasNestedQuantifier("(ab)+c*"));
+		assertFalse(QueryGuard.hasNestedQuantifier("(a+)b+"));
+		assertFalse(QueryGuard.hasNestedQuantifier("\\(a+\\)+"));
+		assertFalse(QueryGuard.hasNestedQuantifier("[(a+)]+"));
+	}
+	
+	@Test
+	@DisplayName("Test long and complex expressions are rejected with 400 and counted by reason")
+	void testGivenDangerousPatterns_ThenCheckPattern_ExpectBadRequestAndCounters() {
+		guard.checkPattern("description", "^buy milk");
+		
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> guard.checkPattern("description", "a".repeat(17))).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> guard.checkPattern("description", "(a+)+b")).getStatus());
+		assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, 
+				() -> guard.checkPattern("description", "a*b*c*d*e*")).getStatus());
+		
+		assertEquals(1.0, registry.get(QueryGuard.REJECTED).tag("reason", "length").counter().count());
+		assertEquals(2.0, registry.get(QueryGuard.REJECTED).tag("reason", "complexity").counter().count());
+	}
+	
+	@Test
+	@DisplayName("Test unpaged listing over the cap fails with 413 and query asks one over the cap")
+	void testGivenMoreResultsThanCap_ThenCapped_ExpectPayloadTooLarge() {
+		assertEquals(4, guard.cap(new org.springframework.data.mongodb.core.query.Query()).getLimit());
+		
+		StepVerifier.create(guard.capped(Flux.range(0, 3)))
+			.expectNext(0, 1, 2)
+			.verifyComplete();
+		StepVerifier.create(guard.capped(Flux.range(0, 4)))
+			.expectNext(0, 1, 2)
+			.verifyErrorSatisfies(e -> 
+				assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, ((ResponseStatusException) e).getStatus()));
+		assertEquals(1.0, registry.get(QueryGuard.REJECTED).tag("reason", "results").counter().count());
+	}
+	
+	@Test
+	@DisplayName("Test maxTimeMS expirations become 504 and are counted, other errors pass through")
+	void testGivenTimeout_ThenTranslate_ExpectGatewayTimeout() {
+		final Throwable timeout = new UncategorizedMongoDbException("timeout", 
+				new MongoExecutionTimeoutException(50, "operation exceeded time limit"));
+		final Throwable coded = new MongoQueryException(new ServerAddress(), 50, "operation exceeded time limit");
+		final Throwable other = new IllegalStateException();
+		
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, ((ResponseStatusException) guard.translate(timeout)).getStatus());
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, ((ResponseStatusException) guard.translate(coded)).getStatus());
+		assertSame(other, guard.translate(other));
+		assertEquals(2.0, registry.get(QueryGuard.TIMEOUTS).counter().count());
+	}
+	
+}
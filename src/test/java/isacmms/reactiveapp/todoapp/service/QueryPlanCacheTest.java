@@ -0,0 +1,90 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class QueryPlanCacheTest {
+	
+	private SimpleMeterRegistry registry;
+	private QueryPlanCache plans;
+	
+	@BeforeEach
+	void setUp() {
+		this.registry = new SimpleMeterRegistry();
+		this.plans = new QueryPlanCache(this.registry, 
+				new QueryGuard(this.registry, 256, 16, Duration.ofSeconds(2L), 10_000), 10L);
+	}
+
+	@Test
+	@DisplayName("Test repeated and reordered filters reuse the same compiled plan")
+	void testGivenSameFiltersInAnotherOrder_ThenPlan_ExpectCacheHit() {
+		final Map<String, String> first = new LinkedHashMap<>();
+		first.put("description", "^abc");
+		first.put("done", "true");
+		final Map<String, String> second = new LinkedHashMap<>();
+		second.put("done", "true");
+		second.put("description", "^abc");
+		
+		final QueryPlan plan = this.plans.plan(first, "-done");
+		
+		assertSame(plan, this.plans.plan(second, "-done"));
+		assertNotSame(plan, this.plans.plan(second, "done"));
+		assertEquals(1L, this.plans.stats().hitCount());
+		assertEquals(2L, this.plans.stats().missCount());
+		assertEquals(1.0, this.registry.get("cache.gets")
+				.tag("cache", QueryPlanCache.CACHE_NAME)
+				.tag("result", "hit")
+				.functionCounter().count());
+	}
+	
+	@Test
+	@DisplayName("Test plan holds compiled patterns, keyset sort and binds owner as equality")
+	void testGivenFilterAndSort_ThenPlan_ExpectCompiledPlanWithOwnerParameter() {
+		final QueryPlan plan = this.plans.plan(Map.of("description", "abc"), "-done", "unknown");
+		
+		assertEquals("abc", plan.getPatterns().get("description").pattern());
+		assertEquals(Sort.by(Sort.Order.desc("done"), Sort.Order.asc("_id")), plan.getSort());
+		
+		final Document query = plan.query("user").getQueryObject();
+		assertEquals("user", query.get("owner"));
+		assertNotNull(query.get("$and"));
+		assertNull(plan.query(null).getQueryObject().get("owner"));
+	}
+	
+	@Test
+	@DisplayName("Test projection keeps requested fields plus the keyset sort properties")
+	void testGivenFields_ThenQuery_ExpectProjectionWithSortProperties() {
+		final QueryPlan plan = this.plans.plan(Map.of(), "-done");
+		
+		final Document fields = plan.query("user", Set.of("description")).getFieldsObject();
+		assertEquals(Set.of("description", "done", "_id"), fields.keySet());
+		assertTrue(plan.query("user", Set.of()).getFieldsObject().isEmpty());
+	}
+	
+	@Test
+	@DisplayName("Test invalid expression has its special characters removed")
+	void testGivenInvalidRegex_ThenPlan_ExpectSanitizedPattern() {
+		final QueryPlan plan = this.plans.plan(Map.of("description", "ab(c"));
+		
+		assertEquals("abc", plan.getPatterns().get("description").pattern());
+		assertNull(this.plans.plan(Map.of()).getCriteria());
+	}
+	
+}
@@ -0,0 +1,109 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import isacmms.reactiveapp.todoapp.config.MongoIndexManager;
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Explain plans of rewritten regex filters on a large seeded collection.
+ * 
+ * @author isacm
+ *
+ */
+@Log4j2
+@DataMongoTest
+class QueryRewriteExplainTest {
+	
+	private static final int OWNERS = 100;
+	private static final int TODOS = 20_000;
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+	
+	private QueryPlanCache plans;
+	
+	@BeforeEach
+	void setUp() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		this.plans = new QueryPlanCache(registry, 
+				new QueryGuard(registry, 256, 16, Duration.ofSeconds(2L), 10_000), 10L);
+		this.mongoTemplate.dropCollection(Todo.class).block();
+		
+		final List<Todo> todos = IntStream.range(0, TODOS)
+				.mapToObj(i -> new Todo(i % 2 == 0, "Task " + i, "owner" + (i % OWNERS)))
+				.collect(Collectors.toList());
+		this.mongoTemplate.insertAll(todos).blockLast();
+		new MongoIndexManager(this.mongoTemplate).ensureIndexes().block();
+	}
+	
+	@Test
+	@DisplayName("Test exact literal filter is answered by an index scan")
+	void testGivenExactLiteralFilter_ThenExplain_ExpectIxscan() {
+		final String winningPlan = explain(this.plans.plan(Map.of("description", "^task 42$")).query("owner42"));
+		
+		assertTrue(winningPlan.contains("IXSCAN"), winningPlan);
+		assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+	}
+	
+	@Test
+	@DisplayName("Test prefix literal filter is answered by an index range scan")
+	void testGivenPrefixLiteralFilter_ThenExplain_ExpectIxscan() {
+		final String winningPlan = explain(this.plans.plan(Map.of("description", "^TASK 4")).query("owner4"));
+		
+		assertTrue(winningPlan.contains("IXSCAN"), winningPlan);
+		assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+	}
+	
+	@Test
+	@DisplayName("Test true regex filter is evaluated after the owner index scan")
+	void testGivenTrueRegexFilter_ThenExplain_ExpectOwnerIxscan() {
+		final String winningPlan = explain(this.plans.plan(Map.of("description", "sk 4.")).query("owner4"));
+		
+		assertTrue(winningPlan.contains("IXSCAN"), winningPlan);
+		assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+	}
+	
+	@Test
+	@DisplayName("Test rewritten filter matches the same todos as the original regex")
+	void testGivenPrefixLiteralFilter_ThenFind_ExpectSameResultsAsRegex() {
+		final long rewritten = this.mongoTemplate
+				.count(this.plans.plan(Map.of("description", "^TASK 4")).query("owner4"), Todo.class)
+				.block();
+		final long regex = this.mongoTemplate
+				.count(this.plans.plan(Map.of("description", "^TASK 4.*")).query("owner4"), Todo.class)
+				.block();
+		
+		assertTrue(rewritten > 0);
+		assertEquals(regex, rewritten);
+	}
+	
+	private String explain(Query query) {
+		final Document command = new Document("explain", 
+				new Document("find", this.mongoTemplate.getCollectionName(Todo.class))
+					.append("filter", query.getQueryObject())
+					.append("sort", query.getSortObject()));
+		final Document explain = this.mongoTemplate.executeCommand(command).block();
+		final String winningPlan = ((Document) explain.get("queryPlanner", Document.class).get("winningPlan")).toJson();
+		log.debug(winningPlan);
+		return winningPlan;
+	}
+	
+}
@@ -0,0 +1,59 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class RegexRewriterTest {
+	
+	@Test
+	@DisplayName("Test anchored literal becomes equality on the folded shadow field")
+	void testGivenExactLiteral_ThenRewrite_ExpectFoldedEquality() {
+		final Document criteria = RegexRewriter.rewrite("description", compile("^Buy Milk\\.$"))
+				.getCriteriaObject();
+		
+		assertEquals(new Document("descriptionFolded", "buy milk."), criteria);
+	}
+	
+	@Test
+	@DisplayName("Test prefix literal becomes a range on the folded shadow field")
+	void testGivenPrefixLiteral_ThenRewrite_ExpectFoldedRange() {
+		final Document criteria = RegexRewriter.rewrite("description", compile("^Buy"))
+				.getCriteriaObject();
+		
+		assertEquals(new Document("descriptionFolded", new Document("$gte", "buy").append("$lt", "buz")), criteria);
+	}
+	
+	@Test
+	@DisplayName("Test true regexes and fields without shadow keep the regex")
+	void testGivenTrueRegex_ThenRewrite_ExpectRegexKept() {
+		assertTrue(RegexRewriter.rewrite("description", compile("milk")).getCriteriaObject().get("description") instanceof Pattern);
+		assertTrue(RegexRewriter.rewrite("description", compile("^mi.k$")).getCriteriaObject().get("description") instanceof Pattern);
+		assertTrue(RegexRewriter.rewrite("description", compile("^\\d+")).getCriteriaObject().get("description") instanceof Pattern);
+		assertTrue(RegexRewriter.rewrite("done", compile("^true$")).getCriteriaObject().get("done") instanceof Pattern);
+	}
+	
+	@Test
+	@DisplayName("Test successor keeps UTF-8 byte order or gives up")
+	void testGivenPrefix_ThenSuccessor_ExpectExclusiveUpperBound() {
+		assertEquals(Optional.of("ab"), RegexRewriter.successor("aa"));
+		assertEquals(Optional.empty(), RegexRewriter.successor(""));
+		assertEquals(Optional.empty(), RegexRewriter.successor("a￿"));
+		assertEquals(Optional.empty(), RegexRewriter.successor("a😀"));
+	}
+	
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+	}
+	
+}
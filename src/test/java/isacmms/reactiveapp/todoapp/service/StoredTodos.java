@@ -0,0 +1,42 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+
+/**
+ * Todos as read back by the chunked jobs, each with a new id.
+ *
+ * @author isacm
+ *
+ */
+final class StoredTodos {
+
+	private StoredTodos() {
+	}
+
+	/**
+	 *
+	 * @return todo as mapped from the collection.
+	 */
+	static Todo todo(String owner) {
+		return new Todo(new ObjectId().toHexString(), 0L, false, "Stored", owner);
+	}
+
+	/**
+	 *
+	 * @return completed todo as read from the wire.
+	 */
+	static Document document(String owner) {
+		return new Document("_id", new ObjectId())
+				.append("owner", owner)
+				.append("done", true)
+				.append("deleted", false);
+	}
+
+	static ObjectId id(Document document) {
+		return document.getObjectId("_id");
+	}
+
+}
@@ -0,0 +1,112 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static isacmms.reactiveapp.todoapp.service.StoredTodos.id;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.DeleteResult;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoArchiverTest {
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@Mock
+	private TodoRepository repository;
+	@Mock
+	private TodoSummaryService summaries;
+	@Mock
+	private TodoReadCache reads;
+	@Mock
+	private TodoJournal journal;
+
+	private TodoArchiver archiver;
+
+	@BeforeEach
+	void setUp() {
+		this.archiver = new TodoArchiver(mongoTemplate, repository, summaries, reads, journal,
+				true, Duration.ofDays(90), Duration.ofHours(1), 3, Duration.ZERO, "snappy");
+		lenient().when(journal.barrier(null)).thenReturn(Mono.empty());
+		lenient().when(journal.exclusive(isNull(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+	}
+
+	@Test
+	@DisplayName("Test archive collection that can't be created fails the startup")
+	void testGivenUnsupportedCompressor_ThenStart_ExpectStartupFailure() {
+		when(mongoTemplate.collectionExists(TodoArchiver.COLLECTION)).thenReturn(Mono.just(false));
+		when(mongoTemplate.getMongoDatabase()).thenReturn(Mono.error(new IllegalArgumentException("unknown compressor")));
+		final ReactiveIndexOperations indexes = mock(ReactiveIndexOperations.class);
+		when(mongoTemplate.indexOps(TodoArchiver.COLLECTION)).thenReturn(indexes);
+		when(indexes.ensureIndex(any())).thenReturn(Mono.just("owner_id"));
+
+		final IllegalStateException e = assertThrows(IllegalStateException.class, () -> archiver.startAfterStartup());
+		assertEquals("unknown compressor", e.getCause().getMessage());
+	}
+
+	@Test
+	@DisplayName("Test archival copies then deletes each chunk and recounts the owners of the chunk")
+	void testGivenArchivableTodos_ThenArchive_ExpectChunkMoved() {
+		final Document mine = StoredTodos.document("user");
+		final Document theirs = StoredTodos.document("other");
+		when(repository.findArchivable(any(Instant.class), isNull(), eq(3))).thenReturn(Flux.just(mine, theirs));
+		when(repository.copyToArchive(List.of(mine, theirs))).thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+		when(repository.deleteArchived(eq(List.of(id(mine), id(theirs))), any(Instant.class)))
+			.thenReturn(Mono.just(DeleteResult.acknowledged(2L)));
+		when(summaries.recount(anyString())).thenReturn(Mono.empty());
+
+		StepVerifier.create(archiver.archive())
+			.expectNext(2L)
+			.verifyComplete();
+
+		verify(journal).barrier(null);
+		verify(repository, never()).deleteStaleArchived(anyList());
+		verify(summaries).recount("user");
+		verify(summaries).recount("other");
+		verify(reads).invalidate("other");
+	}
+
+	@Test
+	@DisplayName("Test todos modified before their delete are dropped from the archive")
+	void testGivenTodoModifiedDuringChunk_ThenArchive_ExpectStaleCopyRemoved() {
+		final Document kept = StoredTodos.document("user");
+		final Document modified = StoredTodos.document("user");
+		when(repository.findArchivable(any(Instant.class), isNull(), eq(3))).thenReturn(Flux.just(kept, modified));
+		when(repository.copyToArchive(anyList())).thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+		when(repository.deleteArchived(anyList(), any(Instant.class))).thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+		when(repository.deleteStaleArchived(List.of(id(kept), id(modified))))
+			.thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+		when(summaries.recount(anyString())).thenReturn(Mono.empty());
+
+		StepVerifier.create(archiver.archive())
+			.expectNext(1L)
+			.verifyComplete();
+
+		verify(repository).deleteStaleArchived(List.of(id(kept), id(modified)));
+	}
+
+}
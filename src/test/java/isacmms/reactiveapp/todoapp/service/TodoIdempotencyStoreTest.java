@@ -0,0 +1,127 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.client.result.UpdateResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoIdempotencyKey;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoIdempotencyStoreTest {
+
+	private static final String ID = "5edecb8015224141b781b9d2";
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+
+	private TodoIdempotencyStore store;
+
+	@BeforeEach
+	void setUp() {
+		this.store = new TodoIdempotencyStore(mongoTemplate, Duration.ofHours(24), Duration.ofMinutes(1), 100);
+	}
+
+	@Test
+	@DisplayName("Test concurrent duplicates collapse onto one insert and later replays skip the database")
+	void testGivenConcurrentDuplicates_ThenExecute_ExpectSingleCreate() {
+		when(mongoTemplate.insert(any(TodoIdempotencyKey.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(TodoIdempotencyKey.class)))
+			.thenReturn(Mono.just(UpdateResult.acknowledged(1L, 1L, null)));
+		final MonoProcessor<Todo> insert = MonoProcessor.create();
+		final AtomicInteger creates = new AtomicInteger();
+		final Todo created = new Todo(ID, 0L, false, "Buy milk", "user");
+
+		final Mono<Todo> first = store.execute("user", "key-1", new Todo(false, "Buy milk"), () -> {
+			creates.incrementAndGet();
+			return insert;
+		});
+		final Mono<Todo> second = store.execute("user", "key-1", new Todo(false, "Buy milk"), () -> {
+			creates.incrementAndGet();
+			return insert;
+		});
+		final MonoProcessor<Todo> firstResult = first.toProcessor();
+		final MonoProcessor<Todo> secondResult = second.toProcessor();
+		insert.onNext(created);
+
+		assertSame(created, firstResult.block());
+		assertSame(created, secondResult.block());
+		StepVerifier.create(store.execute("user", "key-1", new Todo(false, "Buy milk"), Mono::empty))
+			.expectNext(created)
+			.verifyComplete();
+		assertEquals(1, creates.get());
+		verify(mongoTemplate, times(1)).insert(any(TodoIdempotencyKey.class));
+		verify(mongoTemplate, never()).findById(anyString(), eq(TodoIdempotencyKey.class));
+	}
+
+	@Test
+	@DisplayName("Test key reserved by another instance is replayed from the stored todo")
+	void testGivenKeyCompletedElsewhere_ThenExecute_ExpectStoredTodoWithoutCreate() {
+		final Todo created = new Todo(ID, 0L, false, "Buy milk", "user");
+		when(mongoTemplate.insert(any(TodoIdempotencyKey.class))).thenReturn(Mono.error(new DuplicateKeyException("E11000")));
+		when(mongoTemplate.findById("user:key-1", TodoIdempotencyKey.class))
+			.thenReturn(Mono.just(new TodoIdempotencyKey("user:key-1", TodoIdempotencyStore.fingerprint(new Todo(false, "Buy milk")), created, new Date())));
+
+		StepVerifier.create(store.execute("user", "key-1", new Todo(false, "Buy milk"),
+				() -> Mono.error(new AssertionError("Created twice"))))
+			.expectNext(created)
+			.verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test key stays reserved when storing the created todo fails")
+	void testGivenCompletionFailure_ThenExecute_ExpectCreatedTodoAndKeyKept() {
+		final Todo created = new Todo(ID, 0L, false, "Buy milk", "user");
+		when(mongoTemplate.insert(any(TodoIdempotencyKey.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(TodoIdempotencyKey.class)))
+			.thenReturn(Mono.error(new DataAccessResourceFailureException("Mongo down")));
+
+		StepVerifier.create(store.execute("user", "key-1", new Todo(false, "Buy milk"), () -> Mono.just(created)))
+			.expectNext(created)
+			.verifyComplete();
+
+		verify(mongoTemplate, never()).remove(any(TodoIdempotencyKey.class));
+	}
+
+	@Test
+	@DisplayName("Test key reused for another body is rejected with 422")
+	void testGivenKeyReusedWithOtherBody_ThenExecute_ExpectUnprocessableEntity() {
+		when(mongoTemplate.insert(any(TodoIdempotencyKey.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(TodoIdempotencyKey.class)))
+			.thenReturn(Mono.just(UpdateResult.acknowledged(1L, 1L, null)));
+		store.execute("user", "key-1", new Todo(false, "Buy milk"), () -> Mono.just(new Todo(ID, 0L, false, "Buy milk", "user")))
+			.block();
+
+		StepVerifier.create(store.execute("user", "key-1", new Todo(false, "Buy bread"), Mono::empty))
+			.expectErrorSatisfies(e -> assertEquals(422, ((ResponseStatusException) e).getStatus().value()))
+			.verify();
+	}
+
+}
@@ -0,0 +1,383 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TodoJournalTest {
+
+	private static final Duration NEVER = Duration.ofHours(1);
+	private static final Instant AUDITED = Instant.parse("2020-06-08T12:00:00Z");
+
+	@TempDir
+	Path dir;
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@Mock
+	private TodoAuditing auditing;
+	@Mock
+	private TodoSummaryService summaries;
+	@Mock
+	private TodoReadCache reads;
+	@Mock
+	private MongoCollection<Document> collection;
+	@Mock
+	private MongoCollection<Document> deadLetters;
+
+	private TodoJournal journal;
+
+	@BeforeEach
+	void setUp() {
+		final MongoMappingContext context = new MongoMappingContext();
+		final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+		converter.afterPropertiesSet();
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+		when(mongoTemplate.getCollectionName(Todo.class)).thenReturn("todo");
+		when(mongoTemplate.getCollection("todo")).thenReturn(Mono.just(collection));
+		when(summaries.recount(anyString())).thenReturn(Mono.empty());
+		when(summaries.add(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(Mono.empty());
+		when(auditing.beforeConvert(any(Todo.class))).thenAnswer(invocation -> {
+			final Todo todo = invocation.getArgument(0);
+			if (todo.isNew())
+				todo.setCreatedDate(AUDITED);
+			todo.setLastModifiedDate(AUDITED);
+			todo.setLastModifiedBy("user");
+			return Mono.just(todo);
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (this.journal != null)
+			this.journal.destroy();
+	}
+
+	@Test
+	@DisplayName("Test unflushed entries are recovered with their latest state after a restart")
+	void testGivenUnflushedEntries_ThenRestart_ExpectEntriesRecovered() throws Exception {
+		this.journal = journal();
+		final Todo created = this.journal.insert(new Todo(false, "Buy milk", "user")).block();
+		final Todo patched = this.journal.update(created, todo -> {
+					todo.setDone(true);
+					todo.set__v(todo.get__v() + 1);
+					return todo;
+				}, new Document("done", true).append("lastModifiedDate", Instant.now()))
+				.block();
+		assertEquals(true, patched.getDone());
+		this.journal.destroy();
+
+		this.journal = journal();
+
+		StepVerifier.create(this.journal.pending(created.getId()))
+			.assertNext(todo -> {
+				assertEquals(true, todo.getDone());
+				assertEquals("Buy milk", todo.getDescription());
+				assertEquals(1L, todo.get__v());
+			})
+			.verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test concurrent appends sharing disk syncs are all recovered after a restart")
+	void testGivenConcurrentAppends_ThenRestart_ExpectEveryEntryRecovered() throws Exception {
+		this.journal = journal();
+		final List<Todo> appended = Flux.range(0, 50)
+				.flatMap(i -> this.journal.insert(new Todo(false, "Todo " + i, "user")))
+				.collectList()
+				.block();
+		this.journal.destroy();
+
+		this.journal = journal();
+
+		assertEquals(50, appended.size());
+		for (Todo todo : appended)
+			StepVerifier.create(this.journal.pending(todo.getId())).expectNextCount(1).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test recovered entries recount their owners instead of adding deltas again")
+	void testGivenRecoveredEntries_ThenBarrier_ExpectOwnerRecounted() throws Exception {
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+			.thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+		this.journal = journal();
+		this.journal.insert(new Todo(false, "Buy milk", "user")).block();
+		this.journal.destroy();
+		this.journal = journal();
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.verifyComplete();
+
+		verify(summaries).recount("user");
+		verify(summaries, never()).add(anyString(), anyLong(), anyLong(), anyLong());
+	}
+
+	@Test
+	@DisplayName("Test failed summary update keeps the entries pending and the retry recounts")
+	void testGivenSummaryFailure_ThenFlush_ExpectEntriesKeptAndRecounted() {
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+			.thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+		when(summaries.add(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(Mono.error(new IllegalStateException("Summary down")));
+		this.journal = journal(new SimpleMeterRegistry(), Duration.ofSeconds(1));
+		final Todo created = this.journal.insert(new Todo(false, "Buy milk", "user")).block();
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.expectError()
+			.verify();
+
+		StepVerifier.create(this.journal.pending(created.getId())).expectNextCount(1).verifyComplete();
+		verify(summaries, never()).recount(anyString());
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.verifyComplete();
+
+		verify(summaries).recount("user");
+		StepVerifier.create(this.journal.pending(created.getId())).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test torn append at the end of the journal is dropped on recovery")
+	void testGivenCorruptLastEntry_ThenRestart_ExpectOnlyIntactEntries() throws Exception {
+		this.journal = journal();
+		final Todo first = this.journal.insert(new Todo(false, "First", "user")).block();
+		final Todo second = this.journal.insert(new Todo(false, "Second", "user")).block();
+		this.journal.destroy();
+
+		try (RandomAccessFile file = new RandomAccessFile(dir.resolve("todo.journal").toFile(), "rw")) {
+			long end = Long.BYTES;
+			for (int length; (length = readLength(file, end)) > 0; )
+				end += 2 * Integer.BYTES + length;
+			file.seek(end - 1);
+			file.writeByte(0x7f);
+		}
+
+		this.journal = journal();
+
+		StepVerifier.create(this.journal.pending(first.getId())).expectNextCount(1).verifyComplete();
+		StepVerifier.create(this.journal.pending(second.getId())).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test owner barrier waits for one ordered bulk write of the pending entries")
+	@SuppressWarnings("unchecked")
+	void testGivenPendingEntries_ThenBarrier_ExpectFlushedInOrderAndReplayable() {
+		final ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+		when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+			.thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 1, 0, 1, List.of(), List.of())));
+		this.journal = journal();
+		final Todo created = this.journal.insert(new Todo(false, "Buy milk", "user")).block();
+		this.journal.update(created, todo -> {
+					todo.setDone(true);
+					todo.set__v(todo.get__v() + 1);
+					return todo;
+				}, new Document("done", true)).block();
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.verifyComplete();
+
+		assertEquals(2, models.getValue().size());
+		assertTrue(models.getValue().get(0) instanceof InsertOneModel);
+		assertNotNull(((InsertOneModel<Document>) models.getValue().get(0)).getDocument().get("createdDate"));
+		assertTrue(models.getValue().get(1) instanceof UpdateOneModel);
+		final UpdateOneModel<Document> update = (UpdateOneModel<Document>) models.getValue().get(1);
+		final Document set = ((Document) update.getUpdate()).get("$set", Document.class);
+		assertEquals("user", set.get("lastModifiedBy"));
+		assertNotNull(set.get("lastModifiedDate"));
+		assertEquals(0L, ((Document) update.getFilter()).get("__v"));
+		assertEquals(1L, set.get("__v"));
+		assertFalse(((Document) update.getUpdate()).containsKey("$inc"));
+		verify(summaries).add("user", 1, 0, 1);
+		verify(summaries, never()).recount(anyString());
+		verify(reads).invalidate("user");
+		StepVerifier.create(this.journal.pending(created.getId())).verifyComplete();
+		StepVerifier.create(this.journal.barrier("other")).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test entry refused by Mongo is dead-lettered and counted instead of dropped")
+	void testGivenValidationError_ThenBarrier_ExpectEntryDeadLettered() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(new MongoBulkWriteException(
+				BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of()),
+				List.of(new BulkWriteError(121, "Document failed validation", new BsonDocument(), 0)),
+				null,
+				new ServerAddress())));
+		when(mongoTemplate.getCollection("todos_dead_letters")).thenReturn(Mono.just(deadLetters));
+		when(deadLetters.insertOne(any(Document.class))).thenReturn(Mono.just(InsertOneResult.acknowledged(null)));
+		this.journal = journal(registry);
+		final Todo created = this.journal.insert(new Todo(false, "Buy milk", "user")).block();
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.verifyComplete();
+
+		final ArgumentCaptor<Document> letter = ArgumentCaptor.forClass(Document.class);
+		verify(deadLetters).insertOne(letter.capture());
+		assertEquals(created.get_id(), letter.getValue().get("todo"));
+		assertEquals(121, letter.getValue().get("code"));
+		assertEquals(1.0, registry.get("todo.journal.dead.letters").counter().count());
+		StepVerifier.create(this.journal.pending(created.getId())).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test patch whose todo changed before the flush is dead-lettered and adds no delta")
+	void testGivenTodoChangedBeforeFlush_ThenBarrier_ExpectPatchDeadLettered() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		final Todo stored = new Todo(false, "Buy milk", "user");
+		stored.set_id(new ObjectId());
+		stored.set__v(3L);
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+			.thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of())));
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("todo")))
+			.thenReturn(Flux.just(new Document("_id", stored.get_id()).append("__v", 4L).append("lastModifiedDate", new Date())));
+		when(mongoTemplate.getCollection("todos_dead_letters")).thenReturn(Mono.just(deadLetters));
+		when(deadLetters.insertOne(any(Document.class))).thenReturn(Mono.just(InsertOneResult.acknowledged(null)));
+		this.journal = journal(registry);
+		this.journal.update(stored, todo -> {
+					todo.setDone(true);
+					todo.set__v(todo.get__v() + 1);
+					return todo;
+				}, new Document("done", true)).block();
+
+		StepVerifier.create(this.journal.barrier("user"))
+			.verifyComplete();
+
+		final ArgumentCaptor<Document> letter = ArgumentCaptor.forClass(Document.class);
+		verify(deadLetters).insertOne(letter.capture());
+		assertEquals(stored.get_id(), letter.getValue().get("todo"));
+		assertEquals(1.0, registry.get("todo.journal.dead.letters").counter().count());
+		verify(summaries).add("user", 0, 0, 0);
+		StepVerifier.create(this.journal.pending(stored.getId())).verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test appends of an owner wait for its direct write while other owners go on")
+	void testGivenDirectWriteInFlight_ThenInsert_ExpectOwnerAppendHeldBack() {
+		this.journal = journal();
+		final MonoProcessor<String> write = MonoProcessor.create();
+		this.journal.exclusive("user", write).subscribe();
+
+		StepVerifier.create(this.journal.insert(new Todo(false, "Buy milk", "user")))
+			.expectSubscription()
+			.then(() -> assertNotNull(this.journal.insert(new Todo(false, "Buy bread", "other")).block(Duration.ofSeconds(5))))
+			.expectNoEvent(Duration.ofMillis(200))
+			.then(() -> write.onNext("written"))
+			.assertNext(todo -> assertEquals("Buy milk", todo.getDescription()))
+			.verifyComplete();
+	}
+
+	@Test
+	@DisplayName("Test appends wrap to the flushed start of the journal while entries stay pending")
+	void testGivenEntriesPendingAtTheEnd_ThenAppend_ExpectWrappedAndRecovered() throws Exception {
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+			.thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())))
+			.thenReturn(Mono.error(new MongoException("Mongo down")));
+		this.journal = journal(DataSize.ofKilobytes(4), 1);
+		this.journal.insert(new Todo(false, "x".repeat(600), "first")).block();
+		final List<Todo> appended = new ArrayList<>();
+		appended.add(this.journal.insert(new Todo(false, "Buy milk", "user")).block());
+		StepVerifier.create(this.journal.barrier("first")).verifyComplete();
+
+		while (appended.size() < 100) {
+			try {
+				appended.add(this.journal.insert(new Todo(false, "Buy milk", "user")).block());
+			} catch (ResponseStatusException e) {
+				assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+				break;
+			}
+		}
+		this.journal.destroy();
+
+		try (RandomAccessFile file = new RandomAccessFile(dir.resolve("todo.journal").toFile(), "r")) {
+			final long flushed = file.readLong();
+			final int entry = 2 * Integer.BYTES + readLength(file, flushed);
+			assertTrue(appended.size() > (file.length() - flushed - Integer.BYTES) / entry);
+		}
+		this.journal = journal();
+		for (Todo todo : appended)
+			StepVerifier.create(this.journal.pending(todo.getId())).expectNextCount(1).verifyComplete();
+	}
+
+	private static int readLength(RandomAccessFile file, long offset) throws Exception {
+		file.seek(offset);
+		return file.readInt();
+	}
+
+	private TodoJournal journal() {
+		return journal(new SimpleMeterRegistry());
+	}
+
+	private TodoJournal journal(SimpleMeterRegistry registry) {
+		return journal(registry, Duration.ofSeconds(5));
+	}
+
+	private TodoJournal journal(SimpleMeterRegistry registry, Duration readTimeout) {
+		return journal(registry, readTimeout, DataSize.ofKilobytes(64), 100);
+	}
+
+	private TodoJournal journal(DataSize size, int maxBatch) {
+		return journal(new SimpleMeterRegistry(), Duration.ofSeconds(5), size, maxBatch);
+	}
+
+	private TodoJournal journal(SimpleMeterRegistry registry, Duration readTimeout, DataSize size, int maxBatch) {
+		return new TodoJournal(mongoTemplate, auditing, summaries, reads, registry, true,
+				dir.resolve("todo.journal").toString(), size, NEVER, maxBatch, readTimeout);
+	}
+
+}
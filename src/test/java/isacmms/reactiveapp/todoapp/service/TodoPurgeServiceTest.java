@@ -0,0 +1,93 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.mongodb.client.result.DeleteResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoPurgeServiceTest {
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@Mock
+	private TodoRepository repository;
+	@Mock
+	private TodoSummaryService summaries;
+	@Mock
+	private TodoReadCache reads;
+
+	private TodoPurgeService purges;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.getCollectionName(Todo.class)).thenReturn("todos");
+		this.purges = new TodoPurgeService(mongoTemplate, repository, summaries, reads, 2, Duration.ZERO, Duration.ofHours(1));
+	}
+
+	@Test
+	@DisplayName("Test purge deletes each chunk's id range, archive included, and recounts the owners of the chunk")
+	void testGivenOneTodoAndOneArchived_ThenRun_ExpectRangeDeletes() {
+		final Todo live = StoredTodos.todo("user");
+		final Todo archived = StoredTodos.todo("other");
+		when(repository.findIdRange("todos", null, null, 2)).thenReturn(Flux.just(live));
+		when(repository.deleteIdRange("todos", null, null, live.get_id())).thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+		when(repository.findIdRange(TodoArchiver.COLLECTION, null, null, 2)).thenReturn(Flux.just(archived));
+		when(repository.deleteIdRange(TodoArchiver.COLLECTION, null, null, archived.get_id()))
+			.thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+		when(summaries.recount(anyString())).thenReturn(Mono.empty());
+
+		final TodoPurgeJob job = new TodoPurgeJob("job", null);
+		StepVerifier.create(purges.run(job)).verifyComplete();
+
+		assertEquals(2L, job.getDeleted());
+		assertEquals(2L, job.getChunks());
+		verify(summaries).recount("user");
+		verify(summaries).recount("other");
+		verify(reads).invalidate("user");
+		verify(reads).invalidate("other");
+	}
+
+	@Test
+	@DisplayName("Test cancelled purge stops after its current chunk")
+	void testGivenCancelRequested_ThenRun_ExpectSingleChunk() {
+		final Todo first = StoredTodos.todo("user");
+		final Todo second = StoredTodos.todo("user");
+		final TodoPurgeJob job = new TodoPurgeJob("job", "user");
+		when(repository.findIdRange("todos", "user", null, 2)).thenReturn(Flux.just(first, second));
+		when(repository.deleteIdRange("todos", "user", null, second.get_id())).thenAnswer(invocation -> {
+			job.cancel();
+			return Mono.just(DeleteResult.acknowledged(2L));
+		});
+		when(summaries.recount("user")).thenReturn(Mono.empty());
+
+		StepVerifier.create(purges.run(job)).verifyComplete();
+		job.completed();
+
+		assertEquals(TodoPurgeJob.Status.CANCELLED, job.getStatus());
+		assertEquals(2L, job.getDeleted());
+		verify(repository, times(1)).findIdRange(anyString(), eq("user"), any(), eq(2));
+	}
+
+}
@@ -0,0 +1,127 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * 
+ * @author isacm
+ *
+ */
+class TodoReadCacheTest {
+	
+	private SimpleMeterRegistry registry;
+	private TodoReadCache reads;
+	private AtomicInteger loads;
+	
+	@BeforeEach
+	void setUp() {
+		this.registry = new SimpleMeterRegistry();
+		this.reads = new TodoReadCache(this.registry, true, Duration.ofMinutes(1L), 100L, 2);
+		this.loads = new AtomicInteger();
+	}
+	
+	@Test
+	@DisplayName("Test repeated listing is served from cache until the owner writes")
+	void testGivenRepeatedListing_ThenList_ExpectOneLoadUntilInvalidated() {
+		final List<Todo> loaded = list("user", "all").collectList().block();
+		
+		assertEquals(loaded, list("user", "all").collectList().block());
+		assertEquals(1, loads.get());
+		
+		reads.invalidate("other");
+		StepVerifier.create(list("user", "all")).expectNextCount(2).verifyComplete();
+		assertEquals(1, loads.get());
+		
+		reads.invalidate("user");
+		StepVerifier.create(list("user", "all")).expectNextCount(2).verifyComplete();
+		assertEquals(2, loads.get());
+		
+		assertEquals(2L, reads.stats().hitCount());
+		assertEquals(0.5, registry.get(TodoReadCache.CACHE_NAME + ".hit.ratio").gauge().value());
+	}
+	
+	@Test
+	@DisplayName("Test listing miss streams todos as loaded and caches longer listings not at all")
+	void testGivenLongListing_ThenList_ExpectStreamedAndNotCached() {
+		final DirectProcessor<Todo> loading = DirectProcessor.create();
+		final Todo first = new Todo(false, "First", "user");
+		
+		StepVerifier.create(reads.list("user", "long", () -> {
+				loads.incrementAndGet();
+				return loading;
+			}))
+			.then(() -> loading.onNext(first))
+			.expectNext(first)
+			.then(() -> {
+				loading.onNext(new Todo(false, "Second", "user"));
+				loading.onNext(new Todo(false, "Third", "user"));
+				loading.onComplete();
+			})
+			.expectNextCount(2)
+			.verifyComplete();
+		
+		StepVerifier.create(list("user", "long")).expectNextCount(2).verifyComplete();
+		assertEquals(2, loads.get());
+	}
+	
+	@Test
+	@DisplayName("Test read racing a write is not served after the write")
+	void testGivenWriteDuringLoad_ThenOne_ExpectStaleResultDiscarded() {
+		final Mono<String> racing = reads.one("user", "id", () -> {
+			reads.invalidate("user");
+			return Mono.just("stale");
+		});
+		StepVerifier.create(racing).expectNext("stale").verifyComplete();
+		
+		StepVerifier.create(reads.one("user", "id", () -> Mono.just("fresh")))
+			.expectNext("fresh")
+			.verifyComplete();
+	}
+	
+	@Test
+	@DisplayName("Test empty single results are not cached")
+	void testGivenNotFound_ThenOne_ExpectNoCaching() {
+		StepVerifier.create(reads.one("user", "id", () -> Mono.<Todo>empty())).verifyComplete();
+		StepVerifier.create(reads.one("user", "id", () -> Mono.just("found")))
+			.expectNext("found")
+			.verifyComplete();
+	}
+	
+	@Test
+	@DisplayName("Test owner whose generation was evicted never reads entries cached before its writes")
+	void testGivenGenerationsEvicted_ThenInvalidate_ExpectFreshLoad() {
+		list("user", "all").blockLast();
+		reads.invalidate("user");
+		list("user", "all").blockLast();
+		for (int i = 0; i < 1000; i++)
+			reads.invalidate("owner" + i);
+		
+		reads.invalidate("user");
+		list("user", "all").blockLast();
+		
+		assertEquals(3, loads.get());
+	}
+	
+	private Flux<Todo> list(String owner, Object query) {
+		return reads.list(owner, query, () -> {
+			loads.incrementAndGet();
+			return Flux.just(new Todo(false, "First", "user"), new Todo(true, "Second", "user"));
+		});
+	}
+	
+}
@@ -0,0 +1,250 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.web.server.ResponseStatusException;
+
+import isacmms.reactiveapp.todoapp.api.event.TodoBatchCreatedEvent;
+import isacmms.reactiveapp.todoapp.api.event.TodosChangedEvent;
+import com.mongodb.client.result.UpdateResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoServiceTest {
+
+	private static final String ID = "5edecb8015224141b781b9d2";
+
+	@Mock
+	private ApplicationEventPublisher publisher;
+	@Mock
+	private TodoRepository repository;
+	@Mock
+	private QueryPlanCache plans;
+	@Mock
+	private TodoSummaryService summaries;
+	@Mock
+	private TodoReadCache reads;
+	@Mock
+	private TodoPurgeService purges;
+	@Mock
+	private TodoWriteCoalescer inserts;
+	@Mock
+	private TodoIdempotencyStore idempotency;
+	@Mock
+	private TodoJournal journal;
+
+	private TodoService service;
+
+	@BeforeEach
+	void setUp() {
+		this.service = new TodoService(publisher, repository, plans, summaries, reads, purges, inserts, idempotency, journal, 50, 500, 2, 1);
+		lenient().when(journal.barrier(any())).thenReturn(Mono.empty());
+		lenient().when(journal.exclusive(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+	}
+
+	@Test
+	@DisplayName("Test patch is one findAndModify setting only the sent fields")
+	void testGivenDoneOnlyPatch_ThenPatch_ExpectSingleFindAndModifyWithDoneSet() {
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(repository.findAndModify(eq(ID), eq("user"), isNull(), update.capture()))
+			.thenReturn(Mono.just(new Todo(ID, 2L, false, "Keep me", "user")));
+		when(summaries.changed(any(Todo.class), eq(false)))
+			.thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		StepVerifier.create(service.patch(ID, new Todo(true, null), "user", null))
+			.assertNext(todo -> {
+				assertEquals(true, todo.getDone());
+				assertEquals("Keep me", todo.getDescription());
+				assertEquals(3L, todo.get__v());
+				assertTrue(todo.getLastModifiedDate().isPresent());
+			})
+			.verifyComplete();
+
+		final Document set = (Document) update.getValue().getUpdateObject().get("$set");
+		assertEquals(true, set.get("done"));
+		assertFalse(set.containsKey("description"));
+		assertTrue(set.containsKey("lastModifiedDate"));
+		verify(repository, never()).findBy_idInAndOwner(anyString(), anyString());
+		verify(repository, never()).save(any(Todo.class));
+		verify(reads).invalidate("user");
+	}
+
+	@Test
+	@DisplayName("Test update sets every editable field including the folded description")
+	void testGivenUpdate_ThenUpdate_ExpectDescriptionAndShadowSet() {
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(repository.findAndModify(eq(ID), isNull(), isNull(), update.capture())).thenReturn(Mono.empty());
+		when(repository.restoreArchived(ID, null)).thenReturn(Mono.empty());
+
+		StepVerifier.create(service.updateIgnoreOwnership(ID, new Todo(false, "Buy MILK"), null))
+			.verifyComplete();
+
+		final Document set = (Document) update.getValue().getUpdateObject().get("$set");
+		assertEquals("Buy MILK", set.get("description"));
+		assertEquals("buy milk", set.get("descriptionFolded"));
+		assertEquals(false, set.get("done"));
+		verifyNoInteractions(summaries, reads);
+	}
+
+	@Test
+	@DisplayName("Test update with an outdated version fails with 412 without retrying")
+	void testGivenOutdatedVersion_ThenUpdate_ExpectPreconditionFailed() {
+		when(repository.findAndModify(eq(ID), eq("user"), eq(2L), any(Update.class))).thenReturn(Mono.empty());
+		final Todo current = new Todo(ID, 3L, false, "Changed", "user");
+		current.setFieldVersions(Map.of("description", 3L));
+		when(repository.findBy_idInAndOwner(ID, "user")).thenReturn(Mono.just(current));
+
+		StepVerifier.create(service.update(ID, new Todo(true, "Mine"), "user", 2L))
+			.expectErrorSatisfies(e -> assertEquals(412, ((ResponseStatusException) e).getStatus().value()))
+			.verify();
+
+		verify(repository, times(1)).findAndModify(anyString(), anyString(), any(), any(Update.class));
+		verifyNoInteractions(summaries, reads);
+	}
+
+	@Test
+	@DisplayName("Test patch of a field untouched since the expected version is retried over the current one")
+	void testGivenDisjointConcurrentChange_ThenPatch_ExpectRetriedOverCurrentVersion() {
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(repository.findAndModify(eq(ID), eq("user"), eq(2L), any(Update.class))).thenReturn(Mono.empty());
+		final Todo current = new Todo(ID, 3L, false, "Changed", "user");
+		current.setFieldVersions(Map.of("description", 3L, "done", 1L));
+		when(repository.findBy_idInAndOwner(ID, "user")).thenReturn(Mono.just(current));
+		when(repository.findAndModify(eq(ID), eq("user"), eq(3L), update.capture())).thenReturn(Mono.just(current));
+		when(summaries.changed(any(Todo.class), eq(false)))
+			.thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		StepVerifier.create(service.patch(ID, new Todo(true, null), "user", 2L))
+			.assertNext(todo -> {
+				assertEquals(true, todo.getDone());
+				assertEquals("Changed", todo.getDescription());
+				assertEquals(4L, todo.get__v());
+			})
+			.verifyComplete();
+
+		final Document set = (Document) update.getValue().getUpdateObject().get("$set");
+		assertEquals(4L, set.get("fieldVersions.done"));
+		assertFalse(set.containsKey("fieldVersions.description"));
+	}
+
+	@Test
+	@DisplayName("Test patch of an archived todo moves it back, counts it again and then writes it")
+	void testGivenArchivedTodo_ThenPatch_ExpectRestoredAndWritten() {
+		final Todo archived = new Todo(ID, 2L, true, "Archived", "user");
+		when(repository.findAndModify(eq(ID), eq("user"), isNull(), any(Update.class)))
+			.thenReturn(Mono.empty(), Mono.just(archived));
+		when(repository.restoreArchived(ID, "user")).thenReturn(Mono.just(archived));
+		when(summaries.created(archived)).thenReturn(Mono.just(archived));
+		when(summaries.changed(any(Todo.class), eq(true)))
+			.thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		StepVerifier.create(service.patch(ID, new Todo(false, null), "user", null))
+			.assertNext(todo -> assertEquals(false, todo.getDone()))
+			.verifyComplete();
+
+		verify(repository, times(2)).findAndModify(eq(ID), eq("user"), isNull(), any(Update.class));
+	}
+
+	@Test
+	@DisplayName("Test delete is one findAndModify leaving a tombstone scoped by owner")
+	void testGivenOwnedTodo_ThenDelete_ExpectTombstoneAndDiscounted() {
+		final Todo removed = new Todo(ID, 0L, true, "Gone", "user");
+		when(repository.findAndTombstone(eq(ID), eq("user"), any(Instant.class))).thenReturn(Mono.just(removed));
+		when(summaries.deleted(removed)).thenReturn(Mono.just(removed));
+
+		StepVerifier.create(service.delete(ID, "user"))
+			.expectNext(removed)
+			.verifyComplete();
+
+		verify(repository, never()).deleteById(anyString());
+		verify(reads).invalidate("user");
+	}
+
+	@Test
+	@DisplayName("Test bulk creation inserts, counts and publishes once per batch and keeps rejected items")
+	void testGivenItemsOverTwoBatches_ThenCreateAll_ExpectOneInsertManyPerBatch() {
+		when(repository.insert(anyList())).thenAnswer(invocation -> {
+			final List<Todo> todos = invocation.getArgument(0);
+			todos.forEach(todo -> todo.set_id(new ObjectId()));
+			return Flux.fromIterable(todos);
+		});
+		when(summaries.createdAll(eq("user"), anyList())).thenReturn(Mono.empty());
+
+		StepVerifier.create(service.createAll(Flux.just(
+					TodoBatchItem.pending(0, new Todo(null, "First")),
+					TodoBatchItem.failed(1, 422, "{\"description\":\"must not be blank\"}"),
+					TodoBatchItem.pending(2, new Todo(true, "Third"))), "user"))
+			.assertNext(item -> {
+				assertEquals(0, item.getIndex());
+				assertEquals(201, item.getStatus());
+				assertEquals(false, item.getTodo().getDone());
+				assertEquals("user", item.getTodo().getOwner());
+			})
+			.assertNext(item -> assertEquals(422, item.getStatus()))
+			.assertNext(item -> assertEquals(201, item.getStatus()))
+			.verifyComplete();
+
+		verify(repository, times(2)).insert(anyList());
+		verify(repository, never()).save(any(Todo.class));
+		verify(summaries, times(2)).createdAll(eq("user"), anyList());
+		verify(publisher, times(2)).publishEvent(any(TodoBatchCreatedEvent.class));
+		verify(reads, times(2)).invalidate("user");
+	}
+
+	@Test
+	@DisplayName("Test bulk patch is one owner scoped updateMany bumping versions, then one recount")
+	void testGivenDoneFilter_ThenPatchMatching_ExpectSingleUpdateManyAndRecount() {
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(repository.updateByPlan(any(), eq("user"), update.capture()))
+			.thenReturn(Mono.just(UpdateResult.acknowledged(3L, 2L, null)));
+		when(summaries.recount("user")).thenReturn(Mono.empty());
+
+		StepVerifier.create(service.patchMatching("user", Map.of(), Map.of("done__eq", "false"), new Todo(true, null)))
+			.expectNext(new TodoBulkResult(3L, 2L))
+			.verifyComplete();
+
+		final Document set = (Document) update.getValue().getUpdateObject().get("$set");
+		assertEquals(true, set.get("done"));
+		assertFalse(set.containsKey("description"));
+		assertEquals(1, ((Document) update.getValue().getUpdateObject().get("$inc")).get("__v"));
+		verify(plans).plan(Map.of(), Map.of("done__eq", "false"));
+		verify(reads).invalidate("user");
+		verify(publisher).publishEvent(any(TodosChangedEvent.class));
+	}
+
+	@Test
+	@DisplayName("Test bulk patch without fields is rejected before writing")
+	void testGivenEmptyPatch_ThenPatchMatching_ExpectBadRequest() {
+		StepVerifier.create(service.patchMatching("user", Map.of(), Map.of("done__eq", "false"), new Todo(null, null)))
+			.verifyError(ResponseStatusException.class);
+
+		verifyNoInteractions(repository, summaries, reads, publisher);
+	}
+
+}
@@ -0,0 +1,88 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.client.result.UpdateResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import isacmms.reactiveapp.todoapp.model.TodoSummary;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoSummaryServiceTest {
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@InjectMocks
+	private TodoSummaryService summaries;
+
+	@Test
+	@DisplayName("Test done todo moving back to open is one $inc on the owner's counters")
+	void testGivenDoneTodoReopened_ThenChanged_ExpectOpenIncrementedAndDoneDecremented() {
+		final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(mongoTemplate.upsert(query.capture(), update.capture(), eq(TodoSummary.class)))
+			.thenReturn(Mono.just(UpdateResult.acknowledged(1L, 1L, null)));
+
+		final Todo todo = new Todo(false, "Reopened", "user");
+		StepVerifier.create(summaries.changed(todo, true))
+			.expectNext(todo)
+			.verifyComplete();
+
+		assertEquals("user", query.getValue().getQueryObject().get("_id"));
+		final Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+		assertEquals(0L, inc.get("total"));
+		assertEquals(1L, inc.get("open"));
+		assertEquals(-1L, inc.get("done"));
+		assertEquals(1, inc.get("changes"));
+	}
+
+	@Test
+	@DisplayName("Test write not changing done state only counts the change")
+	void testGivenSameState_ThenChanged_ExpectOnlyChangesIncremented() {
+		final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		when(mongoTemplate.upsert(any(Query.class), update.capture(), eq(TodoSummary.class)))
+			.thenReturn(Mono.just(UpdateResult.acknowledged(1L, 1L, null)));
+		final Todo todo = new Todo(true, "Still done", "user");
+
+		StepVerifier.create(summaries.changed(todo, true))
+			.expectNext(todo)
+			.verifyComplete();
+
+		final Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+		assertEquals(0L, inc.get("open"));
+		assertEquals(0L, inc.get("done"));
+		assertEquals(1, inc.get("changes"));
+	}
+
+	@Test
+	@DisplayName("Test owner without counters gets an empty summary")
+	void testGivenUnknownOwner_ThenFind_ExpectZeroedSummary() {
+		when(mongoTemplate.findById("nobody", TodoSummary.class)).thenReturn(Mono.empty());
+
+		StepVerifier.create(summaries.find("nobody"))
+			.expectNext(TodoSummary.empty("nobody"))
+			.verifyComplete();
+	}
+
+}
@@ -0,0 +1,70 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.mongodb.client.result.DeleteResult;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoTombstonePurgerTest {
+
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@Mock
+	private TodoRepository repository;
+
+	private TodoTombstonePurger purger;
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.getCollectionName(Todo.class)).thenReturn("todos");
+		this.purger = new TodoTombstonePurger(mongoTemplate, repository, Duration.ofDays(7), Duration.ofHours(1), 2, Duration.ZERO);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.purger.destroy();
+	}
+
+	@Test
+	@DisplayName("Test purge removes expired tombstones from the todos collection and the archive")
+	void testGivenExpiredTombstoneAndArchivedOne_ThenPurge_ExpectBothDeleted() {
+		final Todo live = StoredTodos.todo("user");
+		final Todo archived = StoredTodos.todo("user");
+		when(repository.findExpiredTombstones(eq("todos"), any(Instant.class), eq(2))).thenReturn(Flux.just(live));
+		when(repository.deleteTombstones("todos", List.of(live.get_id())))
+			.thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+		when(repository.findExpiredTombstones(eq(TodoArchiver.COLLECTION), any(Instant.class), eq(2)))
+			.thenReturn(Flux.just(archived));
+		when(repository.deleteTombstones(TodoArchiver.COLLECTION, List.of(archived.get_id())))
+			.thenReturn(Mono.just(DeleteResult.acknowledged(1L)));
+
+		StepVerifier.create(purger.purge())
+			.expectNext(2L)
+			.verifyComplete();
+	}
+
+}
@@ -0,0 +1,164 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+
+/**
+ *
+ * @author isacm
+ *
+ */
+@ExtendWith(MockitoExtension.class)
+class TodoWriteCoalescerTest {
+
+	@Mock
+	private TodoRepository repository;
+	@Mock
+	private ReactiveMongoTemplate mongoTemplate;
+	@Mock
+	private MongoCollection<Document> collection;
+	@Mock
+	private TodoAuditing auditing;
+
+	private TodoWriteCoalescer inserts;
+
+	@BeforeEach
+	void setUp() {
+		final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+		converter.afterPropertiesSet();
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+		when(mongoTemplate.getCollectionName(Todo.class)).thenReturn("todo");
+		when(mongoTemplate.getCollection("todo")).thenReturn(Mono.just(collection));
+		when(auditing.beforeConvert(any(Todo.class))).thenAnswer(invocation -> {
+			final Todo todo = invocation.getArgument(0);
+			todo.setCreatedBy(todo.get_id() == null ? "user" : null);
+			todo.setLastModifiedDate(Instant.EPOCH);
+			return Mono.just(todo);
+		});
+		this.inserts = new TodoWriteCoalescer(repository, mongoTemplate, auditing, true, Duration.ofSeconds(5), 3);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.inserts.destroy();
+	}
+
+	@Test
+	@DisplayName("Test concurrent inserts are written by one unordered bulkWrite")
+	@SuppressWarnings("unchecked")
+	void testGivenThreeConcurrentInserts_ThenInsert_ExpectSingleBulkWrite() {
+		final ArgumentCaptor<List<InsertOneModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+		final ArgumentCaptor<BulkWriteOptions> options = ArgumentCaptor.forClass(BulkWriteOptions.class);
+		when(collection.bulkWrite(models.capture(), options.capture())).thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+
+		final List<Signal<Todo>> results = insertAll("First", "Second", "Third");
+
+		results.forEach(result -> {
+			assertTrue(result.isOnNext());
+			assertNotNull(result.get().get_id());
+			assertEquals(0L, result.get().get__v());
+		});
+		assertEquals(3, models.getValue().size());
+		assertEquals("Second", models.getValue().get(1).getDocument().get("description"));
+		assertEquals("user", models.getValue().get(1).getDocument().get("createdBy"));
+		assertNotNull(models.getValue().get(1).getDocument().get("lastModifiedDate"));
+		assertFalse(options.getValue().isOrdered());
+		verify(repository, never()).save(any(Todo.class));
+	}
+
+	@Test
+	@DisplayName("Test bulk write error fails only the caller at its index")
+	void testGivenDuplicateAtSecondIndex_ThenInsert_ExpectOnlySecondCallerFailed() {
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(new MongoBulkWriteException(
+				BulkWriteResult.unacknowledged(),
+				List.of(new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), 1)),
+				null,
+				new ServerAddress())));
+
+		final List<Signal<Todo>> results = insertAll("First", "Second", "Third");
+
+		assertTrue(results.get(0).isOnNext());
+		assertTrue(results.get(1).isOnError());
+		assertTrue(results.get(1).getThrowable() instanceof DuplicateKeyException);
+		assertTrue(results.get(2).isOnNext());
+	}
+
+	@Test
+	@DisplayName("Test flood of inserts completes while bulk writes are slower than the batching window")
+	void testGivenSlowBulkWrites_ThenFloodOfInserts_ExpectEveryInsertCompleted() {
+		this.inserts.destroy();
+		this.inserts = new TodoWriteCoalescer(repository, mongoTemplate, auditing, true, Duration.ofMillis(1), 3);
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+			.thenAnswer(invocation -> Mono.delay(Duration.ofMillis(20)).thenReturn(BulkWriteResult.unacknowledged()));
+
+		final List<Signal<Todo>> results = insertAll(IntStream.range(0, 300)
+				.mapToObj(i -> "Todo number " + i)
+				.toArray(String[]::new));
+
+		assertEquals(300, results.size());
+		results.forEach(result -> assertTrue(result.isOnNext(), () -> String.valueOf(result.getThrowable())));
+	}
+
+	@Test
+	@DisplayName("Test failed writer fails the inserts it held and later inserts use a new one")
+	void testGivenWriterFailure_ThenInsert_ExpectHeldInsertsFailedAndWriterReplaced() {
+		when(mongoTemplate.getCollection("todo"))
+			.thenThrow(new IllegalStateException("Writer broken"))
+			.thenReturn(Mono.just(collection));
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+
+		final List<Signal<Todo>> failed = insertAll("First", "Second", "Third");
+		final List<Signal<Todo>> later = insertAll("Fourth", "Fifth", "Sixth");
+
+		failed.forEach(result -> assertTrue(result.isOnError()));
+		later.forEach(result -> assertTrue(result.isOnNext()));
+	}
+
+	/**
+	 * Subscribes to every insert at once and waits for all of them, successful or not.
+	 */
+	private List<Signal<Todo>> insertAll(String... descriptions) {
+		return Flux.fromArray(descriptions)
+				.flatMapSequential(description -> this.inserts.insert(new Todo(false, description, "user"))
+						.materialize()
+						.filter(signal -> !signal.isOnComplete() || signal.hasValue()))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+	}
+
+}
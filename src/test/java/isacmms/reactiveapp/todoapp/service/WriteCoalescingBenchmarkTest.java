@@ -0,0 +1,127 @@
+package isacmms.reactiveapp.todoapp.service;
+
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import isacmms.reactiveapp.todoapp.model.Todo;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Throughput and p99 latency of concurrent creates with write coalescing off and on.
+ * The database is simulated by a pool of connections where each round trip takes
+ * a fixed latency plus a small cost per document, so the numbers show the effect
+ * of trading round trips for batch size rather than real Mongo figures.
+ *
+ * @author isacm
+ *
+ */
+@Tag("benchmark")
+@Log4j2
+@SuppressWarnings("unchecked")
+class WriteCoalescingBenchmarkTest {
+
+	private static final int CREATES = 3_000;
+	private static final int CALLERS = 256;
+	private static final int CONNECTIONS = 4;
+	private static final long ROUND_TRIP_NANOS = Duration.ofMillis(1).toNanos();
+	private static final long PER_DOCUMENT_NANOS = Duration.ofNanos(5_000).toNanos();
+
+	private final Semaphore connections = new Semaphore(CONNECTIONS);
+	private final AtomicInteger roundTrips = new AtomicInteger();
+
+	@Test
+	@DisplayName("Benchmark concurrent creates with write coalescing off and on")
+	void benchmarkWriteCoalescing() {
+		final TodoRepository repository = mock(TodoRepository.class);
+		when(repository.save(any(Todo.class))).thenAnswer(invocation -> roundTrip(1, invocation.getArgument(0)));
+
+		final MongoCollection<Document> collection = mock(MongoCollection.class);
+		when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(invocation -> 
+				roundTrip(invocation.<List<?>>getArgument(0).size(), BulkWriteResult.unacknowledged()));
+		final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+		converter.afterPropertiesSet();
+		final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+		when(mongoTemplate.getCollectionName(Todo.class)).thenReturn("todo");
+		when(mongoTemplate.getCollection("todo")).thenReturn(Mono.just(collection));
+		final TodoAuditing auditing = mock(TodoAuditing.class);
+		when(auditing.beforeConvert(any(Todo.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		final int off = run("off", new TodoWriteCoalescer(repository, mongoTemplate, auditing, false, Duration.ZERO, 1));
+		final TodoWriteCoalescer coalescing = new TodoWriteCoalescer(repository, mongoTemplate, auditing, true, Duration.ofMillis(2), 100);
+		final int on = run("on", coalescing);
+		coalescing.destroy();
+
+		assertEquals(CREATES, off);
+		assertTrue(on < off / 10, "Coalescing should cut round trips by an order of magnitude");
+	}
+
+	/**
+	 * @return round trips made by the measured run.
+	 */
+	private int run(String mode, TodoWriteCoalescer inserts) {
+		creates(inserts);
+		this.roundTrips.set(0);
+
+		final long start = System.nanoTime();
+		final List<Long> latencies = creates(inserts);
+		final double seconds = (System.nanoTime() - start) / 1e9;
+
+		Collections.sort(latencies);
+		log.info("Coalescing {}: {} creates/s, p50 {} ms, p99 {} ms, {} round trips", mode,
+				String.format("%.0f", CREATES / seconds),
+				String.format("%.2f", latencies.get(latencies.size() / 2) / 1e6),
+				String.format("%.2f", latencies.get((int) (latencies.size() * 0.99)) / 1e6),
+				this.roundTrips.get());
+		return this.roundTrips.get();
+	}
+
+	private static List<Long> creates(TodoWriteCoalescer inserts) {
+		return Flux.range(0, CREATES)
+				.flatMap(i -> Mono.defer(() -> {
+					final long start = System.nanoTime();
+					return inserts.insert(new Todo(false, "Todo number " + i, "user"))
+							.map(todo -> System.nanoTime() - start);
+				}), CALLERS)
+				.collectList()
+				.block(Duration.ofMinutes(1));
+	}
+
+	private <T> Mono<T> roundTrip(int documents, T value) {
+		return Mono.fromCallable(() -> {
+			this.connections.acquire();
+			try {
+				this.roundTrips.incrementAndGet();
+				LockSupport.parkNanos(ROUND_TRIP_NANOS + documents * PER_DOCUMENT_NANOS);
+			} finally {
+				this.connections.release();
+			}
+			return value;
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+}